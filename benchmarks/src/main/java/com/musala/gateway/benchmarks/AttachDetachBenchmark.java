@@ -0,0 +1,86 @@
+package com.musala.gateway.benchmarks;
+
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.service.GatewayService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GatewayService.attachDevice followed by detachDevice against the in memory H2 database. Each benchmark thread works
+ * on its own gateway and device, so the threads only contend on the database and not on the gateway row lock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttachDetachBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Application {
+        ConfigurableApplicationContext context;
+        GatewayService gatewayService;
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = ManagementContext.start("attach_detach");
+            gatewayService = context.getBean(GatewayService.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Fleet {
+        long gatewayId;
+        long deviceId;
+
+        @Setup(Level.Trial)
+        public void seed(Application application) {
+            Gateway gateway = application.context.getBean(GatewayRepository.class).save(
+                    new Gateway(UUID.randomUUID().toString(), "bench_gw", "10.8.6.50"));
+            Device device = application.context.getBean(DeviceRepository.class).save(
+                    new Device(ThreadLocalRandom.current().nextLong(), "bench", Date.from(Instant.now()),
+                               DeviceStatus.ONLINE));
+            gatewayId = gateway.getId();
+            deviceId = device.getId();
+        }
+    }
+
+    @Benchmark
+    public Gateway attachThenDetach(Application application, Fleet fleet) throws Exception {
+        application.gatewayService.attachDevice(fleet.gatewayId, fleet.deviceId);
+        return application.gatewayService.detachDevice(fleet.gatewayId, fleet.deviceId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Gateway attachThenDetachConcurrently(Application application, Fleet fleet) throws Exception {
+        return attachThenDetach(application, fleet);
+    }
+}
@@ -0,0 +1,23 @@
+package com.musala.gateway.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the JMH command line. Unless another result format is given, results are written as JSON
+ * to target/jmh-result.json so runs of different releases can be diffed. The sizes benchmarks record per operation
+ * are always reported, see {@link OperationSizeProfiler}.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.addAll(Arrays.asList("-rf", "json", "-rff", "target/jmh-result.json"));
+        }
+        options.addAll(Arrays.asList("-prof", OperationSizeProfiler.class.getName()));
+        Main.main(options.toArray(new String[0]));
+    }
+}
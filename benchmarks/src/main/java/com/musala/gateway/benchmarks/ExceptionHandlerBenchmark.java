@@ -0,0 +1,80 @@
+package com.musala.gateway.benchmarks;
+
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+/**
+ * Requests rejected through the @ExceptionHandler of the controllers, dispatched through MockMvc so the servlet stack
+ * but not the network is measured. A successful view of the same gateway is the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExceptionHandlerBenchmark {
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private long gatewayId;
+
+    @Setup
+    public void start() {
+        context = ManagementContext.start("exception_handler");
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        gatewayId = context.getBean(GatewayRepository.class)
+                           .save(new Gateway(UUID.randomUUID().toString(), "bench_gw", "10.8.6.50")).getId();
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MvcResult viewGateway() throws Exception {
+        return mockMvc.perform(get("/gateway/view/" + gatewayId)).andReturn();
+    }
+
+    /**
+     * Bean validation fails and MethodArgumentNotValidException is mapped to the invalid fields.
+     */
+    @Benchmark
+    public MvcResult createInvalidGateway() throws Exception {
+        return mockMvc.perform(post("/gateway/create").contentType(MediaType.APPLICATION_JSON).content(
+                "{\"serialNumber\":\"bench\",\"name\":\"bench_gw\",\"ipAddress\":\"not.valid.ip.address\"}"))
+                      .andReturn();
+    }
+
+    /**
+     * The service throws DeviceNotFoundException, which is mapped to its message.
+     */
+    @Benchmark
+    public MvcResult attachMissingDevice() throws Exception {
+        return mockMvc.perform(put("/gateway/" + gatewayId + "/attach/" + Long.MAX_VALUE)).andReturn();
+    }
+}
@@ -0,0 +1,55 @@
+package com.musala.gateway.benchmarks;
+
+import com.musala.gateway.management.dto.FleetSpec;
+import com.musala.gateway.management.service.FleetSeeder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to seed a fleet of the given amount of devices with FleetSeeder, 10 attached to every gateway and a fifth of
+ * them unattached, into an empty database. Every iteration starts the application over a new database, so seeding
+ * always starts from the same state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FleetSeedBenchmark {
+    @Param({"100000", "1000000"})
+    private int devices;
+    private ConfigurableApplicationContext context;
+    private FleetSeeder fleetSeeder;
+    private int iteration;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        context = ManagementContext.start("fleet_seed_" + devices + "_" + iteration++);
+        fleetSeeder = context.getBean(FleetSeeder.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void seed() {
+        fleetSeeder.seed(new FleetSpec("bench", devices * 8 / 100, 10, 0.2));
+    }
+}
@@ -0,0 +1,87 @@
+package com.musala.gateway.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.dto.FleetSpec;
+import com.musala.gateway.management.service.FleetSeeder;
+import com.musala.gateway.management.service.GatewayService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One page of /gateway/list, 100 gateways with 10 devices each, read through GatewayService and serialized to JSON
+ * in each of its views: every gateway with its devices, the summary view and a sparse fieldset of id, serialNumber
+ * and ipAddress.
+ * <p>
+ * What each view reads and writes is measured once when the benchmark is set up and reported along with its score
+ * (see {@link OperationSizeProfiler}): the statements it runs, the rows returned by its queries, the entities Hibernate
+ * loaded and the bytes of the response body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GatewayListViewBenchmark {
+    @Param({"full", "summary", "fields"})
+    private String view;
+    private ConfigurableApplicationContext context;
+    private GatewayService gatewayService;
+    private ObjectMapper objectMapper;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = ManagementContext.start("list_views_" + view,
+                                          "--spring.jpa.properties.hibernate.generate_statistics=true");
+        gatewayService = context.getBean(GatewayService.class);
+        objectMapper = context.getBean(ObjectMapper.class);
+        context.getBean(FleetSeeder.class).seed(new FleetSpec("bench", 100, 10, 0));
+
+        Statistics statistics =
+                context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        byte[] body = list();
+        long rows = 0;
+        for (String query : statistics.getQueries()) {
+            rows += statistics.getQueryStatistics(query).getExecutionRowCount();
+        }
+        OperationSizeProfiler.record("statements", statistics.getPrepareStatementCount(), "statements/op");
+        OperationSizeProfiler.record("rows", rows, "rows/op");
+        OperationSizeProfiler.record("entities", statistics.getEntityLoadCount(), "entities/op");
+        OperationSizeProfiler.record("bytes", body.length, "B/op");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] list() throws Exception {
+        switch (view) {
+            case "summary":
+                return objectMapper.writeValueAsBytes(gatewayService.listSummaries(0, 100));
+            case "fields":
+                return objectMapper.writeValueAsBytes(gatewayService.listFields(0, 100, "id,serialNumber,ipAddress"));
+            default:
+                return objectMapper.writeValueAsBytes(gatewayService.list(0, 100));
+        }
+    }
+}
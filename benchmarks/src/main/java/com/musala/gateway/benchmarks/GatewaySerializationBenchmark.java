@@ -0,0 +1,60 @@
+package com.musala.gateway.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization and deserialization of a Gateway with 10 attached Devices, the body of /gateway/view, using an
+ * ObjectMapper configured like the one Spring Boot gives the controllers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GatewaySerializationBenchmark {
+    private ObjectMapper objectMapper;
+    private Gateway gateway;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        gateway = new Gateway("bench-serial-number", "bench_gw", "10.8.6.50");
+        gateway.setId(1);
+        for (int i = 0; i < 10; i++) {
+            Device device = new Device(1000 + i, "bench", Date.from(Instant.now()), DeviceStatus.ONLINE, gateway);
+            device.setId(i + 1);
+            gateway.getDevices().add(device);
+        }
+        json = objectMapper.writeValueAsBytes(gateway);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return objectMapper.writeValueAsBytes(gateway);
+    }
+
+    @Benchmark
+    public Gateway deserialize() throws Exception {
+        return objectMapper.readValue(json, Gateway.class);
+    }
+}
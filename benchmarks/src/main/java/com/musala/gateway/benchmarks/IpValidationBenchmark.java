@@ -0,0 +1,81 @@
+package com.musala.gateway.benchmarks;
+
+import com.musala.gateway.management.annotation.IPValidator;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.util.Ipv4;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * IP address validation through the bean validation constraint and the Gateway entity, compared with the regex
+ * validation they replaced, which built the regex and compiled it on every call through String.matches, and with the
+ * same regex precompiled. Each invocation validates a mix of valid and invalid addresses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpValidationBenchmark {
+    private static final String SEGMENT = "(\\d{1,2}|(0|1)\\d{2}|2[0-4]\\d|25[0-5])";
+    private static final Pattern IP_PATTERN =
+            Pattern.compile(SEGMENT + "\\." + SEGMENT + "\\." + SEGMENT + "\\." + SEGMENT);
+    private final String[] addresses = {"10.8.6.50", "192.168.100.254", "255.255.255.0", "1.2.3", "10.8.6.256",
+                                        "not.valid.ip.address"};
+    private final IPValidator validator = new IPValidator();
+    private final Gateway gateway = new Gateway("SN", "bench_gw", "10.8.6.50");
+
+    @Benchmark
+    public void regexPerCall(Blackhole blackhole) {
+        for (String address : addresses) {
+            String segment = "(\\d{1,2}|(0|1)\\d{2}|2[0-4]\\d|25[0-5])";
+            String ipRegex = segment + "\\." + segment + "\\." + segment + "\\." + segment;
+            blackhole.consume(address.matches(ipRegex));
+        }
+    }
+
+    @Benchmark
+    public void precompiledRegex(Blackhole blackhole) {
+        for (String address : addresses) {
+            blackhole.consume(IP_PATTERN.matcher(address).matches());
+        }
+    }
+
+    @Benchmark
+    public void parser(Blackhole blackhole) {
+        for (String address : addresses) {
+            blackhole.consume(Ipv4.parse(address));
+        }
+    }
+
+    @Benchmark
+    public void ipValidator(Blackhole blackhole) {
+        for (String address : addresses) {
+            blackhole.consume(validator.isValid(address, null));
+        }
+    }
+
+    /**
+     * Setting the address parses it, as done when a request body is read, and isIPAddressValid checks the result as
+     * done by the service.
+     */
+    @Benchmark
+    public void gatewayIsIPAddressValid(Blackhole blackhole) {
+        for (String address : addresses) {
+            gateway.setIpAddress(address);
+            blackhole.consume(gateway.isIPAddressValid());
+        }
+    }
+}
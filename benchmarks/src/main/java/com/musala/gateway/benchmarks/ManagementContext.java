@@ -0,0 +1,33 @@
+package com.musala.gateway.benchmarks;
+
+import com.musala.gateway.management.ManagementApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Boots the management application for the benchmarks that go through its services or controllers. Every context gets
+ * its own in memory database, starts without test data and on a random port, and the application loggers are
+ * silenced so writing the logs is not part of what is measured.
+ */
+final class ManagementContext {
+    private ManagementContext() {
+    }
+
+    /**
+     * @param database  Name of the in memory database
+     * @param arguments Further command line arguments, e.g. properties to override
+     * @return The started application
+     */
+    static ConfigurableApplicationContext start(String database, String... arguments) {
+        List<String> args = new ArrayList<>(Arrays.asList("--server.port=0", "--musala.enable.test.data=false",
+                                                          "--spring.datasource.url=jdbc:h2:mem:" + database
+                                                          + ";LOCK_TIMEOUT=10000", "--logging.level.root=WARN",
+                                                          "--logging.level.com.musala=OFF"));
+        args.addAll(Arrays.asList(arguments));
+        return SpringApplication.run(ManagementApplication.class, args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,94 @@
+package com.musala.gateway.benchmarks;
+
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.servlet.Filter;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+/**
+ * Cost of the request and repository timers on the hot paths: the same requests with the metrics instrumentation
+ * (instrumented) and with the auto configurations adding the request and repository timers excluded (bare). The
+ * servlet filters of the application, which time the requests, are applied by MockMvc.
+ * <p>
+ * The differences are a few microseconds, so every variant runs in several forks and is only measured once the
+ * request path is compiled, which takes up to a minute on a single core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 60, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(5)
+public class MetricsOverheadBenchmark {
+    private static final String BARE = "--spring.autoconfigure.exclude="
+            + "org.springframework.boot.actuate.autoconfigure.metrics.web.servlet.WebMvcMetricsAutoConfiguration,"
+            + "org.springframework.boot.actuate.autoconfigure.metrics.data.RepositoryMetricsAutoConfiguration";
+
+    @Param({"instrumented", "bare"})
+    public String metrics;
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private long gatewayId;
+
+    @Setup
+    public void start() {
+        context = "bare".equals(metrics) ? ManagementContext.start("metrics_overhead", BARE)
+                                         : ManagementContext.start("metrics_overhead");
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+                                 .addFilters(context.getBeansOfType(Filter.class).values().toArray(new Filter[0]))
+                                 .build();
+        gatewayId = context.getBean(GatewayRepository.class)
+                           .save(new Gateway(UUID.randomUUID().toString(), "bench_gw", "10.8.6.50")).getId();
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    /**
+     * Served from the entity cache, so mostly the request timer.
+     */
+    @Benchmark
+    public MvcResult viewGateway() throws Exception {
+        return mockMvc.perform(get("/gateway/view/" + gatewayId)).andReturn();
+    }
+
+    /**
+     * Two repository calls, each one timed.
+     */
+    @Benchmark
+    public MvcResult listGateways() throws Exception {
+        return mockMvc.perform(get("/gateway/list?limit=10")).andReturn();
+    }
+
+    /**
+     * Rejected through the exception handler, which also counts the rejection.
+     */
+    @Benchmark
+    public MvcResult attachMissingDevice() throws Exception {
+        return mockMvc.perform(put("/gateway/" + gatewayId + "/attach/" + Long.MAX_VALUE)).andReturn();
+    }
+}
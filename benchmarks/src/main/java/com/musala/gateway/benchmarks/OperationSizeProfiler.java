@@ -0,0 +1,50 @@
+package com.musala.gateway.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Reports how much each operation of a benchmark reads or writes, e.g. rows fetched or bytes encoded, as secondary
+ * results next to its score, so they end up in the result file along with it. Benchmarks record them when they are
+ * set up, and they are reported averaged like the score, so they must not change between iterations.
+ * {@link BenchmarkRunner} enables it for every run, benchmarks that record nothing get no extra results.
+ * <p>
+ * Recorded sizes are kept until the JVM exits, which is the end of the trial as long as the benchmark is forked.
+ */
+public class OperationSizeProfiler implements InternalProfiler {
+    private static final Map<String, ScalarResult> SIZES = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param label Name of the result, reported after the name of the benchmark
+     * @param value Amount read or written by each operation
+     * @param unit  What is counted, per operation, e.g. rows/op
+     */
+    static void record(String label, double value, String unit) {
+        SIZES.put(label, new ScalarResult(label, value, unit, AggregationPolicy.AVG));
+    }
+
+    @Override
+    public String getDescription() {
+        return "Amounts read or written by each operation, as recorded by the benchmark";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams, IterationResult result) {
+        return new ArrayList<>(SIZES.values());
+    }
+}
@@ -0,0 +1,119 @@
+package com.musala.gateway.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.musala.gateway.management.dto.KeysetPage;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Date;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cost of the list payloads in each format the controllers negotiate: a page of 100 gateways with 10 devices each, the
+ * default /gateway/list page, and a page of 1000 devices, the largest /device/list page. Every format is encoded with
+ * an ObjectMapper configured like the ones Spring Boot gives the message converters.
+ * <p>
+ * Besides the time to serialize and deserialize, serializeGzipped measures serializing and compressing as the server
+ * does for clients accepting gzip. The bytes on the wire of each format, plain and gzipped, are reported along with
+ * the scores (see {@link OperationSizeProfiler}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadFormatBenchmark {
+    @Param({"json", "cbor", "smile"})
+    private String format;
+    @Param({"gateways", "devices"})
+    private String payload;
+    private ObjectMapper objectMapper;
+    private KeysetPage<?> page;
+    private JavaType pageType;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        JsonFactory factory = format.equals("cbor") ? new CBORFactory() :
+                              format.equals("smile") ? new SmileFactory() : new JsonFactory();
+        objectMapper = Jackson2ObjectMapperBuilder.json().factory(factory).build();
+        if (payload.equals("gateways")) {
+            List<Gateway> gateways = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Gateway gateway = new Gateway("bench-serial-number-" + i, "bench_gw", "10.8.6." + i);
+                gateway.setId(i + 1);
+                for (int j = 0; j < 10; j++) {
+                    gateway.getDevices().add(device(i * 10 + j + 1, gateway));
+                }
+                gateway.setDeviceCount(10);
+                gateways.add(gateway);
+            }
+            page = new KeysetPage<>(gateways, 100L);
+            pageType = objectMapper.getTypeFactory().constructParametricType(KeysetPage.class, Gateway.class);
+        } else {
+            List<Device> devices = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                devices.add(device(i + 1, null));
+            }
+            page = new KeysetPage<>(devices, 1000L);
+            pageType = objectMapper.getTypeFactory().constructParametricType(KeysetPage.class, Device.class);
+        }
+        encoded = objectMapper.writeValueAsBytes(page);
+        OperationSizeProfiler.record("bytes", encoded.length, "B/op");
+        OperationSizeProfiler.record("gzippedBytes", gzip(encoded).length, "B/op");
+    }
+
+    private static Device device(long id, Gateway gateway) {
+        Device device = new Device(100000 + id, "Vendor-" + id % 20, Date.from(Instant.now()), DeviceStatus.ONLINE,
+                                   gateway);
+        device.setId(id);
+        return device;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] serializeGzipped() throws Exception {
+        return gzip(objectMapper.writeValueAsBytes(page));
+    }
+
+    @Benchmark
+    public KeysetPage<?> deserialize() throws Exception {
+        return objectMapper.readValue(encoded, pageType);
+    }
+}
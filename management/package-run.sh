@@ -1,2 +1,2 @@
 mvn package -Dmaven.test.skip=true
-java -jar target/management-0.0.1-SNAPSHOT.jar
+java -jar target/management-1.0-exec.jar
@@ -1,5 +1,7 @@
 package com.musala.gateway.management.annotation;
 
+import com.musala.gateway.management.util.Ipv4;
+
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
 
@@ -10,11 +12,7 @@ public class IPValidator implements ConstraintValidator<IPConstraint, String> {
 
     @Override
     public boolean isValid(String s, ConstraintValidatorContext constraintValidatorContext) {
-        //For each segment there are 255 possible values
-        //Single decimal (Eg. 1.), 100 range (Eg192.), 200 range (Eg 243.), 250 range (Eg. 255.)
-        String segment = "(\\d{1,2}|(0|1)\\d{2}|2[0-4]\\d|25[0-5])";
-        //An IP address is composed of 4 segments, delimited by a dot (.)
-        String ipRegex = segment + "\\." + segment + "\\." + segment + "\\." + segment;
-        return s.matches(ipRegex);
+        //Missing addresses are reported by @NotBlank
+        return s == null || Ipv4.isValid(s);
     }
 }
@@ -1,10 +1,13 @@
 package com.musala.gateway.management.config;
 
+import com.musala.gateway.management.dto.FleetSpec;
 import com.musala.gateway.management.model.Device;
 import com.musala.gateway.management.model.DeviceStatus;
 import com.musala.gateway.management.model.Gateway;
 import com.musala.gateway.management.repository.DeviceRepository;
 import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.service.FleetSeeder;
+import com.musala.gateway.management.service.GatewayService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +31,10 @@ public class InitializerCfg {
     @Autowired
     DeviceRepository deviceRepository;
     @Autowired
+    GatewayService gatewayService;
+    @Autowired
+    FleetSeeder fleetSeeder;
+    @Autowired
     Environment environment;
     @Bean
     public CommandLineRunner dbInitializer() {
@@ -56,9 +63,30 @@ public class InitializerCfg {
                                       new Device(12, "AMD", Date.from(Instant.now()), DeviceStatus.ONLINE),
                                       new Device(13, "Intel", Date.from(Instant.now()), DeviceStatus.ONLINE)));
                 logger.info(devices.toString());
+                //Devices were attached straight through the repository, so the gateway counters are set from them
+                gatewayService.rebuildDeviceCounts();
+            }
+            if (environment.getRequiredProperty("musala.seed.enabled", Boolean.class)) {
+                fleetSeeder.seed(fleetSpec());
             }
         };
 
     }
 
+    /**
+     * @return The fleet described by the musala.seed properties
+     */
+    private FleetSpec fleetSpec() {
+        FleetSpec spec = new FleetSpec(environment.getRequiredProperty("musala.seed.serial.prefix"),
+                                       environment.getRequiredProperty("musala.seed.gateways", Integer.class),
+                                       environment.getRequiredProperty("musala.seed.devices.per.gateway",
+                                                                       Integer.class),
+                                       environment.getRequiredProperty("musala.seed.unattached.ratio", Double.class));
+        spec.setVendorWeights(FleetSpec.parseWeights(environment.getRequiredProperty("musala.seed.vendors")));
+        spec.setStatusWeights(FleetSpec.statusWeights(environment.getRequiredProperty("musala.seed.statuses")));
+        spec.setCreatedWithinDays(environment.getRequiredProperty("musala.seed.created.within.days", Integer.class));
+        spec.setSeed(environment.getRequiredProperty("musala.seed.random.seed", Integer.class));
+        return spec;
+    }
+
 }
@@ -0,0 +1,133 @@
+package com.musala.gateway.management.controller;
+
+import com.musala.gateway.management.repository.DeviceCountMismatch;
+import com.musala.gateway.management.service.ChangeFeed;
+import com.musala.gateway.management.service.DeviceStatusBuffer;
+import com.musala.gateway.management.service.EntityCache;
+import com.musala.gateway.management.service.FleetStats;
+import com.musala.gateway.management.service.GatewayService;
+import com.musala.gateway.management.service.UniqueKeyFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.List;
+
+@SuppressWarnings("unused")
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    GatewayService gatewayService;
+    @Autowired
+    EntityCache entityCache;
+    @Autowired
+    UniqueKeyFilter uniqueKeyFilter;
+    @Autowired
+    DeviceStatusBuffer deviceStatusBuffer;
+    @Autowired
+    FleetStats fleetStats;
+    @Autowired
+    ChangeFeed changeFeed;
+
+    /**
+     * Compares the device counter of every gateway with the devices actually attached to it.
+     *
+     * @return The gateways whose counter is inconsistent, an empty list if every counter is right.
+     */
+    @GetMapping("/counters/verify")
+    public ResponseEntity<?> verifyDeviceCounts() {
+        logger.info("/admin/counters/verify requested");
+        List<DeviceCountMismatch> mismatches = gatewayService.verifyDeviceCounts();
+        logger.info("/admin/counters/verify found " + mismatches.size() + " inconsistent gateways");
+        return new ResponseEntity<>(mismatches, HttpStatus.OK);
+    }
+
+    /**
+     * Rebuilds the device counter of every gateway from the device table.
+     *
+     * @return The amount of gateways whose counter was fixed.
+     */
+    @PostMapping("/counters/rebuild")
+    public ResponseEntity<?> rebuildDeviceCounts() {
+        logger.info("/admin/counters/rebuild requested");
+        int rebuilt = gatewayService.rebuildDeviceCounts();
+        return new ResponseEntity<>(Collections.singletonMap("rebuilt", rebuilt), HttpStatus.OK);
+    }
+
+    /**
+     * Statistics of the gateway and device caches used by the view endpoints.
+     *
+     * @return Size, hits, misses, hit rate, evictions and invalidations of each cache.
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> cacheStats() {
+        logger.info("/admin/cache/stats requested");
+        return new ResponseEntity<>(entityCache.stats(), HttpStatus.OK);
+    }
+
+    /**
+     * Statistics of the filters used to skip the serial number and uid lookups on create.
+     *
+     * @return Approximate amount of keys, capacity and expected false positive probability of each filter.
+     */
+    @GetMapping("/unique-filter/stats")
+    public ResponseEntity<?> uniqueFilterStats() {
+        logger.info("/admin/unique-filter/stats requested");
+        return new ResponseEntity<>(uniqueKeyFilter.stats(), HttpStatus.OK);
+    }
+
+    /**
+     * Rebuilds the serial number and uid filters from the database, dropping deleted keys.
+     *
+     * @return The statistics of the rebuilt filters.
+     */
+    @PostMapping("/unique-filter/rebuild")
+    public ResponseEntity<?> rebuildUniqueFilter() {
+        logger.info("/admin/unique-filter/rebuild requested");
+        uniqueKeyFilter.rebuild();
+        return new ResponseEntity<>(uniqueKeyFilter.stats(), HttpStatus.OK);
+    }
+
+    /**
+     * Statistics of the buffer of statuses reported by device heartbeats.
+     *
+     * @return Pending statuses, capacity, and reports accepted, coalesced and rejected, statuses written and flushes.
+     */
+    @GetMapping("/status-buffer/stats")
+    public ResponseEntity<?> statusBufferStats() {
+        logger.info("/admin/status-buffer/stats requested");
+        return new ResponseEntity<>(deviceStatusBuffer.stats(), HttpStatus.OK);
+    }
+
+    /**
+     * Rebuilds the statistics served by /stats from the database, picking up devices changed bypassing the services.
+     *
+     * @return The rebuilt fleet totals.
+     */
+    @PostMapping("/stats/rebuild")
+    public ResponseEntity<?> rebuildStats() {
+        logger.info("/admin/stats/rebuild requested");
+        fleetStats.rebuild();
+        return new ResponseEntity<>(fleetStats.fleet(), HttpStatus.OK);
+    }
+
+    /**
+     * Statistics of the change feed served by /changes.
+     *
+     * @return Capacity, events published, id of the next event and current subscribers.
+     */
+    @GetMapping("/changes/stats")
+    public ResponseEntity<?> changeFeedStats() {
+        logger.info("/admin/changes/stats requested");
+        return new ResponseEntity<>(changeFeed.stats(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,45 @@
+package com.musala.gateway.management.controller;
+
+import com.musala.gateway.management.service.ChangeFeed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@SuppressWarnings("unused")
+@RestController
+@RequestMapping("/changes")
+public class ChangeController {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    ChangeFeed changeFeed;
+
+    /**
+     * Streams the changes of gateways and devices as server-sent events, named after the kind of change and carrying
+     * the ids of the changed records. A client resuming a subscription sends the id of the last event it received in
+     * the Last-Event-ID header (browsers do it on reconnection) and receives the events published after it. If those
+     * events are no longer available a reset event is sent and the stream ends. A 503 SERVICE_UNAVAILABLE status code
+     * is returned if there are too many subscribers.
+     *
+     * @param lastEventId Id of the last event received, omit it to only receive new events
+     * @return Stream of change events.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribe(
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        logger.info("Request at: /changes" + (lastEventId == null ? "" : " after event " + lastEventId));
+        SseEmitter emitter = changeFeed.subscribe(lastEventId);
+        if (emitter == null) {
+            logger.warn("/changes rejected, too many subscribers");
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>(emitter, HttpStatus.OK);
+    }
+}
@@ -1,19 +1,35 @@
 package com.musala.gateway.management.controller;
 
+import com.musala.gateway.management.dto.BulkItemResult;
+import com.musala.gateway.management.dto.DeviceSearch;
+import com.musala.gateway.management.dto.DeviceStatusReport;
+import com.musala.gateway.management.dto.KeysetPage;
 import com.musala.gateway.management.exception.DeviceNotFoundException;
 import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.management.exception.PreconditionFailedException;
+import com.musala.gateway.management.metrics.RejectionMetrics;
 import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
 import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.DeviceStatusBuffer;
+import com.musala.gateway.management.util.BinaryFormats;
+import com.musala.gateway.management.util.ETags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,39 +41,100 @@ public class DeviceController {
     Logger logger = LoggerFactory.getLogger(this.getClass());
     @Autowired
     DeviceService deviceService;
+    @Autowired
+    DeviceStatusBuffer deviceStatusBuffer;
+    @Autowired
+    RejectionMetrics rejectionMetrics;
 
     /**
-     * Retrieves all devices. In case no record exists a 204 NO_CONTENT response will be returned. Otherwise, a 200 OK
-     * status code will be returned along with the list of devices.
+     * Retrieves one page of devices ordered by id. In case no record exists after the given cursor a 204 NO_CONTENT
+     * response will be returned. Otherwise, a 200 OK status code will be returned along with the page of devices and
+     * the cursor to request the next one, and an entity tag of the page so polling clients get a 304 NOT_MODIFIED
+     * response until any device in the page changes.
      *
-     * @return List of devices.
+     * @param after Id of the last device of the previous page, omit it to start from the beginning.
+     * @param limit Max amount of devices to return.
+     * @return Page of devices.
      */
     @GetMapping("/list")
-    public ResponseEntity<?> list() {
+    public ResponseEntity<?> list(@RequestParam(defaultValue = "0") long after,
+                                  @RequestParam(defaultValue = "${musala.page.default.limit}") int limit) {
         logger.info("Request at: /device/list");
-        List<Device> list = deviceService.list();
-        if (!list.isEmpty()) {
+        KeysetPage<Device> page = deviceService.list(after, limit);
+        if (!page.isEmpty()) {
             logger.info("/device/list responded OK");
-            return new ResponseEntity<>(list.toArray(new Device[0]), HttpStatus.OK);
+            return ResponseEntity.ok().eTag(ETags.ofDevices(page)).body(page);
         }
         logger.info("/device/list did not yield any results");
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
+    /**
+     * Searches the devices matching the given filters, one page at a time in the same way as /device/list. Every
+     * filter is optional and a device must match all the given ones.
+     *
+     * @param vendor       Vendor of the devices
+     * @param deviceStatus Status of the devices
+     * @param createdFrom  Devices created at or after this time, ISO 8601 e.g. 2022-05-23T00:00:00Z
+     * @param createdTo    Devices created before this time, ISO 8601
+     * @param gateway      Identifier of the gateway the devices are attached to
+     * @param unattached   Whether only the devices not attached to any gateway are searched
+     * @param after        Id of the last device of the previous page, omit it to start from the beginning.
+     * @param limit        Max amount of devices to return.
+     * @return Page of the matching devices, NO_CONTENT if there are none.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> search(@RequestParam(required = false) String vendor,
+                                    @RequestParam(required = false) DeviceStatus deviceStatus,
+                                    @RequestParam(required = false) Instant createdFrom,
+                                    @RequestParam(required = false) Instant createdTo,
+                                    @RequestParam(required = false) Long gateway,
+                                    @RequestParam(defaultValue = "false") boolean unattached,
+                                    @RequestParam(defaultValue = "0") long after,
+                                    @RequestParam(defaultValue = "${musala.page.default.limit}") int limit)
+            throws NotValidDeviceException {
+        logger.info("Request at: /device/search");
+        DeviceSearch search = new DeviceSearch(vendor, deviceStatus,
+                                               createdFrom == null ? null : Date.from(createdFrom),
+                                               createdTo == null ? null : Date.from(createdTo), gateway, unattached);
+        KeysetPage<Device> page = deviceService.search(search, after, limit);
+        if (!page.isEmpty()) {
+            logger.info("/device/search responded OK");
+            return ResponseEntity.ok().eTag(ETags.ofDevices(page)).body(page);
+        }
+        logger.info("/device/search did not yield any results");
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
     /**
      * Retrieves a device from the database given an id. If the requested device does not exist a 204 NO_CONTENT
-     * responses will be issued.
+     * responses will be issued. If the client sends the entity tag it already has in the If-None-Match header and it is
+     * still current, a 304 NOT_MODIFIED response is returned without loading the device. Each format the device can
+     * be sent in has a tag of its own.
      *
-     * @param id Identifier of the requested device
-     * @return The requested device in case it exists.
+     * @param id          Identifier of the requested device
+     * @param ifNoneMatch Entity tags the client has, optional
+     * @param accept      Formats the client accepts, optional
+     * @return The requested device in case it exists, along with its entity tag.
      */
     @GetMapping("/view/{id}")
-    public ResponseEntity<?> viewDevice(@PathVariable long id) {
+    public ResponseEntity<?> viewDevice(@PathVariable long id,
+                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                String ifNoneMatch,
+                                        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        logger.info("Request at: /device/view/" + id);
+        MediaType format = BinaryFormats.negotiate(accept);
+        if (ifNoneMatch != null) {
+            String etag = deviceService.deviceETag(id);
+            if (etag != null && ETags.noneMatch(ifNoneMatch, ETags.variant(etag, format))) {
+                logger.info("/device/view/" + id + " responded NOT_MODIFIED");
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETags.variant(etag, format)).build();
+            }
+        }
         try {
-            logger.info("Request at: /device/view/" + id);
             Device device = deviceService.deviceById(id);
             logger.info("/device/view/" + id + " responded OK");
-            return new ResponseEntity<>(device, HttpStatus.OK);
+            return tagged(device, format);
         } catch (DeviceNotFoundException e) {
             logger.error("/device/view/" + id + " responded NO CONTENT", e);
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
@@ -77,20 +154,103 @@ public class DeviceController {
 
     }
 
+    /**
+     * Creates many devices at once. Devices whose uid is already taken are rejected without preventing the creation
+     * of the rest.
+     *
+     * @param devices Information of the devices to be created
+     * @return The result of each device, in the same order they were sent.
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<?> createBulk(@RequestBody List<Device> devices) throws NotValidDeviceException {
+        logger.info("Requested /device/bulk with " + devices.size() + " devices");
+        List<BulkItemResult> results = deviceService.createDevices(devices);
+        rejectionMetrics.rejected(results);
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
     /**
      * Endpoint for updating the information of a device. If device identifiable by the supplied id does not exist a
-     * new one with the specified id will be created.
+     * new one with the specified id will be created. If the entity tag the client read is sent in the If-Match header,
+     * the device is only updated if it was not modified since, otherwise a 412 PRECONDITION_FAILED response is
+     * returned. A concurrent update committed meanwhile results in a 409 CONFLICT response.
      *
-     * @param device Device object encapsulating the device information
-     * @param id     Identifier of the device to be updated
-     * @return The resulting device from the update (or newly created device in case the specified one did not exist).
+     * @param device  Device object encapsulating the device information
+     * @param id      Identifier of the device to be updated
+     * @param ifMatch Entity tags the device is expected to have, optional
+     * @param accept  Formats the client accepts, optional
+     * @return The resulting device from the update (or newly created device in case the specified one did not exist),
+     * along with its new entity tag.
      */
     @PutMapping("/update/{id}")
-    public ResponseEntity<?> update(@Valid @RequestBody Device device, @PathVariable long id)
-            throws DeviceNotFoundException, NotValidDeviceException {
+    public ResponseEntity<?> update(@Valid @RequestBody Device device, @PathVariable long id,
+                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                    @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+            throws DeviceNotFoundException, NotValidDeviceException, PreconditionFailedException {
         logger.info("Requested /device/update/" + id);
-        Device updated = deviceService.updateDevice(device, id);
-        return new ResponseEntity<>(updated, HttpStatus.OK);
+        Device updated = deviceService.updateDevice(device, id, ifMatch);
+        return tagged(updated, BinaryFormats.negotiate(accept));
+    }
+
+    /**
+     * Answers with a device in the given format, fixed upfront so the entity tag is the one of that representation.
+     * If the client accepts none of the formats the usual content negotiation rejects the request.
+     */
+    private ResponseEntity<?> tagged(Device device, MediaType format) {
+        if (format == null) {
+            return ResponseEntity.ok().eTag(ETags.of(device)).body(device);
+        }
+        return ResponseEntity.ok().contentType(format).eTag(ETags.variant(ETags.of(device), format)).body(device);
+    }
+
+    /**
+     * Records the status reported by a device heartbeat. The status is buffered and written to the database by the
+     * next flush, so it may take up to the flush interval to be seen by the other endpoints. A 202 ACCEPTED status code
+     * is returned once buffered, or a 503 SERVICE_UNAVAILABLE one along with a Retry-After header if the buffer is
+     * full.
+     *
+     * @param id     Identifier of the reporting device
+     * @param status Reported status
+     * @return Empty response.
+     */
+    @PutMapping("/status/{id}")
+    public ResponseEntity<?> reportStatus(@PathVariable long id, @RequestParam DeviceStatus status) {
+        if (deviceStatusBuffer.offer(id, status)) {
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
+        }
+        logger.warn("/device/status/" + id + " rejected, the status buffer is full");
+        return retryLater(Collections.singletonMap("rejected", Collections.singletonList(id)));
+    }
+
+    /**
+     * Records the statuses reported by many device heartbeats at once, see {@link #reportStatus(long, DeviceStatus)}.
+     * If the buffer fills up only the reports that did not fit are rejected, the rest are buffered.
+     *
+     * @param reports Statuses reported by the devices, the last report of a device wins
+     * @return The amount of reports accepted, or the ids of the devices whose report was rejected.
+     */
+    @PostMapping("/status")
+    public ResponseEntity<?> reportStatuses(@RequestBody List<DeviceStatusReport> reports)
+            throws NotValidDeviceException {
+        for (DeviceStatusReport report : reports) {
+            if (report.getId() == null || report.getStatus() == null) {
+                throw new NotValidDeviceException("Every status report must specify the device id and status");
+            }
+        }
+        List<Long> rejected = deviceStatusBuffer.offer(reports);
+        if (rejected.isEmpty()) {
+            return new ResponseEntity<>(Collections.singletonMap("accepted", reports.size()), HttpStatus.ACCEPTED);
+        }
+        logger.warn("/device/status rejected " + rejected.size() + " of " + reports.size()
+                    + " reports, the status buffer is full");
+        return retryLater(Collections.singletonMap("rejected", rejected));
+    }
+
+    private ResponseEntity<?> retryLater(Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        long seconds = Math.max(1, (deviceStatusBuffer.getFlushIntervalMillis() + 999) / 1000);
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+        return new ResponseEntity<>(body, headers, HttpStatus.SERVICE_UNAVAILABLE);
     }
 
     @DeleteMapping("/delete/{id}")
@@ -109,6 +269,7 @@ public class DeviceController {
     })
     @ResponseBody
     public Map<String, String> handleValidationExceptions(Exception ex) {
+        rejectionMetrics.rejected(ex);
         Map<String, String> errors = new HashMap<>();
         if (ex instanceof MethodArgumentNotValidException) {
             handleModelValidationsErrors((MethodArgumentNotValidException) ex, errors);
@@ -118,6 +279,22 @@ public class DeviceController {
         return errors;
     }
 
+    /**
+     * Conditional updates of a device modified since the client read it are answered with 412 PRECONDITION_FAILED,
+     * and updates that lost the race against a concurrent one with 409 CONFLICT.
+     *
+     * @param ex exception thrown
+     * @return a map with the exception name and message.
+     */
+    @ExceptionHandler( {PreconditionFailedException.class, ObjectOptimisticLockingFailureException.class})
+    public ResponseEntity<Map<String, String>> handleStaleUpdateExceptions(Exception ex) {
+        rejectionMetrics.rejected(ex);
+        Map<String, String> errors = new HashMap<>();
+        errors.put(ex.getClass().getSimpleName(), ex.getMessage());
+        return new ResponseEntity<>(errors, ex instanceof PreconditionFailedException ? HttpStatus.PRECONDITION_FAILED
+                                                                                   : HttpStatus.CONFLICT);
+    }
+
     private void handleModelValidationsErrors(MethodArgumentNotValidException ex, Map<String, String> errors) {
         ex.getBindingResult().getAllErrors().forEach((error) -> {
             String fieldName = ((FieldError) error).getField();
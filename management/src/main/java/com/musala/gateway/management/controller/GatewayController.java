@@ -1,17 +1,28 @@
 package com.musala.gateway.management.controller;
 
+import com.musala.gateway.management.dto.BulkItemResult;
+import com.musala.gateway.management.dto.GatewayFields;
+import com.musala.gateway.management.dto.GatewaySummary;
+import com.musala.gateway.management.dto.KeysetPage;
 import com.musala.gateway.management.exception.*;
+import com.musala.gateway.management.metrics.RejectionMetrics;
 import com.musala.gateway.management.model.Device;
 import com.musala.gateway.management.model.Gateway;
 import com.musala.gateway.management.service.GatewayService;
+import com.musala.gateway.management.util.BinaryFormats;
+import com.musala.gateway.management.util.ETags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.util.HashMap;
@@ -25,25 +36,140 @@ public class GatewayController {
     Logger logger = LoggerFactory.getLogger(this.getClass());
     @Autowired
     GatewayService gatewayService;
+    @Autowired
+    RejectionMetrics rejectionMetrics;
 
 
+    /**
+     * Retrieves one page of gateways along with their devices. The response carries an entity tag of the whole page,
+     * so a client polling it gets a 304 NOT_MODIFIED response until any gateway or device in the page changes.
+     * <p>
+     * Clients that do not need every gateway with its devices can ask for the summary view, the gateways along with
+     * their device counter, or for the fields they need. Neither the unrequested columns nor the devices, unless
+     * requested, are read from the database.
+     *
+     * @param view   full (default) or summary, optional
+     * @param fields Comma separated fields to serve, e.g. id,serialNumber,ipAddress, optional. It can not be combined
+     *               with a view.
+     * @return One page of gateways, NO_CONTENT if there are none.
+     */
     @GetMapping("/list")
-    public ResponseEntity<?> listGateways() {
+    public ResponseEntity<?> listGateways(@RequestParam(defaultValue = "0") long after,
+                                          @RequestParam(defaultValue = "${musala.page.default.limit}") int limit,
+                                          @RequestParam(required = false) String view,
+                                          @RequestParam(required = false) String fields)
+            throws NotValidGatewayException {
         logger.info("Request made to /gateway/list");
-        List<Gateway> gateways = gatewayService.list();
+        if (fields != null && view != null) {
+            throw new NotValidGatewayException("Either a view or the fields can be requested, not both");
+        }
+        KeysetPage<?> gateways;
+        String etag;
+        if (fields != null) {
+            KeysetPage<GatewayFields> projected = gatewayService.listFields(after, limit, fields);
+            gateways = projected;
+            etag = ETags.ofFields(projected);
+        } else if (view == null || view.equals("full")) {
+            KeysetPage<Gateway> full = gatewayService.list(after, limit);
+            gateways = full;
+            etag = ETags.ofGateways(full);
+        } else if (view.equals("summary")) {
+            KeysetPage<GatewaySummary> summaries = gatewayService.listSummaries(after, limit);
+            gateways = summaries;
+            etag = ETags.ofSummaries(summaries);
+        } else {
+            throw new NotValidGatewayException("Provided view is not valid: " + view
+                                               + ", it is either full or summary");
+        }
         if (!gateways.isEmpty()) {
             logger.info("/gateway/list responded OK.");
-            return new ResponseEntity<>(gateways.toArray(new Gateway[0]), HttpStatus.OK);
+            return ResponseEntity.ok().eTag(etag).body(gateways);
         }
         logger.info("/gateway/list responded NO_CONTENT");
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
+    /**
+     * Finds the gateways with the given IP address.
+     *
+     * @param ip IPv4 address in dotted decimal notation
+     * @return The gateways with the given address, NO_CONTENT if there are none.
+     */
+    @GetMapping("/by-ip/{ip:.+}")
+    public ResponseEntity<?> gatewaysByIp(@PathVariable String ip) throws NotValidGatewayException {
+        logger.info("Request made to /gateway/by-ip/" + ip);
+        List<Gateway> gateways = gatewayService.gatewaysByIp(ip);
+        if (!gateways.isEmpty()) {
+            logger.info("/gateway/by-ip responded OK.");
+            return new ResponseEntity<>(gateways, HttpStatus.OK);
+        }
+        logger.info("/gateway/by-ip responded NO_CONTENT");
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Lists the gateways whose IP address is within the given subnet, ordered by address. It is keyset paginated like
+     * /gateway/list, but the cursor is the address of the last gateway of the page instead of its id.
+     *
+     * @param cidr Subnet in CIDR notation, e.g. 10.8.0.0/16
+     * @return One page of the gateways in the subnet, NO_CONTENT if there are none.
+     */
+    @GetMapping("/in-subnet")
+    public ResponseEntity<?> gatewaysInSubnet(@RequestParam String cidr, @RequestParam(defaultValue = "-1") long after,
+                                              @RequestParam(defaultValue = "${musala.page.default.limit}") int limit)
+            throws NotValidGatewayException {
+        logger.info("Request made to /gateway/in-subnet?cidr=" + cidr);
+        KeysetPage<Gateway> gateways = gatewayService.gatewaysInSubnet(cidr, after, limit);
+        if (!gateways.isEmpty()) {
+            logger.info("/gateway/in-subnet responded OK.");
+            return new ResponseEntity<>(gateways, HttpStatus.OK);
+        }
+        logger.info("/gateway/in-subnet responded NO_CONTENT");
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Streams the whole inventory, every gateway with its attached devices, as newline delimited JSON. The response is
+     * written while the records are read from the database so the first lines are sent before the last gateways are
+     * even loaded.
+     *
+     * @return the inventory, one gateway per line
+     */
+    @GetMapping(value = "/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportInventory() {
+        logger.info("/gateway/export requested");
+        StreamingResponseBody body = out -> {
+            long exported = gatewayService.exportInventory(out);
+            logger.info("/gateway/export streamed " + exported + " gateways");
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * Retrieves a gateway along with its devices, and its entity tag. If the client sends the tag it already has in
+     * the If-None-Match header and it is still current, a 304 NOT_MODIFIED response is returned without loading the
+     * gateway. Each format the gateway can be sent in has a tag of its own.
+     *
+     * @param id          Gateway identifier
+     * @param ifNoneMatch Entity tags the client has, optional
+     * @param accept      Formats the client accepts, optional
+     * @return The gateway, NOT_MODIFIED if the client has it already or NO_CONTENT if it does not exist.
+     */
     @GetMapping("/view/{id}")
-    public ResponseEntity<?> viewGateway(@PathVariable long id) {
+    public ResponseEntity<?> viewGateway(@PathVariable long id,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                 String ifNoneMatch,
+                                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        MediaType format = BinaryFormats.negotiate(accept);
+        if (ifNoneMatch != null) {
+            String etag = gatewayService.gatewayETag(id);
+            if (etag != null && ETags.noneMatch(ifNoneMatch, ETags.variant(etag, format))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETags.variant(etag, format)).build();
+            }
+        }
         try {
             Gateway gateway = gatewayService.gatewayById(id);
-            return new ResponseEntity<>(gateway, HttpStatus.OK);
+            return tagged(gateway, ETags.of(gateway), format);
         } catch (GatewayNotFoundException e) {
             logger.error("/gateway/view responded NO_CONTENT", e);
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
@@ -65,14 +191,38 @@ public class GatewayController {
         return new ResponseEntity<>(deleted ? HttpStatus.OK : HttpStatus.NO_CONTENT);
     }
 
+    /**
+     * Updates a gateway. If the client sends the entity tag it read in the If-Match header, the gateway is only
+     * updated if it was not modified since, otherwise a 412 PRECONDITION_FAILED response is returned. A concurrent
+     * update committed meanwhile results in a 409 CONFLICT response.
+     *
+     * @param gateway Information to be updated
+     * @param id      Gateway identifier
+     * @param ifMatch Entity tags the gateway is expected to have, optional
+     * @param accept  Formats the client accepts, optional
+     * @return The updated gateway along with its new entity tag.
+     */
     @PutMapping("/update/{id}")
-    public ResponseEntity<?> updateGateway(@Valid @RequestBody Gateway gateway, @PathVariable long id)
-            throws NotValidGatewayException, GatewayNotFoundException {
+    public ResponseEntity<?> updateGateway(@Valid @RequestBody Gateway gateway, @PathVariable long id,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                                   String ifMatch,
+                                           @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+            throws NotValidGatewayException, GatewayNotFoundException, PreconditionFailedException {
         logger.info("/gateway/update Requested");
-        Gateway updated = gatewayService.updateGateway(gateway, id);
+        Gateway updated = gatewayService.updateGateway(gateway, id, ifMatch);
         logger.info("/gateway/update responded OK");
-        return new ResponseEntity<>(updated, HttpStatus.OK);
+        return tagged(updated, ETags.of(updated), BinaryFormats.negotiate(accept));
+    }
 
+    /**
+     * Answers with a gateway in the given format, fixed upfront so the entity tag is the one of that representation.
+     * If the client accepts none of the formats the usual content negotiation rejects the request.
+     */
+    private ResponseEntity<?> tagged(Gateway gateway, String etag, MediaType format) {
+        if (format == null) {
+            return ResponseEntity.ok().eTag(etag).body(gateway);
+        }
+        return ResponseEntity.ok().contentType(format).eTag(ETags.variant(etag, format)).body(gateway);
     }
 
     @PutMapping("/{gateway_id}/attach/{device_id}")
@@ -94,12 +244,58 @@ public class GatewayController {
         return new ResponseEntity<>(updated, HttpStatus.OK);
     }
 
+    /**
+     * Attaches a list of devices to a gateway in one transaction. The response reports, for each device, whether it
+     * was attached, was already attached, does not exist or did not fit within the device limit.
+     *
+     * @param gateway_id Gateway to attach the devices to
+     * @param deviceIds  Devices to attach
+     * @return The result of each device, in the same order they were sent.
+     */
+    @PutMapping("/{gateway_id}/attach")
+    public ResponseEntity<?> attachDevices(@PathVariable long gateway_id, @RequestBody List<Long> deviceIds)
+            throws GatewayNotFoundException, NotValidDeviceException {
+        logger.info("/gateway/attach requested for " + deviceIds.size() + " devices");
+        List<BulkItemResult> results = gatewayService.attachDevices(gateway_id, deviceIds);
+        rejectionMetrics.rejected(results);
+        logger.info("/gateway/attach responded OK");
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * Detaches a list of devices from a gateway in one transaction. The response reports, for each device, whether it
+     * was detached, does not exist or was not attached to the gateway.
+     *
+     * @param gateway_id Gateway to detach the devices from
+     * @param deviceIds  Devices to detach
+     * @return The result of each device, in the same order they were sent.
+     */
+    @PutMapping("/{gateway_id}/detach")
+    public ResponseEntity<?> detachDevices(@PathVariable long gateway_id, @RequestBody List<Long> deviceIds)
+            throws GatewayNotFoundException, NotValidDeviceException {
+        logger.info("/gateway/detach requested for " + deviceIds.size() + " devices");
+        List<BulkItemResult> results = gatewayService.detachDevices(gateway_id, deviceIds);
+        rejectionMetrics.rejected(results);
+        logger.info("/gateway/detach responded OK");
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
     @GetMapping("/devices/{id}")
-    public ResponseEntity<?> gatewayDevices(@PathVariable long id) throws GatewayNotFoundException {
+    public ResponseEntity<?> gatewayDevices(@PathVariable long id, @RequestParam(defaultValue = "0") long after,
+                                            @RequestParam(defaultValue = "${musala.page.default.limit}") int limit,
+                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                    String ifNoneMatch)
+            throws GatewayNotFoundException {
         logger.info("/gateway/devices requested");
-        List<Device> devices = gatewayService.gatewayDevices(id);
+        if (ifNoneMatch != null) {
+            String etag = gatewayService.gatewayDevicesETag(id, after, limit);
+            if (etag != null && ETags.noneMatch(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+        }
+        KeysetPage<Device> devices = gatewayService.gatewayDevices(id, after, limit);
         logger.info("/gateway/devices responded OK");
-        return new ResponseEntity<>(devices.toArray(new Device[0]), HttpStatus.OK);
+        return ResponseEntity.ok().eTag(ETags.ofDevices(devices)).body(devices);
     }
 
     /**
@@ -116,6 +312,7 @@ public class GatewayController {
     })
     @ResponseBody
     public Map<String, String> handleValidationExceptions(Exception ex) {
+        rejectionMetrics.rejected(ex);
         Map<String, String> errors = new HashMap<>();
         if (ex instanceof MethodArgumentNotValidException) {
             handleModelValidationExceptions((MethodArgumentNotValidException) ex, errors);
@@ -125,6 +322,23 @@ public class GatewayController {
         return errors;
     }
 
+    /**
+     * Conditional updates of a gateway modified since the client read it are answered with 412 PRECONDITION_FAILED,
+     * and updates that lost the race against a concurrent one with 409 CONFLICT. Either way the client should read the
+     * gateway again before retrying.
+     *
+     * @param ex exception thrown
+     * @return a map with the exception name and message.
+     */
+    @ExceptionHandler( {PreconditionFailedException.class, ObjectOptimisticLockingFailureException.class})
+    public ResponseEntity<Map<String, String>> handleStaleUpdateExceptions(Exception ex) {
+        rejectionMetrics.rejected(ex);
+        Map<String, String> errors = new HashMap<>();
+        errors.put(ex.getClass().getSimpleName(), ex.getMessage());
+        return new ResponseEntity<>(errors, ex instanceof PreconditionFailedException ? HttpStatus.PRECONDITION_FAILED
+                                                                                   : HttpStatus.CONFLICT);
+    }
+
     private void handleModelValidationExceptions(MethodArgumentNotValidException ex, Map<String, String> errors) {
         ex.getBindingResult().getAllErrors().forEach((error) -> {
             String fieldName = ((FieldError) error).getField();
@@ -0,0 +1,63 @@
+package com.musala.gateway.management.controller;
+
+import com.musala.gateway.management.service.FleetStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@SuppressWarnings("unused")
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    FleetStats fleetStats;
+
+    /**
+     * Totals of the whole fleet, served from memory.
+     *
+     * @return Amount of gateways, of devices, of devices by status and of attached and unattached devices.
+     */
+    @GetMapping
+    public ResponseEntity<?> fleet() {
+        logger.info("Request at: /stats");
+        return new ResponseEntity<>(fleetStats.fleet(), HttpStatus.OK);
+    }
+
+    /**
+     * Amount of devices attached to a gateway, served from memory. If the gateway does not exist a 204 NO_CONTENT
+     * response will be returned.
+     *
+     * @param id Gateway identifier
+     * @return Amount of devices attached to the gateway, in total and by status.
+     */
+    @GetMapping("/gateway/{id}")
+    public ResponseEntity<?> gateway(@PathVariable long id) {
+        logger.info("Request at: /stats/gateway/" + id);
+        Map<String, Long> gateway = fleetStats.gateway(id);
+        if (gateway == null) {
+            logger.info("/stats/gateway/" + id + " did not yield any results");
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<>(gateway, HttpStatus.OK);
+    }
+
+    /**
+     * Amount of devices of every vendor, served from memory.
+     *
+     * @return Amount of devices by vendor, ordered by vendor.
+     */
+    @GetMapping("/vendors")
+    public ResponseEntity<?> vendors() {
+        logger.info("Request at: /stats/vendors");
+        return new ResponseEntity<>(fleetStats.vendors(), HttpStatus.OK);
+    }
+}
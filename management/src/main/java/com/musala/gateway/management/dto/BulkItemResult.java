@@ -0,0 +1,43 @@
+package com.musala.gateway.management.dto;
+
+/**
+ * Result of a single item of a bulk operation. Results are reported in the same order as the items were submitted.
+ */
+public class BulkItemResult {
+    private final int index;
+    private final Long id;
+    private final BulkItemStatus status;
+    private final String message;
+
+    public BulkItemResult(int index, Long id, BulkItemStatus status, String message) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * @return position of the item in the submitted list
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return id of the record the item refers to, null if the record does not exist
+     */
+    public Long getId() {
+        return id;
+    }
+
+    public BulkItemStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return reason why the item was rejected, null if it succeeded
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,8 @@
+package com.musala.gateway.management.dto;
+
+/**
+ * Outcome of a single item of a bulk operation.
+ */
+public enum BulkItemStatus {
+    CREATED, REJECTED, ATTACHED, DETACHED, UNCHANGED, NOT_FOUND, NOT_ATTACHED, DEVICE_LIMIT
+}
@@ -0,0 +1,56 @@
+package com.musala.gateway.management.dto;
+
+import java.util.Date;
+
+/**
+ * A committed change of a gateway or device, as published by the change feed. Events only identify the changed
+ * records, clients read them from the regular endpoints if they need their current state.
+ */
+public class ChangeEvent {
+    private final long id;
+    private final ChangeType type;
+    private final Long gatewayId;
+    private final Long deviceId;
+    private final Date at;
+
+    public ChangeEvent(long id, ChangeType type, Long gatewayId, Long deviceId, Date at) {
+        this.id = id;
+        this.type = type;
+        this.gatewayId = gatewayId;
+        this.deviceId = deviceId;
+        this.at = at;
+    }
+
+    /**
+     * @return position of the event in the feed, sent as the SSE event id to resume from
+     */
+    public long getId() {
+        return id;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    /**
+     * @return id of the changed gateway, or of the gateway the device was attached to or detached from, null for
+     * changes of unattached devices
+     */
+    public Long getGatewayId() {
+        return gatewayId;
+    }
+
+    /**
+     * @return id of the changed device, null for gateway changes
+     */
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * @return time the change was published
+     */
+    public Date getAt() {
+        return at;
+    }
+}
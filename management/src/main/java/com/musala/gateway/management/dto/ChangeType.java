@@ -0,0 +1,9 @@
+package com.musala.gateway.management.dto;
+
+/**
+ * Kind of change published by the change feed.
+ */
+public enum ChangeType {
+    GATEWAY_CREATED, GATEWAY_UPDATED, GATEWAY_DELETED, DEVICE_CREATED, DEVICE_UPDATED, DEVICE_DELETED,
+    DEVICE_ATTACHED, DEVICE_DETACHED
+}
@@ -0,0 +1,62 @@
+package com.musala.gateway.management.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.musala.gateway.management.model.DeviceStatus;
+
+import java.util.Date;
+
+/**
+ * Read only projection of an attached Device used by the inventory export and by the devices field of /gateway/list.
+ */
+public class DeviceExport {
+    private final long id;
+    private final long uid;
+    private final String vendor;
+    private final Date createdAt;
+    private final DeviceStatus deviceStatus;
+    @JsonIgnore
+    private final long gatewayId;
+    @JsonIgnore
+    private final long version;
+
+    public DeviceExport(long id, long uid, String vendor, Date createdAt, DeviceStatus deviceStatus, long gatewayId,
+                        long version) {
+        this.id = id;
+        this.uid = uid;
+        this.vendor = vendor;
+        this.createdAt = createdAt;
+        this.deviceStatus = deviceStatus;
+        this.gatewayId = gatewayId;
+        this.version = version;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    public String getVendor() {
+        return vendor;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public DeviceStatus getDeviceStatus() {
+        return deviceStatus;
+    }
+
+    @JsonIgnore
+    public long getGatewayId() {
+        return gatewayId;
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+}
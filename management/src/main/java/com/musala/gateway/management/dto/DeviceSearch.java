@@ -0,0 +1,65 @@
+package com.musala.gateway.management.dto;
+
+import com.musala.gateway.management.model.DeviceStatus;
+
+import java.util.Date;
+
+/**
+ * Filters of a device search. Every filter is optional, a device must match all the given ones.
+ */
+public class DeviceSearch {
+    private final String vendor;
+    private final DeviceStatus deviceStatus;
+    private final Date createdFrom;
+    private final Date createdTo;
+    private final Long gatewayId;
+    private final boolean unattached;
+
+    /**
+     * @param vendor       Vendor of the devices, null for any
+     * @param deviceStatus Status of the devices, null for any
+     * @param createdFrom  Devices created at or after this time, null for no lower bound
+     * @param createdTo    Devices created before this time, null for no upper bound
+     * @param gatewayId    Gateway the devices are attached to, null for any
+     * @param unattached   Whether only the devices not attached to any gateway are searched
+     */
+    public DeviceSearch(String vendor, DeviceStatus deviceStatus, Date createdFrom, Date createdTo, Long gatewayId,
+                        boolean unattached) {
+        this.vendor = vendor;
+        this.deviceStatus = deviceStatus;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+        this.gatewayId = gatewayId;
+        this.unattached = unattached;
+    }
+
+    public String getVendor() {
+        return vendor;
+    }
+
+    public DeviceStatus getDeviceStatus() {
+        return deviceStatus;
+    }
+
+    public Date getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public Date getCreatedTo() {
+        return createdTo;
+    }
+
+    public Long getGatewayId() {
+        return gatewayId;
+    }
+
+    public boolean isUnattached() {
+        return unattached;
+    }
+
+    @Override
+    public String toString() {
+        return "vendor=" + vendor + ", deviceStatus=" + deviceStatus + ", createdFrom=" + createdFrom + ", createdTo="
+               + createdTo + ", gatewayId=" + gatewayId + ", unattached=" + unattached;
+    }
+}
@@ -0,0 +1,42 @@
+package com.musala.gateway.management.dto;
+
+import com.musala.gateway.management.model.DeviceStatus;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Status reported by a device heartbeat.
+ */
+public class DeviceStatusReport {
+    @NotNull(message = "Device id most be specified")
+    private Long id;
+    @NotNull(message = "Status most be specified")
+    private DeviceStatus status;
+
+    public DeviceStatusReport() {
+    }
+
+    public DeviceStatusReport(Long id, DeviceStatus status) {
+        this.id = id;
+        this.status = status;
+    }
+
+    /**
+     * @return id of the reporting device
+     */
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public DeviceStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(DeviceStatus status) {
+        this.status = status;
+    }
+}
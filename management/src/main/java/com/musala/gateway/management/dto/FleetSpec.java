@@ -0,0 +1,170 @@
+package com.musala.gateway.management.dto;
+
+import com.musala.gateway.management.model.DeviceStatus;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shape of a synthetic fleet seeded by {@link com.musala.gateway.management.service.FleetSeeder}: the amount of
+ * gateways and of devices attached to each one, the share of devices left unattached and how vendors, statuses and
+ * creation times are spread over the devices. The same spec and seed always produce the same fleet.
+ */
+public class FleetSpec {
+    private final String serialPrefix;
+    private final int gateways;
+    private final int devicesPerGateway;
+    private final double unattachedRatio;
+    private Map<String, Integer> vendorWeights = parseWeights("Cisco:30,Huawei:25,Nokia:20,Juniper:15,Sony:10");
+    private Map<DeviceStatus, Integer> statusWeights = statusWeights("ONLINE:90,OFFLINE:10");
+    private int createdWithinDays = 365;
+    private int seed = 1;
+
+    /**
+     * @param serialPrefix      Prefix of the gateway serial numbers, gateway k gets serialPrefix-k
+     * @param gateways          Amount of gateways
+     * @param devicesPerGateway Amount of devices attached to every gateway
+     * @param unattachedRatio   Share of all the seeded devices that are not attached to any gateway, from 0 to less
+     *                          than 1
+     */
+    public FleetSpec(String serialPrefix, int gateways, int devicesPerGateway, double unattachedRatio) {
+        if (serialPrefix == null || serialPrefix.isEmpty()) {
+            throw new IllegalArgumentException("A serial number prefix is required");
+        }
+        //Gateway k gets the address 10.0.0.0 + k, so they must fit in 10.0.0.0/8
+        if (gateways < 0 || gateways >= 1 << 24) {
+            throw new IllegalArgumentException("The amount of gateways must be between 0 and " + ((1 << 24) - 1));
+        }
+        if (devicesPerGateway < 0) {
+            throw new IllegalArgumentException("The amount of devices per gateway can't be negative");
+        }
+        if (unattachedRatio < 0 || unattachedRatio >= 1) {
+            throw new IllegalArgumentException("The unattached ratio must be at least 0 and less than 1");
+        }
+        this.serialPrefix = serialPrefix;
+        this.gateways = gateways;
+        this.devicesPerGateway = devicesPerGateway;
+        this.unattachedRatio = unattachedRatio;
+    }
+
+    /**
+     * Parses comma separated key:weight pairs, e.g. Cisco:30,Huawei:70, keeping their order.
+     *
+     * @param weights Pairs to parse
+     * @return Weight by key
+     */
+    public static Map<String, Integer> parseWeights(String weights) {
+        Map<String, Integer> parsed = new LinkedHashMap<>();
+        for (String pair : weights.split(",")) {
+            String[] parts = pair.trim().split(":");
+            if (parts.length != 2 || parts[0].isEmpty() || Integer.parseInt(parts[1].trim()) < 0) {
+                throw new IllegalArgumentException("Invalid weight: " + pair);
+            }
+            parsed.put(parts[0], Integer.parseInt(parts[1].trim()));
+        }
+        return parsed;
+    }
+
+    /**
+     * @param weights Comma separated status:weight pairs, e.g. ONLINE:90,OFFLINE:10
+     * @return Weight by status
+     */
+    public static Map<DeviceStatus, Integer> statusWeights(String weights) {
+        Map<DeviceStatus, Integer> parsed = new LinkedHashMap<>();
+        parseWeights(weights).forEach((status, weight) -> parsed.put(DeviceStatus.valueOf(status), weight));
+        return parsed;
+    }
+
+    public String getSerialPrefix() {
+        return serialPrefix;
+    }
+
+    public int getGateways() {
+        return gateways;
+    }
+
+    public int getDevicesPerGateway() {
+        return devicesPerGateway;
+    }
+
+    public double getUnattachedRatio() {
+        return unattachedRatio;
+    }
+
+    /**
+     * @return Amount of devices attached to the gateways
+     */
+    public long getAttachedDevices() {
+        return (long) gateways * devicesPerGateway;
+    }
+
+    /**
+     * @return Amount of devices left unattached, the given share of all the seeded devices
+     */
+    public long getUnattachedDevices() {
+        return Math.round(getAttachedDevices() * unattachedRatio / (1 - unattachedRatio));
+    }
+
+    public Map<String, Integer> getVendorWeights() {
+        return Collections.unmodifiableMap(vendorWeights);
+    }
+
+    /**
+     * @param vendorWeights Relative weight of every vendor among the devices, at least one must be positive
+     */
+    public void setVendorWeights(Map<String, Integer> vendorWeights) {
+        this.vendorWeights = new LinkedHashMap<>(checkWeights(vendorWeights));
+    }
+
+    public Map<DeviceStatus, Integer> getStatusWeights() {
+        return Collections.unmodifiableMap(statusWeights);
+    }
+
+    /**
+     * @param statusWeights Relative weight of every status among the devices, at least one must be positive
+     */
+    public void setStatusWeights(Map<DeviceStatus, Integer> statusWeights) {
+        this.statusWeights = new LinkedHashMap<>(checkWeights(statusWeights));
+    }
+
+    public int getCreatedWithinDays() {
+        return createdWithinDays;
+    }
+
+    /**
+     * @param createdWithinDays Devices are created at times spread evenly over this amount of days until now
+     */
+    public void setCreatedWithinDays(int createdWithinDays) {
+        if (createdWithinDays < 1) {
+            throw new IllegalArgumentException("Devices must be created within at least one day");
+        }
+        this.createdWithinDays = createdWithinDays;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed Seed of the vendor, status and creation time drawn for every device
+     */
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    private static <K> Map<K, Integer> checkWeights(Map<K, Integer> weights) {
+        if (weights.values().stream().anyMatch(weight -> weight < 0)
+            || weights.values().stream().mapToLong(Integer::longValue).sum() <= 0) {
+            throw new IllegalArgumentException("Weights can't be negative and at least one must be positive");
+        }
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return "serialPrefix=" + serialPrefix + ", gateways=" + gateways + ", devicesPerGateway=" + devicesPerGateway
+               + ", unattachedRatio=" + unattachedRatio + ", vendors=" + vendorWeights + ", statuses=" + statusWeights
+               + ", createdWithinDays=" + createdWithinDays + ", seed=" + seed;
+    }
+}
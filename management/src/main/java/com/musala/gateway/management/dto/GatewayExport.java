@@ -0,0 +1,49 @@
+package com.musala.gateway.management.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read only projection of a Gateway used by the inventory export. Instances are built straight from the query result,
+ * so they are never attached to the persistence context and can be discarded as soon as they are written.
+ */
+public class GatewayExport {
+    private final long id;
+    private final String serialNumber;
+    private final String name;
+    private final String ipAddress;
+    private final int deviceCount;
+    private final List<DeviceExport> devices = new ArrayList<>();
+
+    public GatewayExport(long id, String serialNumber, String name, String ipAddress, int deviceCount) {
+        this.id = id;
+        this.serialNumber = serialNumber;
+        this.name = name;
+        this.ipAddress = ipAddress;
+        this.deviceCount = deviceCount;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public List<DeviceExport> getDevices() {
+        return devices;
+    }
+}
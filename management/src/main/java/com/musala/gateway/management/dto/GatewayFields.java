@@ -0,0 +1,54 @@
+package com.musala.gateway.management.dto;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read only projection of a Gateway reduced to the fields a client asked for with the fields parameter of
+ * /gateway/list. Only the requested fields are serialized, the id and versions are kept for the cursor and the entity
+ * tag of the page.
+ */
+public class GatewayFields {
+    @JsonIgnore
+    private final long id;
+    @JsonIgnore
+    private final long version;
+    @JsonIgnore
+    private long devicesVersion;
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    public GatewayFields(long id, long version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the sum of the versions of the devices, 0 unless they were requested
+     */
+    public long getDevicesVersion() {
+        return devicesVersion;
+    }
+
+    public void setDevicesVersion(long devicesVersion) {
+        this.devicesVersion = devicesVersion;
+    }
+
+    /**
+     * @return the requested fields by name, in the order they are written
+     */
+    @JsonAnyGetter
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+}
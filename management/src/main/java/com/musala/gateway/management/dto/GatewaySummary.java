@@ -0,0 +1,54 @@
+package com.musala.gateway.management.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Read only projection of a Gateway served by the summary view of /gateway/list: its own columns without the devices,
+ * whose amount is given by the device counter. Instances are built straight from the query result, so neither the
+ * device rows nor the gateway entities are loaded.
+ */
+public class GatewaySummary {
+    private final long id;
+    private final String serialNumber;
+    private final String name;
+    private final String ipAddress;
+    private final int deviceCount;
+    @JsonIgnore
+    private final long version;
+
+    public GatewaySummary(long id, String serialNumber, String name, String ipAddress, int deviceCount, long version) {
+        this.id = id;
+        this.serialNumber = serialNumber;
+        this.name = name;
+        this.ipAddress = ipAddress;
+        this.deviceCount = deviceCount;
+        this.version = version;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * @return the version of the gateway, which also changes when a device is attached or detached
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,60 @@
+package com.musala.gateway.management.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * A single page of a keyset (cursor) paginated listing. Records are ordered by id and the page carries the cursor
+ * to request the following page, so a client can walk an entire table without the server ever holding more than one
+ * page in memory.
+ *
+ * @param <T> type of the listed records
+ */
+public class KeysetPage<T> {
+    private final List<T> items;
+    private final Long next;
+
+    @JsonCreator
+    public KeysetPage(@JsonProperty("items") List<T> items, @JsonProperty("next") Long next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    /**
+     * Builds a page from a query that fetched up to limit + 1 records. The extra record, if present, is only used to
+     * know that another page exists and is dropped from the result.
+     *
+     * @param fetched records fetched with a limit of limit + 1, ordered by id
+     * @param limit   requested page size
+     * @param idOf    extracts the id used as cursor from a record
+     * @param <T>     type of the listed records
+     * @return page with the cursor of the next page, or a null cursor when this is the last page
+     */
+    public static <T> KeysetPage<T> of(List<T> fetched, int limit, ToLongFunction<T> idOf) {
+        if (fetched.size() > limit) {
+            List<T> items = fetched.subList(0, limit);
+            return new KeysetPage<>(items, idOf.applyAsLong(items.get(limit - 1)));
+        }
+        return new KeysetPage<>(fetched, null);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the value to send as the after parameter to get the next page, null if there are no more records.
+     */
+    public Long getNext() {
+        return next;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+}
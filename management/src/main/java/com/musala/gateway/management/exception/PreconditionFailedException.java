@@ -0,0 +1,8 @@
+package com.musala.gateway.management.exception;
+
+public class PreconditionFailedException extends Exception {
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
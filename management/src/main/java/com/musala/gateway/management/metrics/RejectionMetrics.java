@@ -0,0 +1,80 @@
+package com.musala.gateway.management.metrics;
+
+import com.musala.gateway.management.dto.BulkItemResult;
+import com.musala.gateway.management.dto.BulkItemStatus;
+import com.musala.gateway.management.exception.DeviceLimitException;
+import com.musala.gateway.management.exception.DeviceNotFoundException;
+import com.musala.gateway.management.exception.GatewayNotFoundException;
+import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.management.exception.NotValidGatewayException;
+import com.musala.gateway.management.exception.PreconditionFailedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the requests, and the items of bulk requests, rejected because of the device limit, a missing gateway or
+ * device, invalid input, or a record modified since the client read it. Every counter is registered up front, as
+ * gateway.rejections tagged with the reason and the exception or bulk item status causing it, so counting a rejection
+ * is a map lookup and an increment.
+ */
+@Component
+public class RejectionMetrics {
+    static final String NAME = "gateway.rejections";
+    private final Map<Class<? extends Exception>, Counter> byException = new HashMap<>();
+    private final Map<BulkItemStatus, Counter> byBulkStatus = new EnumMap<>(BulkItemStatus.class);
+
+    public RejectionMetrics(MeterRegistry registry) {
+        register(registry, "device_limit", DeviceLimitException.class);
+        register(registry, "not_found", GatewayNotFoundException.class);
+        register(registry, "not_found", DeviceNotFoundException.class);
+        register(registry, "validation", MethodArgumentNotValidException.class);
+        register(registry, "validation", NotValidGatewayException.class);
+        register(registry, "validation", NotValidDeviceException.class);
+        register(registry, "stale", PreconditionFailedException.class);
+        register(registry, "stale", ObjectOptimisticLockingFailureException.class);
+        register(registry, "device_limit", BulkItemStatus.DEVICE_LIMIT);
+        register(registry, "not_found", BulkItemStatus.NOT_FOUND);
+        register(registry, "not_found", BulkItemStatus.NOT_ATTACHED);
+        register(registry, "validation", BulkItemStatus.REJECTED);
+    }
+
+    private void register(MeterRegistry registry, String reason, Class<? extends Exception> exception) {
+        byException.put(exception, Counter.builder(NAME).tag("reason", reason)
+                                          .tag("cause", exception.getSimpleName()).register(registry));
+    }
+
+    private void register(MeterRegistry registry, String reason, BulkItemStatus status) {
+        byBulkStatus.put(status, Counter.builder(NAME).tag("reason", reason).tag("cause", status.name())
+                                        .register(registry));
+    }
+
+    /**
+     * @param ex Exception a request was rejected with, exceptions not counted are ignored
+     */
+    public void rejected(Exception ex) {
+        Counter counter = byException.get(ex.getClass());
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * @param results Results of a bulk request, the items whose status is a rejection are counted
+     */
+    public void rejected(List<BulkItemResult> results) {
+        for (BulkItemResult result : results) {
+            Counter counter = byBulkStatus.get(result.getStatus());
+            if (counter != null) {
+                counter.increment();
+            }
+        }
+    }
+}
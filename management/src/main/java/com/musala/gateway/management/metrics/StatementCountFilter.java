@@ -0,0 +1,101 @@
+package com.musala.gateway.management.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Reports the SQL statements run by each request, meant for development (enabled with musala.sql.statements.enabled).
+ * The count is sent in the X-SQL-Statements header and recorded in the http.server.requests.statements summary by
+ * endpoint. The header is added right before the response body starts to be written, so statements run while a body
+ * is being streamed (e.g. /gateway/export) are only part of the summary.
+ */
+@Component
+@ConditionalOnProperty(name = "musala.sql.statements.enabled", havingValue = "true")
+public class StatementCountFilter extends OncePerRequestFilter {
+    public static final String HEADER = "X-SQL-Statements";
+    @Autowired
+    private StatementCounter statementCounter;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        StatementCounter.Recording recording = statementCounter.start(false);
+        CountHeaderResponse countHeaderResponse = new CountHeaderResponse(response, recording);
+        try {
+            chain.doFilter(request, countHeaderResponse);
+        } finally {
+            countHeaderResponse.addCountHeader();
+            statementCounter.stop();
+            Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder("http.server.requests.statements")
+                               .tag("uri", uri == null ? "UNKNOWN" : uri.toString()).register(meterRegistry)
+                               .record(recording.getCount());
+        }
+    }
+
+    /**
+     * Adds the header with the statements counted so far before anything commits the response.
+     */
+    private static class CountHeaderResponse extends HttpServletResponseWrapper {
+        private final StatementCounter.Recording recording;
+        private boolean headerAdded;
+
+        CountHeaderResponse(HttpServletResponse response, StatementCounter.Recording recording) {
+            super(response);
+            this.recording = recording;
+        }
+
+        void addCountHeader() {
+            if (!headerAdded && !isCommitted()) {
+                setIntHeader(HEADER, recording.getCount());
+            }
+            headerAdded = true;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addCountHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addCountHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addCountHeader();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addCountHeader();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addCountHeader();
+            super.sendError(sc);
+        }
+    }
+}
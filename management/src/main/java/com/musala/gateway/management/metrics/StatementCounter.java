@@ -0,0 +1,82 @@
+package com.musala.gateway.management.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread while a recording is started, which is roughly
+ * the amount of round trips to the database: a JDBC batch is prepared once whatever the amount of rows it carries.
+ * Statements sent bypassing Hibernate (e.g. through JdbcTemplate) are not counted. Threads without a recording only pay
+ * a thread local lookup per statement.
+ */
+@Component
+public class StatementCounter implements StatementInspector, HibernatePropertiesCustomizer {
+    private final ThreadLocal<Recording> recording = new ThreadLocal<>();
+
+    /**
+     * Starts counting the statements of the current thread, replacing the recording already started on it if any.
+     *
+     * @param keepStatements Whether the statements are kept along with their count
+     * @return The recording, updated as statements are prepared until {@link #stop()} is called
+     */
+    public Recording start(boolean keepStatements) {
+        Recording started = new Recording(keepStatements);
+        recording.set(started);
+        return started;
+    }
+
+    /**
+     * Stops counting the statements of the current thread.
+     */
+    public void stop() {
+        recording.remove();
+    }
+
+    @Override
+    public String inspect(String sql) {
+        Recording current = recording.get();
+        if (current != null) {
+            current.add(sql);
+        }
+        return sql;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    public static class Recording {
+        private final List<String> statements;
+        private int count;
+
+        Recording(boolean keepStatements) {
+            statements = keepStatements ? new ArrayList<>() : null;
+        }
+
+        void add(String sql) {
+            count++;
+            if (statements != null) {
+                statements.add(sql);
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return The statements prepared so far, empty if they are not kept
+         */
+        public List<String> getStatements() {
+            return statements == null ? Collections.emptyList() : Collections.unmodifiableList(statements);
+        }
+    }
+}
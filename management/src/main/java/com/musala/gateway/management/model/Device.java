@@ -11,12 +11,27 @@ import java.time.Instant;
 import java.util.Calendar;
 import java.util.Date;
 
+/**
+ * Devices are searched by vendor, status, creation time and gateway, each filter being served by an index. Every index
+ * ends with the id, the order of the keyset pages, so a page of the devices matching a filter is read in order from the
+ * index.
+ */
 @Entity
-@Table(name = "device")
+@Table(name = "device", indexes = {
+        @Index(name = "device_vendor_idx", columnList = "vendor, status, id"),
+        @Index(name = "device_status_idx", columnList = "status, id"),
+        @Index(name = "device_created_at_idx", columnList = "created_at, id"),
+        @Index(name = "device_gateway_idx", columnList = "gateway_id, id")
+})
 @Validated
 public class Device {
+    /**
+     * Ids come from a pooled sequence so inserts can be sent to the database in JDBC batches, which an identity
+     * column prevents.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "device_seq")
+    @SequenceGenerator(name = "device_seq", sequenceName = "device_seq", allocationSize = 50)
     private long id;
     @Column(name = "uid", nullable = false, unique = true)
     @NotNull(message = "UID most be specified")
@@ -30,12 +45,21 @@ public class Device {
     @Enumerated(EnumType.STRING)
     private DeviceStatus deviceStatus = DeviceStatus.ONLINE;
     /**
-     * Device is marked as the owning side of the one-to-many relationship
+     * Device is marked as the owning side of the one-to-many relationship. It is not serialized, so it is never
+     * loaded unless a read path explicitly needs the gateway.
      */
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "gateway_id")
     @JsonIgnore
     private Gateway gateway;
+    /**
+     * Revision of the device, increased by every update of its fields, its gateway or its status, including the bulk
+     * updates that bypass the entity. It is the entity tag of the device.
+     */
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    @JsonIgnore
+    private long version;
 
     public Device() {
         createdAt = Calendar.getInstance().getTime();
@@ -103,6 +127,10 @@ public class Device {
     public void setGateway(Gateway gateway) {
         this.gateway = gateway;
     }
+
+    public long getVersion() {
+        return version;
+    }
 }
 
 
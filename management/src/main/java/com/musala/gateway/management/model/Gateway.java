@@ -1,24 +1,33 @@
 package com.musala.gateway.management.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.musala.gateway.management.annotation.IPConstraint;
+import com.musala.gateway.management.util.Ipv4;
+import org.hibernate.annotations.OptimisticLock;
 import org.hibernate.validator.constraints.UniqueElements;
 import org.springframework.validation.annotation.Validated;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotBlank;
-import javax.validation.constraints.Pattern;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
 @SuppressWarnings("unused")
 @Entity
-@Table(name = "gateway")
+@Table(name = "gateway", indexes = @Index(name = "gateway_ip_value_idx", columnList = "ip_value, id"))
+@NamedEntityGraph(name = Gateway.WITH_DEVICES, attributeNodes = @NamedAttributeNode("devices"))
 @Validated
 public class Gateway {
+    /**
+     * Fetch plan that loads the gateway along with its devices in a single statement.
+     */
+    public static final String WITH_DEVICES = "Gateway.devices";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "gateway_seq")
+    @SequenceGenerator(name = "gateway_seq", sequenceName = "gateway_seq", allocationSize = 50)
     private long id;
     @Column(name = "serial_number", unique = true)
     @NotBlank(message = "Serial number is required")
@@ -26,18 +35,42 @@ public class Gateway {
     private String name;
     @Column(name = "ip_address", nullable = false)
     @NotBlank(message = "IP Address is required")
-    @Pattern(message = "Invalid IP Address", regexp = "(\\d{1,2}|(0|1)\\d{2}|2[0-4]\\d|25[0-5])\\.(\\d{1,2}|(0|1)"
-                                                      + "\\d{2}|2[0-4]\\d|25[0-5])\\.(\\d{1,2}|(0|1)"
-                                                      + "\\d{2}|2[0-4]\\d|25[0-5])\\.(\\d{1,2}|(0|1)"
-                                                      + "\\d{2}|2[0-4]\\d|25[0-5])")
+    @IPConstraint(message = "Invalid IP Address")
     private String ipAddress;
+    /**
+     * The IP address as an unsigned 32 bit value, kept along with its display string by {@link #setIpAddress}. Invalid
+     * addresses are never stored, see {@link Ipv4#INVALID}.
+     */
+    @Column(name = "ip_value", nullable = false)
+    @JsonIgnore
+    private long ipValue;
     /**
      * This mapping is merely to follow the logic that a gateway has many devices, although the device is the owner
      * of the one-to-many relationship. Therefore, this attribute is not really mapped in the database, only the
-     * reference to Gateway in Device.
+     * reference to Gateway in Device. The devices are lazy, read paths that need them fetch them explicitly through
+     * the {@link #WITH_DEVICES} graph or a join fetch. Changes of the collection do not increase the version, the
+     * device counter update that goes along with them does.
      */
-    @OneToMany(mappedBy = "gateway", fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "gateway", fetch = FetchType.LAZY)
+    @OptimisticLock(excluded = true)
     private List<Device> devices;
+    /**
+     * Amount of devices attached to the gateway, kept along with the gateway so capacity checks and summaries do not
+     * need to load the devices. It is never written from the entity state, only through the relative updates of
+     * GatewayRepository, so concurrent changes add up instead of overwriting each other.
+     */
+    @Column(name = "device_count", nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private int deviceCount;
+    /**
+     * Revision of the gateway, increased by every update of its fields and by the relative updates of its device
+     * counter, so it also changes whenever a device is attached or detached. Together with the versions of its devices
+     * it makes the entity tag of the gateway.
+     */
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    @JsonIgnore
+    private long version;
 
     public Gateway() {
         devices = new ArrayList<>();
@@ -47,7 +80,7 @@ public class Gateway {
         this();
         this.serialNumber = serialNumber;
         this.name = name;
-        this.ipAddress = ipAddress;
+        setIpAddress(ipAddress);
     }
 
     public long getId() {
@@ -80,18 +113,32 @@ public class Gateway {
 
     public void setIpAddress(String ipAddress) {
         this.ipAddress = ipAddress;
+        this.ipValue = Ipv4.parse(ipAddress);
+    }
+
+    public long getIpValue() {
+        return ipValue;
     }
 
     public List<Device> getDevices() {
         return devices;
     }
 
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public void setDeviceCount(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
     @JsonIgnore
     public boolean isIPAddressValid() {
-        String segment = "(\\d{1,2}|(0|1)\\d{2}|2[0-4]\\d|25[0-5])";
-        //An IP address is composed of 4 segments, delimited by a dot (.)
-        String ipRegex = segment + "\\." + segment + "\\." + segment + "\\." + segment;
-        return ipAddress.matches(ipRegex);
+        return ipValue != Ipv4.INVALID;
     }
 
     @Override
@@ -0,0 +1,14 @@
+package com.musala.gateway.management.repository;
+
+/**
+ * Projection of a Device reduced to the gateway it is attached to, used to plan bulk attach and detach operations
+ * without loading the devices.
+ */
+public interface DeviceAttachment {
+    long getId();
+
+    /**
+     * @return id of the gateway the device is attached to, null if it is not attached
+     */
+    Long getGatewayId();
+}
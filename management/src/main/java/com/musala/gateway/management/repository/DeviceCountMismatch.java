@@ -0,0 +1,12 @@
+package com.musala.gateway.management.repository;
+
+/**
+ * A gateway whose stored device counter does not match the amount of devices actually attached to it.
+ */
+public interface DeviceCountMismatch {
+    long getId();
+
+    int getDeviceCount();
+
+    long getAttached();
+}
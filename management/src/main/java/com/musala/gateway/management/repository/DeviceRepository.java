@@ -1,12 +1,137 @@
 package com.musala.gateway.management.repository;
 
+import com.musala.gateway.management.dto.DeviceExport;
 import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface DeviceRepository extends CrudRepository<Device,Long> {
+    /**
+     * Loads the device locking its row until the end of the transaction, so concurrent attaches of the same device are
+     * serialized and each one sees the gateway the previous one left it in.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("Select d from Device d where d.id=?1")
+    public Optional<Device> findByIdForUpdate(long id);
+
     @Query("Select d from Device d where d.uid=?1")
     public Optional<Device> findByUID(long uid);
+
+    @Query("Select d.version from Device d where d.id=?1")
+    public Optional<Long> findVersionById(long id);
+
+    @Query("Select d.uid from Device d where d.uid in ?1")
+    public List<Long> findExistingUIDs(Collection<Long> uids);
+
+    @Query("Select d.uid from Device d")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    public Stream<Long> streamUIDs();
+
+    @Query("Select d.id as id, g.id as gatewayId, d.vendor as vendor, d.deviceStatus as deviceStatus from Device d "
+           + "left join d.gateway g")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    public Stream<DeviceState> streamStates();
+
+    @Query("Select count(d) from Device d where d.gateway.id=?1")
+    public long countByGateway(long gatewayId);
+
+    @Query("Select d.id as id, g.id as gatewayId from Device d left join d.gateway g where d.id in ?1")
+    public List<DeviceAttachment> findAttachments(Collection<Long> ids);
+
+    @Query("Select d.id as id, g.id as gatewayId from Device d left join d.gateway g where d.id=?1")
+    public Optional<DeviceAttachment> findAttachment(long id);
+
+    /**
+     * Reads the gateway of the device locking the device row until the end of the transaction, so the device cannot
+     * be moved to another gateway meanwhile.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("Select d.id as id, d.gateway.id as gatewayId from Device d where d.id=?1")
+    public Optional<DeviceAttachment> findAttachmentForUpdate(long id);
+
+    /**
+     * Reads the gateways of the devices locking their rows in id order, the order every write path locks devices in,
+     * so concurrent bulk operations over overlapping devices cannot deadlock.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("Select d.id as id, d.gateway.id as gatewayId from Device d where d.id in ?1 order by d.id")
+    public List<DeviceAttachment> findAttachmentsForUpdate(Collection<Long> ids);
+
+    /**
+     * Ids of the devices attached to the gateway, locking their rows in id order.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("Select d.id from Device d where d.gateway.id=?1 order by d.id")
+    public List<Long> findIdsByGatewayIdForUpdate(long gatewayId);
+
+    @Query("Select d.id from Device d where d.gateway.id=?1")
+    public List<Long> findIdsByGatewayId(long gatewayId);
+
+    @Modifying
+    @Query("Update Device d set d.gateway=?1, d.version=d.version+1 where d.id in ?2")
+    public int attachAll(Gateway gateway, Collection<Long> ids);
+
+    @Modifying
+    @Query("Update Device d set d.gateway=null, d.version=d.version+1 where d.gateway=?1 and d.id in ?2")
+    public int detachAll(Gateway gateway, Collection<Long> ids);
+
+    /**
+     * Detaches the device only if it is attached to the given gateway, so the update itself checks the attachment.
+     */
+    @Modifying
+    @Query("Update Device d set d.gateway=null, d.version=d.version+1 where d.id=?2 and d.gateway.id=?1")
+    public int detach(long gatewayId, long deviceId);
+
+    @Modifying
+    @Query("Update Device d set d.gateway=null, d.version=d.version+1 where d.gateway.id=?1")
+    public int detachAllFrom(long gatewayId);
+
+    /**
+     * Deletes the device with one statement, without loading it first.
+     *
+     * @return Amount of deleted devices, 0 if it did not exist
+     */
+    @Modifying
+    @Query("Delete from Device d where d.id=?1")
+    public int deleteOne(long id);
+
+    @Query("Select d from Device d where d.id in ?1 order by d.id")
+    public List<Device> findByIdIn(Collection<Long> ids);
+
+    @Query("Select d from Device d where d.id>?1 order by d.id")
+    public List<Device> findPageAfter(long after, Pageable pageable);
+
+    @Query("Select d from Device d where d.gateway.id=?1 and d.id>?2 order by d.id")
+    public List<Device> findPageByGatewayAfter(long gatewayId, long after, Pageable pageable);
+
+    @Query("Select d.id as id, d.version as version from Device d where d.gateway.id=?1 and d.id>?2 order by d.id")
+    public List<DeviceVersion> findVersionPageByGatewayAfter(long gatewayId, long after, Pageable pageable);
+
+    @Query("Select new com.musala.gateway.management.dto.DeviceExport(d.id, d.uid, d.vendor, d.createdAt, "
+           + "d.deviceStatus, d.gateway.id, d.version) from Device d where d.gateway is not null "
+           + "order by d.gateway.id, d.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    public Stream<DeviceExport> streamAttachedInventory();
+
+    /**
+     * Devices attached to the given gateways, read straight into projections from the gateway_id column without
+     * loading the gateways.
+     */
+    @Query("Select new com.musala.gateway.management.dto.DeviceExport(d.id, d.uid, d.vendor, d.createdAt, "
+           + "d.deviceStatus, d.gateway.id, d.version) from Device d where d.gateway.id in ?1 order by d.id")
+    public List<DeviceExport> findExportsByGatewayIdIn(Collection<Long> gatewayIds);
 }
@@ -0,0 +1,19 @@
+package com.musala.gateway.management.repository;
+
+import com.musala.gateway.management.model.DeviceStatus;
+
+/**
+ * Projection of a Device reduced to what the fleet statistics are aggregated by.
+ */
+public interface DeviceState {
+    long getId();
+
+    /**
+     * @return id of the gateway the device is attached to, null if it is not attached
+     */
+    Long getGatewayId();
+
+    String getVendor();
+
+    DeviceStatus getDeviceStatus();
+}
@@ -0,0 +1,11 @@
+package com.musala.gateway.management.repository;
+
+/**
+ * Projection of a Device reduced to what the entity tag of a page of devices is made of, so a conditional request for
+ * the page can be answered without loading its devices.
+ */
+public interface DeviceVersion {
+    long getId();
+
+    long getVersion();
+}
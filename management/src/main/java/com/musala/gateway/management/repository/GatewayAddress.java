@@ -0,0 +1,13 @@
+package com.musala.gateway.management.repository;
+
+/**
+ * Projection of a Gateway reduced to its address, read from the ip_value index without touching the gateway rows.
+ */
+public interface GatewayAddress {
+    long getId();
+
+    /**
+     * @return the IP address as an unsigned 32 bit value
+     */
+    long getIpValue();
+}
@@ -1,12 +1,131 @@
 package com.musala.gateway.management.repository;
 
+import com.musala.gateway.management.dto.GatewayExport;
+import com.musala.gateway.management.dto.GatewaySummary;
 import com.musala.gateway.management.model.Gateway;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface GatewayRepository extends CrudRepository<Gateway, Long> {
     @Query("Select g from Gateway g where g.serialNumber=?1")
+    @EntityGraph(Gateway.WITH_DEVICES)
     public Optional<Gateway> findBySerialNumber(String serialNumber);
+
+    @Query("Select g.id from Gateway g where g.serialNumber=?1")
+    public Optional<Long> findIdBySerialNumber(String serialNumber);
+
+    @Query("Select g.serialNumber from Gateway g where g.serialNumber is not null")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    public Stream<String> streamSerialNumbers();
+
+    @Query("Select g.id from Gateway g")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    public Stream<Long> streamIds();
+
+    /**
+     * Gateways are always served along with their devices, so they are fetched in the same statement.
+     */
+    @Override
+    @EntityGraph(Gateway.WITH_DEVICES)
+    public Optional<Gateway> findById(Long id);
+
+    @Query("Select g from Gateway g where g.id=?1")
+    public Optional<Gateway> findWithoutDevicesById(long id);
+
+    /**
+     * Version of the gateway along with the sum of the versions of its devices, which is all its entity tag needs.
+     */
+    @Query("Select g.version as version, coalesce(sum(d.version), 0) as devicesVersion from Gateway g "
+           + "left join g.devices d where g.id=?1 group by g.version")
+    public Optional<GatewayVersion> findVersionById(long id);
+
+    /**
+     * Loads the gateway locking its row until the end of the transaction. Attaching devices goes through this lock, so
+     * concurrent attaches to the same gateway are serialized while attaches to different gateways are not.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("Select g from Gateway g where g.id=?1")
+    public Optional<Gateway> findByIdForUpdate(long id);
+
+    /**
+     * Locks the rows of the gateways in id order until the end of the transaction, the order every write path locks
+     * gateways in.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("Select g.id from Gateway g where g.id in ?1 order by g.id")
+    public List<Long> findIdsForUpdate(Collection<Long> ids);
+
+    /**
+     * Adds the given amount, negative to subtract, to the device counter of a gateway, increasing its version.
+     */
+    @Modifying
+    @Query("Update Gateway g set g.deviceCount=g.deviceCount+?2, g.version=g.version+1 where g.id=?1")
+    public int addToDeviceCount(long id, int delta);
+
+    /**
+     * Deletes the gateway with one statement, without loading it first. Its devices must have been detached already.
+     *
+     * @return Amount of deleted gateways, 0 if it did not exist
+     */
+    @Modifying
+    @Query("Delete from Gateway g where g.id=?1")
+    public int deleteOne(long id);
+
+    @Query("Select g.id as id, g.deviceCount as deviceCount, count(d) as attached from Gateway g "
+           + "left join g.devices d group by g.id, g.deviceCount having g.deviceCount<>count(d) order by g.id")
+    public List<DeviceCountMismatch> findDeviceCountMismatches();
+
+    /**
+     * Recomputes the device counter of every gateway whose counter does not match its attached devices.
+     *
+     * @return Amount of gateways whose counter was fixed
+     */
+    @Modifying
+    @Query(value = "update gateway g set device_count=(select count(*) from device d where d.gateway_id=g.id), "
+                   + "version=version+1 "
+                   + "where device_count<>(select count(*) from device d where d.gateway_id=g.id)", nativeQuery = true)
+    public int rebuildDeviceCounts();
+
+    @Query("Select g.id from Gateway g where g.id>?1 order by g.id")
+    public List<Long> findIdPageAfter(long after, Pageable pageable);
+
+    @Query("Select new com.musala.gateway.management.dto.GatewaySummary(g.id, g.serialNumber, g.name, g.ipAddress, "
+           + "g.deviceCount, g.version) from Gateway g where g.id>?1 order by g.id")
+    public List<GatewaySummary> findSummaryPageAfter(long after, Pageable pageable);
+
+    /**
+     * Addresses of one page of the gateways whose address is within the given range, ordered by address. Both the
+     * range and the order are served by the ip_value index.
+     */
+    @Query("Select g.id as id, g.ipValue as ipValue from Gateway g where g.ipValue between ?1 and ?2 "
+           + "order by g.ipValue, g.id")
+    public List<GatewayAddress> findAddressPageInIpRange(long first, long last, Pageable pageable);
+
+    @Query("Select g.id from Gateway g where g.ipValue=?1 order by g.id")
+    public List<Long> findIdsByIpValue(long ipValue);
+
+    @Query("Select distinct g from Gateway g left join fetch g.devices where g.ipValue=?1 order by g.id")
+    public List<Gateway> findWithDevicesByIpValue(long ipValue);
+
+    @Query("Select distinct g from Gateway g left join fetch g.devices where g.id in ?1 order by g.id")
+    public List<Gateway> findWithDevicesByIdIn(List<Long> ids);
+
+    @Query("Select new com.musala.gateway.management.dto.GatewayExport(g.id, g.serialNumber, g.name, g.ipAddress, "
+           + "g.deviceCount) from Gateway g order by g.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    public Stream<GatewayExport> streamInventory();
 }
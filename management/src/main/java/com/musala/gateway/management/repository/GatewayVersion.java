@@ -0,0 +1,14 @@
+package com.musala.gateway.management.repository;
+
+/**
+ * Projection of a Gateway reduced to what its entity tag is made of, so a conditional request can be answered without
+ * loading the gateway and its devices.
+ */
+public interface GatewayVersion {
+    long getVersion();
+
+    /**
+     * @return sum of the versions of the devices attached to the gateway, 0 if it has none
+     */
+    long getDevicesVersion();
+}
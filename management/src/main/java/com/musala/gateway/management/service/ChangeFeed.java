@@ -0,0 +1,258 @@
+package com.musala.gateway.management.service;
+
+import com.musala.gateway.management.dto.ChangeEvent;
+import com.musala.gateway.management.dto.ChangeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed of the committed changes of gateways and devices, pushed to subscribers as server-sent events.
+ * <p>
+ * Events are kept in a ring buffer of fixed capacity and every subscriber reads it from its own position, so
+ * publishing an event only appends it to the ring and schedules the delivery to the subscribers; it never waits for
+ * them. Deliveries run in a small pool of threads, a subscriber being served by at most one of them at a time and
+ * releasing it after a bounded amount of events. A subscriber that falls behind by more than the capacity of the ring
+ * has lost events: it receives a reset event and is disconnected. The same happens to a client resuming from an event
+ * that is no longer in the ring. After a reset the client should read the records it is interested in again and
+ * subscribe without an event id.
+ * <p>
+ * Event ids start from the time the application started (in milliseconds, times a thousand), so after a restart the
+ * ids sent by the previous run are reported as lost instead of being mistaken for new events.
+ */
+@Component
+public class ChangeFeed {
+    static final String RESET = "reset";
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final ChangeEvent[] ring;
+    private final long firstId;
+    private long nextId;
+    private final int deliveryBatch;
+    private final int maxSubscribers;
+    private final long timeoutMillis;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService delivery;
+
+    /**
+     * @param capacity        Amount of events kept for subscribers behind and clients resuming
+     * @param deliveryThreads Threads delivering the events to the subscribers
+     * @param deliveryBatch   Max amount of events sent to a subscriber before releasing its delivery thread
+     * @param maxSubscribers  Max amount of subscribers at once
+     * @param timeoutMillis   Milliseconds after which a subscription ends, clients are expected to resume it
+     */
+    @Autowired
+    public ChangeFeed(@Value("${musala.changes.capacity}") int capacity,
+                      @Value("${musala.changes.delivery.threads}") int deliveryThreads,
+                      @Value("${musala.changes.delivery.batch}") int deliveryBatch,
+                      @Value("${musala.changes.max.subscribers}") int maxSubscribers,
+                      @Value("${musala.changes.timeout.millis}") long timeoutMillis) {
+        this.ring = new ChangeEvent[capacity];
+        this.firstId = System.currentTimeMillis() * 1000;
+        this.nextId = firstId;
+        this.deliveryBatch = deliveryBatch;
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threads = new AtomicInteger();
+        this.delivery = Executors.newFixedThreadPool(deliveryThreads, runnable -> {
+            Thread thread = new Thread(runnable, "change-feed-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Default constructor, with a ring of 10000 events.
+     */
+    public ChangeFeed() {
+        this(10000, 4, 100, 100, 1800000);
+    }
+
+    /**
+     * Publishes a change of a gateway once the current transaction commits, or right away if there is none.
+     *
+     * @param type      Kind of change
+     * @param gatewayId Changed gateway
+     */
+    public void gatewayChanged(ChangeType type, long gatewayId) {
+        publish(type, gatewayId, new Long[] {null});
+    }
+
+    /**
+     * Publishes a change of a device once the current transaction commits, or right away if there is none.
+     *
+     * @param type      Kind of change
+     * @param gatewayId Gateway the device is attached to or detached from, null if it is not attached
+     * @param deviceId  Changed device
+     */
+    public void deviceChanged(ChangeType type, Long gatewayId, long deviceId) {
+        publish(type, gatewayId, new Long[] {deviceId});
+    }
+
+    /**
+     * Publishes the same change of many devices once the current transaction commits, or right away if there is none.
+     *
+     * @param type      Kind of change
+     * @param gatewayId Gateway the devices are attached to or detached from, null if they are not attached
+     * @param deviceIds Changed devices
+     */
+    public void devicesChanged(ChangeType type, Long gatewayId, Collection<Long> deviceIds) {
+        if (!deviceIds.isEmpty()) {
+            publish(type, gatewayId, deviceIds.toArray(new Long[0]));
+        }
+    }
+
+    private void publish(ChangeType type, Long gatewayId, Long[] deviceIds) {
+        Runnable append = () -> {
+            Date at = new Date();
+            synchronized (ring) {
+                for (Long deviceId : deviceIds) {
+                    ring[index(nextId)] = new ChangeEvent(nextId, type, gatewayId, deviceId, at);
+                    nextId++;
+                }
+            }
+            subscribers.forEach(this::schedule);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    append.run();
+                }
+            });
+        } else {
+            append.run();
+        }
+    }
+
+    /**
+     * Subscribes to the changes published from now on or, if an event id is given, to the ones published after it.
+     *
+     * @param lastEventId Id of the last event received, null to only receive new events
+     * @return The emitter the events are sent through, or null if there are too many subscribers already
+     */
+    public SseEmitter subscribe(Long lastEventId) {
+        if (subscribers.size() >= maxSubscribers) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        long from;
+        synchronized (ring) {
+            from = lastEventId == null ? nextId : lastEventId + 1;
+        }
+        Subscriber subscriber = new Subscriber(emitter, from);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        schedule(subscriber);
+        return emitter;
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            delivery.execute(() -> deliver(subscriber));
+        }
+    }
+
+    private void deliver(Subscriber subscriber) {
+        List<ChangeEvent> events = new ArrayList<>(deliveryBatch);
+        boolean lost;
+        long next;
+        synchronized (ring) {
+            next = nextId;
+            lost = subscriber.position > nextId || subscriber.position < Math.max(firstId, nextId - ring.length);
+            for (long id = subscriber.position; !lost && id < nextId && events.size() < deliveryBatch; id++) {
+                events.add(ring[index(id)]);
+            }
+        }
+        try {
+            if (lost) {
+                subscribers.remove(subscriber);
+                Map<String, Long> reset = new LinkedHashMap<>();
+                reset.put("lastEventId", subscriber.position - 1);
+                reset.put("nextEventId", next);
+                subscriber.emitter.send(SseEmitter.event().name(RESET).data(reset, MediaType.APPLICATION_JSON));
+                subscriber.emitter.complete();
+                logger.warn("Change feed subscriber reset, the events after " + (subscriber.position - 1)
+                            + " are no longer available");
+                return;
+            }
+            for (ChangeEvent event : events) {
+                subscriber.emitter.send(SseEmitter.event().id(String.valueOf(event.getId()))
+                                                  .name(event.getType().name())
+                                                  .data(event, MediaType.APPLICATION_JSON));
+                subscriber.position = event.getId() + 1;
+            }
+        } catch (Exception e) {
+            //The client is gone, the emitter reports it to its error callback
+            subscribers.remove(subscriber);
+            logger.info("Change feed subscriber disconnected: " + e.getMessage());
+            return;
+        }
+        subscriber.scheduled.set(false);
+        synchronized (ring) {
+            next = nextId;
+        }
+        //Events published while sending, or left out of this batch
+        if (subscriber.position < next) {
+            schedule(subscriber);
+        }
+    }
+
+    private int index(long id) {
+        return (int) (id % ring.length);
+    }
+
+    /**
+     * Statistics of the feed: capacity, events published and subscribers.
+     *
+     * @return Statistics by name
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", ring.length);
+        synchronized (ring) {
+            stats.put("published", nextId - firstId);
+            stats.put("nextEventId", nextId);
+        }
+        stats.put("subscribers", subscribers.size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        delivery.shutdownNow();
+    }
+
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long position;
+
+        Subscriber(SseEmitter emitter, long position) {
+            this.emitter = emitter;
+            this.position = position;
+        }
+    }
+}
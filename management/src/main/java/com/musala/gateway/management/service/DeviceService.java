@@ -1,23 +1,66 @@
 package com.musala.gateway.management.service;
 
+import com.musala.gateway.management.dto.BulkItemResult;
+import com.musala.gateway.management.dto.BulkItemStatus;
+import com.musala.gateway.management.dto.ChangeType;
+import com.musala.gateway.management.dto.DeviceSearch;
+import com.musala.gateway.management.dto.KeysetPage;
 import com.musala.gateway.management.exception.DeviceNotFoundException;
 import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.management.exception.PreconditionFailedException;
 import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.repository.DeviceAttachment;
 import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.DeviceVersion;
+import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.util.ETags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 @Service
 public class DeviceService {
     Logger logger = LoggerFactory.getLogger(this.getClass());
     @Autowired
     DeviceRepository deviceRepository;
+    @Autowired
+    GatewayRepository gatewayRepository;
+    @Autowired
+    EntityCache entityCache;
+    @Autowired
+    UniqueKeyFilter uniqueKeyFilter;
+    @Autowired
+    FleetStats fleetStats;
+    @Autowired
+    ChangeFeed changeFeed;
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Value("${musala.page.max.limit}")
+    private int maxPageLimit;
+    @Value("${musala.bulk.max.size}")
+    private int maxBulkSize;
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+    private int batchSize;
 
     public DeviceService() {
+        maxPageLimit = 1000;
+        maxBulkSize = 10000;
+        batchSize = 50;
     }
 
     /**
@@ -29,70 +72,271 @@ public class DeviceService {
      * @param deviceRepository crud repository
      */
     public DeviceService(DeviceRepository deviceRepository) {
+        this();
         this.deviceRepository = deviceRepository;
+        this.entityCache = new EntityCache(1000, 300);
+        this.uniqueKeyFilter = new UniqueKeyFilter();
+        this.fleetStats = new FleetStats();
+        this.changeFeed = new ChangeFeed();
     }
 
     /**
-     * List all Device records stored in the database.
+     * Lists one page of Device records ordered by id, starting right after the specified cursor.
      *
-     * @return List of all Device records
+     * @param after Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return Page of Device records along with the cursor of the next page.
      */
-    public List<Device> list() {
-        return (List<Device>) deviceRepository.findAll();
+    public KeysetPage<Device> list(long after, int limit) {
+        int size = pageSize(limit);
+        List<Device> fetched = deviceRepository.findPageAfter(after, PageRequest.of(0, size + 1));
+        return KeysetPage.of(fetched, size, Device::getId);
     }
 
     /**
-     * Retrieves the specified Device record from the database. If the specified Device does not exist an exception is
-     * raised.
+     * Searches one page of the Devices matching the given filters, ordered by id, starting right after the specified
+     * cursor. Only the given filters are part of the query, so it is served by the index of the most selective of
+     * them, see {@link Device}. The page is resolved on ids first, which the indexes cover, and the Devices are loaded
+     * by id afterwards: otherwise reading every matching row of the table is weighed against scanning it in id order.
+     *
+     * @param search Filters the Devices must match
+     * @param after  Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit  Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return Page of the matching Device records along with the cursor of the next page.
+     * @throws NotValidDeviceException thrown if the filters contradict each other
+     */
+    public KeysetPage<Device> search(DeviceSearch search, long after, int limit) throws NotValidDeviceException {
+        if (search.getGatewayId() != null && search.isUnattached()) {
+            throw new NotValidDeviceException("Devices can be searched either by gateway or unattached, not both");
+        }
+        if (search.getCreatedFrom() != null && search.getCreatedTo() != null
+            && !search.getCreatedFrom().before(search.getCreatedTo())) {
+            throw new NotValidDeviceException("The creation window must start before it ends");
+        }
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder query = new StringBuilder("Select d.id from Device d where d.id>?1");
+        parameters.add(after);
+        if (search.getVendor() != null) {
+            parameters.add(search.getVendor());
+            query.append(" and d.vendor=?").append(parameters.size());
+        }
+        if (search.getDeviceStatus() != null) {
+            parameters.add(search.getDeviceStatus());
+            query.append(" and d.deviceStatus=?").append(parameters.size());
+        }
+        if (search.getCreatedFrom() != null) {
+            parameters.add(search.getCreatedFrom());
+            query.append(" and d.createdAt>=?").append(parameters.size());
+        }
+        if (search.getCreatedTo() != null) {
+            parameters.add(search.getCreatedTo());
+            query.append(" and d.createdAt<?").append(parameters.size());
+        }
+        if (search.getGatewayId() != null) {
+            parameters.add(search.getGatewayId());
+            query.append(" and d.gateway.id=?").append(parameters.size());
+        } else if (search.isUnattached()) {
+            query.append(" and d.gateway is null");
+        }
+        query.append(" order by d.id");
+        int size = pageSize(limit);
+        TypedQuery<Long> typed = entityManager.createQuery(query.toString(), Long.class);
+        for (int i = 0; i < parameters.size(); i++) {
+            typed.setParameter(i + 1, parameters.get(i));
+        }
+        KeysetPage<Long> ids = KeysetPage.of(typed.setMaxResults(size + 1).getResultList(), size, Long::longValue);
+        KeysetPage<Device> page = new KeysetPage<>(ids.isEmpty() ? Collections.emptyList() :
+                                                   deviceRepository.findByIdIn(ids.getItems()), ids.getNext());
+        logger.info("Found " + page.getItems().size() + " devices matching " + search + " after id: " + after);
+        return page;
+    }
+
+    /**
+     * Lists one page of the Devices attached to the specified Gateway ordered by id, starting right after the
+     * specified cursor.
+     *
+     * @param gatewayId Gateway identifier
+     * @param after     Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit     Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return Page of Device records along with the cursor of the next page.
+     */
+    public KeysetPage<Device> listByGateway(long gatewayId, long after, int limit) {
+        int size = pageSize(limit);
+        List<Device> fetched =
+                deviceRepository.findPageByGatewayAfter(gatewayId, after, PageRequest.of(0, size + 1));
+        return KeysetPage.of(fetched, size, Device::getId);
+    }
+
+    /**
+     * Computes the entity tag of one page of the Devices attached to the specified Gateway, as listed by
+     * {@link #listByGateway}, reading only the ids and versions of its Devices.
+     *
+     * @param gatewayId Gateway identifier
+     * @param after     Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit     Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return The current entity tag of the page
+     */
+    public String listByGatewayETag(long gatewayId, long after, int limit) {
+        int size = pageSize(limit);
+        List<DeviceVersion> fetched =
+                deviceRepository.findVersionPageByGatewayAfter(gatewayId, after, PageRequest.of(0, size + 1));
+        return ETags.ofDeviceVersions(KeysetPage.of(fetched, size, DeviceVersion::getId));
+    }
+
+    /**
+     * Retrieves the specified Device record, from the cache if it was recently requested. If the specified Device does
+     * not exist an exception is raised. The returned record is shared with other requests and must not be modified.
      *
      * @param id Identifier of the Device to retrieve.
      * @return Device record corresponding to the specified id.
      * @throws DeviceNotFoundException thrown if a Device record with the specified id does not exist.
      */
     public Device deviceById(long id) throws DeviceNotFoundException {
-        return deviceRepository.findById(id).orElseThrow(() -> {
+        Device device = entityCache.device(id, key -> deviceRepository.findById(key).orElse(null));
+        if (device == null) {
             logger.warn("Requested nonexistent device of id: " + id);
-            return new DeviceNotFoundException("Device not found with ID: " + id);
-        });
+            throw new DeviceNotFoundException("Device not found with ID: " + id);
+        }
+        return device;
     }
 
     /**
-     * Creates a new Device record.
+     * Computes the entity tag of the specified Device without loading it: it is taken from the cache if the Device is
+     * cached, otherwise only its version is read.
+     *
+     * @param id Identifier of the Device
+     * @return The current entity tag of the Device, null if it does not exist
+     */
+    public String deviceETag(long id) {
+        Device cached = entityCache.cachedDevice(id);
+        if (cached != null) {
+            return ETags.of(cached);
+        }
+        return deviceRepository.findVersionById(id).map(ETags::device).orElse(null);
+    }
+
+    /**
+     * Creates a new Device record. The uid is only looked up when the unique key filter reports it as possibly
+     * existing, otherwise the unique constraint of the table is relied upon.
      *
      * @param device Device information.
      * @return Stored Device Record
      */
     public Device createDevice(Device device) throws NotValidDeviceException {
-        Device byUid = deviceRepository.findByUID(device.getUid()).orElse(null);
-        if (byUid == null) {
-            Device save = deviceRepository.save(device);
-            logger.info("Device with id: " + save.getId() + " created");
-            return save;
+        if (uniqueKeyFilter.mightExistUid(device.getUid()) && deviceRepository.findByUID(device.getUid()).isPresent()) {
+            throw new NotValidDeviceException("A device with the specified uid already exist");
+        }
+        Device save;
+        try {
+            save = deviceRepository.save(device);
+        } catch (DataIntegrityViolationException e) {
+            //The uid was missing from the filter, e.g. the device was inserted bypassing this service
+            if (deviceRepository.findByUID(device.getUid()).isPresent()) {
+                throw new NotValidDeviceException("A device with the specified uid already exist");
+            }
+            throw e;
+        }
+        uniqueKeyFilter.addUid(save.getUid());
+        fleetStats.deviceChanged(save);
+        changeFeed.deviceChanged(ChangeType.DEVICE_CREATED, null, save.getId());
+        logger.info("Device with id: " + save.getId() + " created");
+        return save;
+    }
+
+    /**
+     * Creates many Device records at once. The uniqueness of every uid is checked with set based queries instead of
+     * one lookup per device, and the accepted devices are inserted in JDBC batches. Devices whose uid already exists,
+     * either in the database or earlier in the same list, are rejected while the rest are still created.
+     *
+     * @param devices Information of the devices to create.
+     * @return The result of each device, in the same order they were given.
+     * @throws NotValidDeviceException thrown if more devices than the configured limit are given at once.
+     */
+    @Transactional
+    public List<BulkItemResult> createDevices(List<Device> devices) throws NotValidDeviceException {
+        if (devices.size() > maxBulkSize) {
+            throw new NotValidDeviceException(
+                    "At most " + maxBulkSize + " devices can be created at once, " + devices.size() + " were given");
+        }
+        Set<Long> taken = new HashSet<>();
+        List<Long> uids = new ArrayList<>(devices.size());
+        devices.forEach(device -> uids.add(device.getUid()));
+        for (int from = 0; from < uids.size(); from += maxPageLimit) {
+            taken.addAll(deviceRepository.findExistingUIDs(uids.subList(from, Math.min(from + maxPageLimit,
+                                                                                       uids.size()))));
+        }
+        List<Device> accepted = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            //Ids are assigned on insert, so only accepted devices end up with one
+            device.setId(0);
+            device.setGateway(null);
+            if (taken.add(device.getUid())) {
+                accepted.add(device);
+            }
         }
-        throw new NotValidDeviceException("A device with the specified uid already exist");
+        for (int from = 0; from < accepted.size(); from += batchSize) {
+            deviceRepository.saveAll(accepted.subList(from, Math.min(from + batchSize, accepted.size())));
+            //Send the batch and keep the persistence context from growing with the whole list
+            entityManager.flush();
+            entityManager.clear();
+        }
+        accepted.forEach(device -> uniqueKeyFilter.addUid(device.getUid()));
+        accepted.forEach(fleetStats::deviceChanged);
+        List<Long> created = new ArrayList<>(accepted.size());
+        accepted.forEach(device -> created.add(device.getId()));
+        changeFeed.devicesChanged(ChangeType.DEVICE_CREATED, null, created);
+        List<BulkItemResult> results = new ArrayList<>(devices.size());
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            if (device.getId() != 0) {
+                results.add(new BulkItemResult(i, device.getId(), BulkItemStatus.CREATED, null));
+            } else {
+                results.add(new BulkItemResult(i, null, BulkItemStatus.REJECTED,
+                                               "A device with the specified uid already exist"));
+            }
+        }
+        logger.info(accepted.size() + " of " + devices.size() + " devices created in bulk");
+        return results;
     }
 
     /**
-     * Modifies the specified Device record.
+     * Modifies the specified Device record. The loaded record is changed in place and written when the transaction
+     * commits, and the uniqueness of the uid is only looked up when it changes.
      *
      * @param device Device information to perform the update.
      * @param id     specified Device record to be updated
      * @return Modified Device record.
      */
+    @Transactional
     public Device updateDevice(Device device, long id) throws DeviceNotFoundException, NotValidDeviceException {
         Device update = deviceRepository.findById(id).orElse(null);
         if (update == null) {
             throw new DeviceNotFoundException(
                     "The specified Device with id: " + id + " could not be modified because it does not exist");
         }
-        Device byUid = deviceRepository.findByUID(device.getUid()).orElse(null);
+        Device byUid = update.getUid() == device.getUid() ? update :
+                       deviceRepository.findByUID(device.getUid()).orElse(null);
         if (byUid == null || byUid.getId() == id) {
+            //Attach and detach pass the loaded record itself, the change they make is published by them
+            boolean changed = update.getUid() != device.getUid() || update.getDeviceStatus() != device.getDeviceStatus()
+                              || !Objects.equals(update.getVendor(), device.getVendor())
+                              || device.getCreatedAt() != null && !device.getCreatedAt().equals(update.getCreatedAt());
             update.setDeviceStatus(device.getDeviceStatus());
             if (device.getCreatedAt() != null) {
                 update.setCreatedAt(device.getCreatedAt());
             }
             update.setUid(device.getUid());
+            uniqueKeyFilter.addUid(device.getUid());
             update.setVendor(device.getVendor());
+            entityCache.evictDevices(Collections.singleton(id));
+            if (update.getGateway() != null) {//The gateway is cached along with its devices
+                entityCache.evictGateways(Collections.singleton(update.getGateway().getId()));
+            }
+            fleetStats.deviceChanged(update);
+            if (changed) {
+                changeFeed.deviceChanged(ChangeType.DEVICE_UPDATED,
+                                         update.getGateway() == null ? null : update.getGateway().getId(), id);
+            }
             logger.info("Device of id: " + id + " updated");
             return deviceRepository.save(update);
         }
@@ -100,14 +344,52 @@ public class DeviceService {
     }
 
     /**
-     * Attempts to delete a Device record.
+     * Updates a Device only if it was not modified since the client read it, see
+     * {@link #updateDevice(Device, long)}. The entity tag is checked against the record loaded for the update, and a
+     * change committed after the check makes the update fail on its version.
+     *
+     * @param device  Information to be updated
+     * @param id      Identifier of the Device to update
+     * @param ifMatch Entity tags the client expects the Device to have, as sent in the If-Match header. Null to
+     *                update it unconditionally
+     * @return The updated Device
+     * @throws PreconditionFailedException thrown if the Device does not have any of the expected entity tags
+     */
+    @Transactional
+    public Device updateDevice(Device device, long id, String ifMatch)
+            throws DeviceNotFoundException, NotValidDeviceException, PreconditionFailedException {
+        if (ifMatch != null) {
+            Device current = deviceRepository.findById(id).orElseThrow(() -> new DeviceNotFoundException(
+                    "The specified Device with id: " + id + " could not be modified because it does not exist"));
+            if (!ETags.matches(ifMatch, ETags.of(current))) {
+                logger.warn("Device of id: " + id + " was not updated, it was modified since it was read");
+                throw new PreconditionFailedException("The device of id: " + id + " was modified, its current "
+                                                      + "entity tag is " + ETags.of(current));
+            }
+        }
+        return updateDevice(device, id);
+    }
+
+    /**
+     * Attempts to delete a Device record. The gateway it is attached to is read with its id, locking the Device row
+     * so it cannot be moved meanwhile, then the Device is deleted with one statement.
      *
      * @param id Identifier of the device to be deleted.
      * @return True if the specified Device exists, False otherwise.
      */
+    @Transactional
     public boolean deleteDevice(long id) {
-        if (deviceRepository.existsById(id)) {
-            deviceRepository.deleteById(id);
+        //Only the gateway of the device is read, the device itself is not loaded
+        DeviceAttachment attachment = deviceRepository.findAttachmentForUpdate(id).orElse(null);
+        if (attachment != null && deviceRepository.deleteOne(id) > 0) {
+            Long gatewayId = attachment.getGatewayId();
+            if (gatewayId != null) {
+                gatewayRepository.addToDeviceCount(gatewayId, -1);
+                entityCache.evictGateways(Collections.singleton(gatewayId));
+            }
+            entityCache.evictDevices(Collections.singleton(id));
+            fleetStats.deviceDeleted(id);
+            changeFeed.deviceChanged(ChangeType.DEVICE_DELETED, gatewayId, id);
             logger.info("Device of id: " + id + " deleted");
             return true;
         }
@@ -115,6 +397,10 @@ public class DeviceService {
         return false;
     }
 
+    private int pageSize(int limit) {
+        return Math.min(Math.max(limit, 1), maxPageLimit);
+    }
+
     public void setDeviceRepository(DeviceRepository deviceRepository) {
         this.deviceRepository = deviceRepository;
     }
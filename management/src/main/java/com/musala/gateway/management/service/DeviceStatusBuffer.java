@@ -0,0 +1,254 @@
+package com.musala.gateway.management.service;
+
+import com.musala.gateway.management.dto.ChangeType;
+import com.musala.gateway.management.dto.DeviceStatusReport;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.repository.DeviceAttachment;
+import com.musala.gateway.management.repository.DeviceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in memory buffer of the statuses reported by device heartbeats. Only the latest status of each device is
+ * kept, so a device flipping many times between two flushes costs a single update. A background writer flushes the
+ * buffer to the device table every configured interval, in JDBC batches, and once more when the application shuts
+ * down.
+ * <p>
+ * The buffer is bounded by the amount of devices with a pending status. Reports of a device already pending are
+ * always accepted, since they replace its status, while reports of any other device are rejected once the buffer is
+ * full until the next flush makes room. Reports of unknown devices are accepted and dropped when flushed.
+ * <p>
+ * A status is written as it was last reported, so a flush may overwrite a status set meanwhile through the update
+ * endpoint.
+ */
+@Component
+public class DeviceStatusBuffer {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private EntityCache entityCache;
+    @Autowired
+    private FleetStats fleetStats;
+    @Autowired
+    private ChangeFeed changeFeed;
+    @Value("${musala.status.buffer.max.size}")
+    private int maxSize;
+    @Value("${musala.status.flush.batch.size}")
+    private int batchSize;
+    @Value("${musala.status.flush.interval.millis}")
+    private long flushIntervalMillis;
+    private final Map<Long, DeviceStatus> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private ScheduledExecutorService writer;
+
+    /**
+     * Default constructor. Nothing is flushed in the background until {@link #start()} is called.
+     */
+    public DeviceStatusBuffer() {
+        maxSize = 100000;
+        batchSize = 500;
+        flushIntervalMillis = 250;
+    }
+
+    /**
+     * Buffers the status reported by a device, replacing the one it had pending.
+     *
+     * @param id     Device identifier
+     * @param status Reported status
+     * @return False if the buffer is full and the device had no pending status, in which case it must be reported
+     * again later.
+     */
+    public boolean offer(long id, DeviceStatus status) {
+        Objects.requireNonNull(status);
+        if (pending.replace(id, status) != null) {
+            accepted.increment();
+            coalesced.increment();
+            return true;
+        }
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        if (pending.put(id, status) != null) {
+            // Another report of the same device was buffered meanwhile
+            size.decrementAndGet();
+            coalesced.increment();
+        }
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * Buffers the statuses reported by many devices, in order, so the latest report of a device wins.
+     *
+     * @param reports Reported statuses
+     * @return Ids of the devices whose report was rejected because the buffer is full, empty if every one was accepted
+     */
+    public List<Long> offer(List<DeviceStatusReport> reports) {
+        List<Long> rejectedIds = new ArrayList<>();
+        for (DeviceStatusReport report : reports) {
+            if (!offer(report.getId(), report.getStatus())) {
+                rejectedIds.add(report.getId());
+            }
+        }
+        return rejectedIds;
+    }
+
+    /**
+     * Starts the background writer once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "device-status-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                                      TimeUnit.MILLISECONDS);
+        logger.info("Device status writer started, flushing every " + flushIntervalMillis + "ms");
+    }
+
+    /**
+     * Stops the background writer, waiting for a running flush, and flushes the statuses still pending.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Device status writer did not finish its last flush in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        int flushed = flush();
+        logger.info("Device status writer stopped, " + flushed + " pending statuses flushed on shutdown");
+    }
+
+    /**
+     * Writes the pending statuses to the device table, one transaction per batch, and evicts the affected devices and
+     * gateways from the cache. Statuses reported again while being written stay pending for the next flush, and so do
+     * the statuses of a batch that failed.
+     *
+     * @return Amount of pending statuses written, including the ones of unknown devices
+     */
+    public synchronized int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        List<Map.Entry<Long, DeviceStatus>> entries = new ArrayList<>(pending.size());
+        pending.forEach((id, status) -> entries.add(Map.entry(id, status)));
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        int flushed = 0;
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Map.Entry<Long, DeviceStatus>> batch =
+                    entries.subList(from, Math.min(from + batchSize, entries.size()));
+            transaction.executeWithoutResult(status -> write(batch));
+            for (Map.Entry<Long, DeviceStatus> entry : batch) {
+                if (pending.remove(entry.getKey(), entry.getValue())) {
+                    size.decrementAndGet();
+                }
+            }
+            flushed += batch.size();
+        }
+        written.add(flushed);
+        flushes.increment();
+        return flushed;
+    }
+
+    private void write(List<Map.Entry<Long, DeviceStatus>> batch) {
+        jdbcTemplate.batchUpdate("update device set status=?, version=version+1 where id=?", batch, batch.size(),
+                                 (statement, entry) -> {
+                                     statement.setString(1, entry.getValue().name());
+                                     statement.setLong(2, entry.getKey());
+                                 });
+        List<Long> ids = new ArrayList<>(batch.size());
+        Map<Long, DeviceStatus> statuses = new LinkedHashMap<>();
+        batch.forEach(entry -> {
+            ids.add(entry.getKey());
+            statuses.put(entry.getKey(), entry.getValue());
+        });
+        List<Long> gatewayIds = new ArrayList<>();
+        for (DeviceAttachment attachment : deviceRepository.findAttachments(ids)) {
+            if (attachment.getGatewayId() != null) {
+                gatewayIds.add(attachment.getGatewayId());
+            }
+            changeFeed.deviceChanged(ChangeType.DEVICE_UPDATED, attachment.getGatewayId(), attachment.getId());
+        }
+        entityCache.evictDevices(ids);
+        entityCache.evictGateways(gatewayIds);
+        fleetStats.statusesChanged(statuses);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Device status flush failed, the statuses stay pending", e);
+        }
+    }
+
+    /**
+     * Statistics of the buffer: devices with a pending status, capacity, and reports accepted, coalesced and
+     * rejected, statuses written and flushes done since startup.
+     *
+     * @return Statistics by name
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", size.get());
+        stats.put("capacity", maxSize);
+        stats.put("accepted", accepted.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("written", written.sum());
+        stats.put("flushes", flushes.sum());
+        return stats;
+    }
+
+    /**
+     * @return Milliseconds between two flushes of the background writer
+     */
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+}
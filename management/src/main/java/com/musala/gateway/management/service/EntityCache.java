@@ -0,0 +1,158 @@
+package com.musala.gateway.management.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded in memory cache of Gateways (along with their devices) and Devices by id, used by the view lookups. Entries
+ * are evicted by size and by time since they were loaded.
+ * <p>
+ * Write paths never read from this cache, they load the records from the database and evict the affected entries.
+ * Evictions requested inside a transaction are applied once it completes, so a concurrent lookup cannot cache a
+ * record the transaction is still changing. A lookup that started loading before the eviction is waited for and
+ * removed as well, since loading and evicting the same key are serialized by the cache.
+ */
+@Component
+public class EntityCache {
+    private final Cache<Long, Gateway> gateways;
+    private final Cache<Long, Device> devices;
+    private final LongAdder gatewayInvalidations = new LongAdder();
+    private final LongAdder deviceInvalidations = new LongAdder();
+
+    /**
+     * @param maxSize    Max amount of gateways, and of devices, kept in the cache
+     * @param ttlSeconds Seconds an entry is kept since it was loaded
+     */
+    @Autowired
+    public EntityCache(@Value("${musala.cache.max.size}") long maxSize,
+                       @Value("${musala.cache.ttl.seconds}") long ttlSeconds) {
+        gateways = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                           .recordStats().build();
+        devices = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                          .recordStats().build();
+    }
+
+    /**
+     * Retrieves the cached Gateway of the given id, loading it if it is not cached. Missing Gateways are not cached.
+     *
+     * @param id     Gateway identifier
+     * @param loader Loads the Gateway, along with its devices, from the database. Returns null if it does not exist
+     * @return The Gateway or null if it does not exist
+     */
+    public Gateway gateway(long id, Function<Long, Gateway> loader) {
+        return gateways.get(id, loader);
+    }
+
+    /**
+     * Retrieves the cached Device of the given id, loading it if it is not cached. Missing Devices are not cached.
+     *
+     * @param id     Device identifier
+     * @param loader Loads the Device from the database. Returns null if it does not exist
+     * @return The Device or null if it does not exist
+     */
+    public Device device(long id, Function<Long, Device> loader) {
+        return devices.get(id, loader);
+    }
+
+    /**
+     * @param id Gateway identifier
+     * @return The cached Gateway of the given id, null if it is not cached. It is never loaded.
+     */
+    public Gateway cachedGateway(long id) {
+        return gateways.getIfPresent(id);
+    }
+
+    /**
+     * @param id Device identifier
+     * @return The cached Device of the given id, null if it is not cached. It is never loaded.
+     */
+    public Device cachedDevice(long id) {
+        return devices.getIfPresent(id);
+    }
+
+    /**
+     * Evicts the given Gateways once the current transaction completes, or right away if there is none.
+     *
+     * @param ids Identifiers of the Gateways to evict
+     */
+    public void evictGateways(Collection<Long> ids) {
+        afterCompletion(() -> {
+            gateways.invalidateAll(ids);
+            gatewayInvalidations.add(ids.size());
+        });
+    }
+
+    /**
+     * Evicts the given Devices once the current transaction completes, or right away if there is none.
+     *
+     * @param ids Identifiers of the Devices to evict
+     */
+    public void evictDevices(Collection<Long> ids) {
+        afterCompletion(() -> {
+            devices.invalidateAll(ids);
+            deviceInvalidations.add(ids.size());
+        });
+    }
+
+    /**
+     * Evicts every Gateway once the current transaction completes, or right away if there is none.
+     */
+    public void evictAllGateways() {
+        afterCompletion(() -> {
+            gatewayInvalidations.add(gateways.estimatedSize());
+            gateways.invalidateAll();
+        });
+    }
+
+    /**
+     * Statistics of both caches: size, hits, misses, hit rate, evictions by size or time and explicit invalidations.
+     *
+     * @return Statistics by cache name
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("gateways", stats(gateways, gatewayInvalidations));
+        stats.put("devices", stats(devices, deviceInvalidations));
+        return stats;
+    }
+
+    private Map<String, Object> stats(Cache<Long, ?> cache, LongAdder invalidations) {
+        CacheStats cacheStats = cache.stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.estimatedSize());
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictions", cacheStats.evictionCount());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private void afterCompletion(Runnable eviction) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    eviction.run();
+                }
+            });
+        } else {
+            eviction.run();
+        }
+    }
+}
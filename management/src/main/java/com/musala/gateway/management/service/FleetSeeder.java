@@ -0,0 +1,219 @@
+package com.musala.gateway.management.service;
+
+import com.musala.gateway.management.dto.FleetSpec;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seeds a synthetic fleet of gateways and devices (see {@link FleetSpec}) straight into the database, for trying the
+ * service, the benchmarks and the load tests against production volumes. Rows are generated by H2 itself, with
+ * insert ... select statements over system_range, so no row travels through JDBC and seeding is bound by the inserts
+ * themselves. Every statement inserts at most the configured chunk of rows and commits it, so the size of a
+ * transaction does not grow with the fleet; a failed seeding leaves the chunks inserted so far.
+ * <p>
+ * Gateway k gets the serial number prefix-k and the address 10.0.0.0 + k, and the devices attached to it fill its
+ * device counter. Device uids follow the existing ones. The vendor, status and creation time of every device are
+ * drawn from the weights of the spec with ORA_HASH over the row number and the seed of the spec, so the same spec
+ * always seeds the same fleet. Seeded rows bypass the services: nothing is published to the change feed, while the
+ * unique key filters and fleet statistics are rebuilt once the fleet is in place, or built along with the application
+ * when it is seeded on startup.
+ * <p>
+ * The indexes of the device table that back no constraint are dropped while the devices are inserted and created
+ * again afterwards, which is a third faster than keeping them up to date row by row. Queries run meanwhile are
+ * planned without them, so seeding is meant for a database that is not serving requests yet, e.g. on startup or in
+ * the setup of a benchmark.
+ */
+@Component
+public class FleetSeeder {
+    private static final long FIRST_ADDRESS = 167772160L;//10.0.0.0
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private UniqueKeyFilter uniqueKeyFilter;
+    @Autowired
+    private FleetStats fleetStats;
+    @Value("${musala.max.gateway.devices}")
+    private int maxDevices;
+    @Value("${musala.seed.chunk.size}")
+    private int chunkSize;
+    private volatile boolean ready;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ready() {
+        ready = true;
+    }
+
+    /**
+     * Seeds the fleet described by the spec next to the existing gateways and devices.
+     *
+     * @param spec Fleet to seed
+     * @throws IllegalArgumentException thrown if the spec attaches more devices to a gateway than allowed
+     * @throws IllegalStateException    thrown if gateways with the serial number prefix of the spec already exist
+     */
+    public void seed(FleetSpec spec) {
+        if (spec.getDevicesPerGateway() > maxDevices) {
+            throw new IllegalArgumentException("At most " + maxDevices + " devices can be attached to a gateway, "
+                                               + spec.getDevicesPerGateway() + " were requested");
+        }
+        String serialPrefix = spec.getSerialPrefix() + "-";
+        if (spec.getGateways() > 0 && gatewayRepository.findIdBySerialNumber(serialPrefix + 1).isPresent()) {
+            throw new IllegalStateException("A fleet with the serial number prefix " + spec.getSerialPrefix()
+                                            + " was already seeded");
+        }
+        logger.info("Seeding fleet: " + spec);
+        long start = System.nanoTime();
+        long devices = spec.getAttachedDevices() + spec.getUnattachedDevices();
+        long uidOffset = uidOffset(devices);
+        Timestamp now = Timestamp.from(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+
+        for (long from = 1; from <= spec.getGateways(); from += chunkSize) {
+            jdbcTemplate.update("insert into gateway (id, serial_number, name, ip_address, ip_value, device_count) "
+                                + "select next value for gateway_seq, ? || x, ?, "
+                                + "'10.' || (x / 65536) || '.' || mod(x / 256, 256) || '.' || mod(x, 256), ? + x, ? "
+                                + "from system_range(?, ?)", serialPrefix, spec.getSerialPrefix(), FIRST_ADDRESS,
+                                spec.getDevicesPerGateway(), from,
+                                Math.min(from + chunkSize - 1, spec.getGateways()));
+        }
+        List<String> indexes = dropIndexes("DEVICE");
+        try {
+            insertDevices(spec, uidOffset, now);
+        } finally {
+            indexes.forEach(jdbcTemplate::execute);
+        }
+        logger.info("Seeded " + spec.getGateways() + " gateways and " + devices + " devices in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+
+        //Before the application is ready they are left to be built once it is
+        if (ready) {
+            uniqueKeyFilter.rebuild();
+            fleetStats.rebuild();
+        }
+        //Refreshes the selectivity of the columns the planner chooses the indexes with
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    /**
+     * Inserts the devices of the fleet, the attached ones first: device x of them goes to gateway
+     * (x - 1) / devicesPerGateway + 1.
+     */
+    private void insertDevices(FleetSpec spec, long uidOffset, Timestamp now) {
+        List<Object> drawn = new ArrayList<>();
+        drawn.add(uidOffset);
+        String vendor = draw(spec.getVendorWeights(), spec.getSeed(), drawn);
+        drawn.add(spec.getCreatedWithinDays() * 86400L - 1);
+        drawn.add(Integer.toUnsignedLong(spec.getSeed() + 2));
+        drawn.add(now);
+        String status = draw(spec.getStatusWeights(), spec.getSeed() + 1, drawn);
+        String columns = "next value for device_seq, ? + x, " + vendor
+                         + ", dateadd('SECOND', -ora_hash(x, ?, ?), ?), " + status;
+        long attached = spec.getAttachedDevices();
+        for (long from = 1; from <= attached; from += chunkSize) {
+            List<Object> parameters = new ArrayList<>(drawn);
+            parameters.add(from);
+            parameters.add(Math.min(from + chunkSize - 1, attached));
+            parameters.add(spec.getSerialPrefix() + "-");
+            parameters.add(spec.getDevicesPerGateway());
+            jdbcTemplate.update("insert into device (id, uid, vendor, created_at, status, gateway_id) select "
+                                + columns + ", g.id from system_range(?, ?) join gateway g "
+                                + "on g.serial_number = ? || ((x - 1) / ? + 1)", parameters.toArray());
+        }
+        long devices = attached + spec.getUnattachedDevices();
+        for (long from = attached + 1; from <= devices; from += chunkSize) {
+            List<Object> parameters = new ArrayList<>(drawn);
+            parameters.add(from);
+            parameters.add(Math.min(from + chunkSize - 1, devices));
+            jdbcTemplate.update("insert into device (id, uid, vendor, created_at, status) select " + columns
+                                + " from system_range(?, ?)", parameters.toArray());
+        }
+    }
+
+    /**
+     * Drops the indexes of the table that back no constraint. Seeded rows would be inserted into them in no particular
+     * order, while creating them again once the rows are in place sorts all of them at once.
+     *
+     * @param table Name of the table
+     * @return Statements creating the dropped indexes again
+     */
+    private List<String> dropIndexes(String table) {
+        List<String> created = new ArrayList<>();
+        for (Map<String, Object> index : jdbcTemplate.queryForList(
+                "select distinct table_schema, index_name, sql from information_schema.indexes "
+                + "where table_name = ? and index_type_name = 'INDEX' and constraint_name is null", table)) {
+            jdbcTemplate.execute("drop index \"" + index.get("TABLE_SCHEMA") + "\".\"" + index.get("INDEX_NAME")
+                                 + "\"");
+            created.add((String) index.get("SQL"));
+        }
+        return created;
+    }
+
+    /**
+     * @param devices Amount of devices to seed
+     * @return Amount added to the row number of every device to get its uid, so uids don't clash with existing ones
+     */
+    private long uidOffset(long devices) {
+        Long max = jdbcTemplate.queryForObject("select max(uid) from device", Long.class);
+        if (max == null) {
+            return 0;
+        }
+        if (max <= Long.MAX_VALUE - devices) {
+            return max;
+        }
+        Long min = jdbcTemplate.queryForObject("select min(uid) from device", Long.class);
+        if (min > Long.MIN_VALUE + devices) {
+            return min - devices - 1;
+        }
+        throw new IllegalStateException("There is no free range of " + devices + " uids after or before the existing "
+                                        + "ones");
+    }
+
+    /**
+     * Builds the expression drawing one of the weighted values for the device of row number x: ORA_HASH maps the row
+     * number to a bucket below the total weight, and every value takes as many buckets as its weight.
+     *
+     * @param weights    Weight of every value
+     * @param seed       Seed of the hash, different for every drawn column so they are independent of each other
+     * @param parameters Parameters of the expression, added in the order they appear
+     * @return A case expression over x
+     */
+    private static String draw(Map<?, Integer> weights, int seed, List<Object> parameters) {
+        long total = weights.values().stream().mapToLong(Integer::longValue).sum();
+        StringBuilder expression = new StringBuilder("case");
+        long bound = 0;
+        Object last = null;
+        for (Map.Entry<?, Integer> weight : weights.entrySet()) {
+            if (weight.getValue() == 0) {
+                continue;
+            }
+            if (last != null) {
+                expression.append(" when ora_hash(x, ?, ?) < ? then ?");
+                parameters.add(total - 1);
+                parameters.add(Integer.toUnsignedLong(seed));
+                parameters.add(bound);
+                parameters.add(last);
+            }
+            bound += weight.getValue();
+            last = weight.getKey() instanceof DeviceStatus ? ((DeviceStatus) weight.getKey()).name()
+                                                           : weight.getKey();
+        }
+        parameters.add(last);
+        return expression.append(" else ? end").toString();
+    }
+}
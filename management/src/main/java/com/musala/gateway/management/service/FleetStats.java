@@ -0,0 +1,280 @@
+package com.musala.gateway.management.service;
+
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.DeviceState;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * In memory statistics of the fleet: totals of gateways and devices by status and attachment, devices by status of
+ * every gateway and devices by vendor. They are built from the database once the application is ready and kept up to
+ * date by the services, so reading them never touches the device table.
+ * <p>
+ * The gateway, vendor and status last recorded for every device are kept along with the counters, and every change
+ * moves the device from the counters of its recorded state to the ones of its new state. Changes are recorded once
+ * their transaction commits, so rolled back changes are never counted, and the counters always add up to the recorded
+ * states even if two changes of the same device are recorded out of order; the state of that device is corrected by
+ * its next change. Devices changed bypassing the services (and changes committed while the statistics are being
+ * rebuilt) are only picked up by the next rebuild.
+ */
+@Component
+public class FleetStats {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    private volatile Aggregates aggregates = new Aggregates();
+
+    /**
+     * Totals of the fleet: gateways, devices, devices by status, attached and unattached devices.
+     *
+     * @return Totals by name
+     */
+    public Map<String, Long> fleet() {
+        Aggregates current = aggregates;
+        Map<String, Long> fleet = new LinkedHashMap<>();
+        fleet.put("gateways", (long) current.gateways.size());
+        long devices = current.byStatus.devices.sum();
+        long unattached = current.unattached.sum();
+        fleet.put("devices", devices);
+        current.byStatus.count(fleet);
+        fleet.put("attached", devices - unattached);
+        fleet.put("unattached", unattached);
+        return fleet;
+    }
+
+    /**
+     * @param gatewayId Gateway identifier
+     * @return Amount of devices attached to the Gateway, in total and by status, or null if the Gateway does not exist
+     */
+    public Map<String, Long> gateway(long gatewayId) {
+        Counts counts = aggregates.gateways.get(gatewayId);
+        if (counts == null) {
+            return null;
+        }
+        Map<String, Long> gateway = new LinkedHashMap<>();
+        gateway.put("devices", counts.devices.sum());
+        counts.count(gateway);
+        return gateway;
+    }
+
+    /**
+     * @return Amount of devices of every vendor, ordered by vendor. Devices without vendor are not included.
+     */
+    public Map<String, Long> vendors() {
+        Map<String, Long> vendors = new TreeMap<>();
+        aggregates.byVendor.forEach((vendor, count) -> {
+            long sum = count.sum();
+            if (sum > 0) {
+                vendors.put(vendor, sum);
+            }
+        });
+        return vendors;
+    }
+
+    /**
+     * @param gatewayId Identifier of a created Gateway
+     */
+    public void gatewayCreated(long gatewayId) {
+        afterCommit(() -> aggregates.gateways.computeIfAbsent(gatewayId, id -> new Counts()));
+    }
+
+    /**
+     * @param gatewayId Identifier of a deleted Gateway, its devices must have been detached first
+     */
+    public void gatewayDeleted(long gatewayId) {
+        afterCommit(() -> aggregates.gateways.remove(gatewayId));
+    }
+
+    /**
+     * Records the current gateway, vendor and status of a created or modified Device.
+     *
+     * @param device The Device as it is going to be committed
+     */
+    public void deviceChanged(Device device) {
+        State state = new State(device.getGateway() == null ? null : device.getGateway().getId(), device.getVendor(),
+                                device.getDeviceStatus());
+        long id = device.getId();
+        afterCommit(() -> aggregates.record(id, state));
+    }
+
+    /**
+     * Records the Devices as attached to the given Gateway, keeping their vendor and status.
+     *
+     * @param ids       Identifiers of the moved Devices
+     * @param gatewayId Gateway they were attached to, null if they were detached
+     */
+    public void devicesMoved(Collection<Long> ids, Long gatewayId) {
+        Long[] moved = ids.toArray(new Long[0]);
+        afterCommit(() -> {
+            for (Long id : moved) {
+                aggregates.update(id, state -> new State(gatewayId, state.vendor, state.status));
+            }
+        });
+    }
+
+    /**
+     * Records the reported statuses, keeping the gateway and vendor of the Devices. Unknown Devices are ignored.
+     *
+     * @param statuses Status of every Device by id
+     */
+    public void statusesChanged(Map<Long, DeviceStatus> statuses) {
+        Map<Long, DeviceStatus> changed = new LinkedHashMap<>(statuses);
+        afterCommit(() -> changed.forEach(
+                (id, status) -> aggregates.update(id, state -> new State(state.gatewayId, state.vendor, status))));
+    }
+
+    /**
+     * @param deviceId Identifier of a deleted Device
+     */
+    public void deviceDeleted(long deviceId) {
+        afterCommit(() -> aggregates.record(deviceId, null));
+    }
+
+    /**
+     * Builds the statistics from the gateways and devices currently stored in the database, replacing the previous
+     * ones once they are complete.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        Aggregates rebuilt = new Aggregates();
+        try (Stream<Long> ids = gatewayRepository.streamIds()) {
+            ids.forEach(id -> rebuilt.gateways.put(id, new Counts()));
+        }
+        try (Stream<DeviceState> states = deviceRepository.streamStates()) {
+            states.forEach(device -> rebuilt.record(device.getId(), new State(device.getGatewayId(),
+                                                                               device.getVendor(),
+                                                                               device.getDeviceStatus())));
+        }
+        aggregates = rebuilt;
+        logger.info("Fleet statistics built with " + rebuilt.gateways.size() + " gateways and "
+                    + rebuilt.byStatus.devices.sum() + " devices");
+    }
+
+    private void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private static class State {
+        private final Long gatewayId;
+        private final String vendor;
+        private final DeviceStatus status;
+
+        State(Long gatewayId, String vendor, DeviceStatus status) {
+            this.gatewayId = gatewayId;
+            this.vendor = vendor;
+            this.status = status;
+        }
+    }
+
+    private static class Counts {
+        private final LongAdder devices = new LongAdder();
+        private final Map<DeviceStatus, LongAdder> byStatus = new EnumMap<>(DeviceStatus.class);
+
+        Counts() {
+            for (DeviceStatus status : DeviceStatus.values()) {
+                byStatus.put(status, new LongAdder());
+            }
+        }
+
+        void add(DeviceStatus status, int delta) {
+            devices.add(delta);
+            if (status != null) {
+                byStatus.get(status).add(delta);
+            }
+        }
+
+        void count(Map<String, Long> into) {
+            byStatus.forEach((status, count) -> into.put(status.name(), count.sum()));
+        }
+    }
+
+    private static class Aggregates {
+        private final Map<Long, State> states = new ConcurrentHashMap<>();
+        private final LongAdder unattached = new LongAdder();
+        private final Counts byStatus = new Counts();
+        private final Map<Long, Counts> gateways = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> byVendor = new ConcurrentHashMap<>();
+
+        /**
+         * Replaces the recorded state of a device, null removes it.
+         */
+        void record(long id, State state) {
+            if (state == null) {
+                states.computeIfPresent(id, (key, previous) -> {
+                    count(previous, -1);
+                    return null;
+                });
+            } else {
+                states.compute(id, (key, previous) -> {
+                    count(previous, -1);
+                    count(state, 1);
+                    return state;
+                });
+            }
+        }
+
+        /**
+         * Changes the recorded state of a device, devices without a recorded state are ignored.
+         */
+        void update(long id, UnaryOperator<State> change) {
+            states.computeIfPresent(id, (key, previous) -> {
+                State state = change.apply(previous);
+                count(previous, -1);
+                count(state, 1);
+                return state;
+            });
+        }
+
+        private void count(State state, int delta) {
+            if (state == null) {
+                return;
+            }
+            byStatus.add(state.status, delta);
+            if (state.gatewayId == null) {
+                unattached.add(delta);
+            } else {
+                //A gateway is counted before its creation is recorded, but not again once it is deleted
+                Counts counts = delta > 0 ? gateways.computeIfAbsent(state.gatewayId, id -> new Counts()) :
+                                gateways.get(state.gatewayId);
+                if (counts != null) {
+                    counts.add(state.status, delta);
+                }
+            }
+            if (state.vendor != null) {
+                byVendor.computeIfAbsent(state.vendor, vendor -> new LongAdder()).add(delta);
+            }
+        }
+    }
+}
@@ -1,35 +1,104 @@
 package com.musala.gateway.management.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.musala.gateway.management.dto.BulkItemResult;
+import com.musala.gateway.management.dto.BulkItemStatus;
+import com.musala.gateway.management.dto.ChangeType;
+import com.musala.gateway.management.dto.DeviceExport;
+import com.musala.gateway.management.dto.GatewayExport;
+import com.musala.gateway.management.dto.GatewayFields;
+import com.musala.gateway.management.dto.GatewaySummary;
+import com.musala.gateway.management.dto.KeysetPage;
 import com.musala.gateway.management.exception.*;
 import com.musala.gateway.management.model.Device;
 import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceAttachment;
+import com.musala.gateway.management.repository.DeviceCountMismatch;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayAddress;
 import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.util.ETags;
+import com.musala.gateway.management.util.Ipv4;
+import com.musala.gateway.management.util.Ipv4Subnet;
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
 
 @SuppressWarnings("unused")
 @Service
 public class GatewayService {
+    /**
+     * Fields of a Gateway that can be requested from /gateway/list, in the order they are written.
+     */
+    public static final List<String> GATEWAY_FIELDS =
+            Collections.unmodifiableList(Arrays.asList("id", "serialNumber", "name", "ipAddress", "deviceCount",
+                                                       "devices"));
     Logger logger = LoggerFactory.getLogger(this.getClass());
     @Autowired
     private GatewayRepository gatewayRepository;
 
+    @Autowired
+    private DeviceRepository deviceRepository;
+
     @Autowired
     private DeviceService deviceService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private EntityCache entityCache;
+    @Autowired
+    private UniqueKeyFilter uniqueKeyFilter;
+    @Autowired
+    private FleetStats fleetStats;
+    @Autowired
+    private ChangeFeed changeFeed;
+    @Value("${musala.export.flush.every}")
+    private int exportFlushEvery;
+    @Value("${musala.bulk.max.size}")
+    private int maxBulkSize;
     @Value("${musala.max.gateway.devices}")
     private int maxDevices;
+    @Value("${musala.page.max.limit}")
+    private int maxPageLimit;
+    @PersistenceContext
+    private EntityManager entityManager;
 
     /**
      * Default constructor
      */
     public GatewayService() {
         maxDevices = 10;
+        maxPageLimit = 1000;
+        exportFlushEvery = 500;
+        maxBulkSize = 10000;
     }
 
     /**
@@ -38,18 +107,26 @@ public class GatewayService {
      * this class)
      *
      * @param gatewayRepository the repository for crud operations
+     * @param deviceRepository  the repository for set based device queries
      * @param deviceService     a device service instance for device management
      * @param maxDevices        max amount of devices allowed in a gateway
      */
-    public GatewayService(GatewayRepository gatewayRepository, DeviceService deviceService, int maxDevices) {
+    public GatewayService(GatewayRepository gatewayRepository, DeviceRepository deviceRepository,
+                          DeviceService deviceService, int maxDevices) {
         this();
         this.gatewayRepository = gatewayRepository;
+        this.deviceRepository = deviceRepository;
         this.deviceService = deviceService;
         this.maxDevices = maxDevices;
+        this.entityCache = new EntityCache(1000, 300);
+        this.uniqueKeyFilter = new UniqueKeyFilter();
+        this.fleetStats = new FleetStats();
+        this.changeFeed = new ChangeFeed();
     }
 
     /**
-     * Creates a Gateway record.
+     * Creates a Gateway record. The serial number is only looked up when the unique key filter reports it as possibly
+     * existing, otherwise the unique constraint of the table is relied upon.
      *
      * @param gateway Gateway information
      * @return The created record
@@ -60,39 +137,279 @@ public class GatewayService {
             logger.error(e.getMessage(), e);
             throw e;
         }
-        if (gatewayRepository.findBySerialNumber(gateway.getSerialNumber()).isPresent()) {
-            NotValidGatewayException e = new NotValidGatewayException(
-                    "A gateway with serial number: " + gateway.getSerialNumber() + " already exist");
-            logger.error(e.getMessage(), e);
+        if (uniqueKeyFilter.mightExistSerialNumber(gateway.getSerialNumber())
+            && gatewayRepository.findIdBySerialNumber(gateway.getSerialNumber()).isPresent()) {
+            throw duplicatedSerialNumber(gateway.getSerialNumber());
+        }
+        Gateway saved;
+        try {
+            saved = gatewayRepository.save(gateway);
+        } catch (DataIntegrityViolationException e) {
+            //The serial number was missing from the filter, e.g. the gateway was inserted bypassing this service
+            if (gatewayRepository.findIdBySerialNumber(gateway.getSerialNumber()).isPresent()) {
+                throw duplicatedSerialNumber(gateway.getSerialNumber());
+            }
             throw e;
         }
+        uniqueKeyFilter.addSerialNumber(saved.getSerialNumber());
+        fleetStats.gatewayCreated(saved.getId());
+        changeFeed.gatewayChanged(ChangeType.GATEWAY_CREATED, saved.getId());
         logger.info("Gateway record created");
-        return gatewayRepository.save(gateway);
+        return saved;
+    }
+
+    private NotValidGatewayException duplicatedSerialNumber(String serialNumber) {
+        NotValidGatewayException e =
+                new NotValidGatewayException("A gateway with serial number: " + serialNumber + " already exist");
+        logger.error(e.getMessage(), e);
+        return e;
     }
 
     /**
-     * Retrieves from the database the Gateway record specified by the id parameter.
+     * Retrieves the Gateway record specified by the id parameter, from the cache if it was recently requested. The
+     * returned record is shared with other requests and must not be modified, write operations load their own copy
+     * from the database.
      *
      * @param id Id of the gateway
      * @return The retrieved Gateway record
      * @throws RuntimeException thrown when the specified Gateway record does not exist
      */
     public Gateway gatewayById(long id) throws GatewayNotFoundException {
-        Optional<Gateway> byId = gatewayRepository.findById(id);
-        return byId.orElseThrow(() -> {
+        Gateway gateway = entityCache.gateway(id, key -> gatewayRepository.findById(key).orElse(null));
+        if (gateway == null) {
             logger.warn("Requested nonexistent gateway of id: " + id);
-            return new GatewayNotFoundException("Gateway not found with ID: " + id);
-        });
+            throw new GatewayNotFoundException("Gateway not found with ID: " + id);
+        }
+        return gateway;
+    }
+
+    /**
+     * Computes the entity tag of the specified Gateway without loading it along with its devices: it is taken from
+     * the cache if the Gateway is cached, otherwise only the versions it is made of are read.
+     *
+     * @param id Id of the gateway
+     * @return The current entity tag of the Gateway, null if it does not exist
+     */
+    public String gatewayETag(long id) {
+        Gateway cached = entityCache.cachedGateway(id);
+        if (cached != null) {
+            return ETags.of(cached);
+        }
+        return gatewayRepository.findVersionById(id)
+                                .map(version -> ETags.gateway(version.getVersion(), version.getDevicesVersion()))
+                                .orElse(null);
     }
 
     /**
-     * Retrieves all Gateway records from the database
+     * Retrieves one page of Gateway records ordered by id, starting right after the specified cursor.
      *
-     * @return List of all existing Gateway records
+     * @param after Id of the last Gateway of the previous page, 0 to start from the beginning.
+     * @param limit Max amount of Gateways in the page, capped by the configured maximum page size.
+     * @return Page of Gateway records along with the cursor of the next page.
      */
-    public List<Gateway> list() {
-        logger.info("Listed all devices");
-        return (List<Gateway>) gatewayRepository.findAll();
+    public KeysetPage<Gateway> list(long after, int limit) {
+        int size = pageSize(limit);
+        KeysetPage<Gateway> gateways =
+                gatewaysOf(KeysetPage.of(gatewayRepository.findIdPageAfter(after, PageRequest.of(0, size + 1)), size,
+                                         Long::longValue));
+        logger.info("Listed " + gateways.getItems().size() + " gateways after id: " + after);
+        return gateways;
+    }
+
+    /**
+     * Retrieves one page of Gateway summaries ordered by id: the columns of the gateways along with their device
+     * counter, read in a single statement without touching the devices.
+     *
+     * @param after Id of the last Gateway of the previous page, 0 to start from the beginning.
+     * @param limit Max amount of Gateways in the page, capped by the configured maximum page size.
+     * @return Page of Gateway summaries along with the cursor of the next page.
+     */
+    public KeysetPage<GatewaySummary> listSummaries(long after, int limit) {
+        int size = pageSize(limit);
+        KeysetPage<GatewaySummary> gateways =
+                KeysetPage.of(gatewayRepository.findSummaryPageAfter(after, PageRequest.of(0, size + 1)), size,
+                              GatewaySummary::getId);
+        logger.info("Listed " + gateways.getItems().size() + " gateway summaries after id: " + after);
+        return gateways;
+    }
+
+    /**
+     * Retrieves one page of Gateways ordered by id, reduced to the requested fields. Only the columns of the requested
+     * fields are selected, and the devices are only read, in a second statement, if they are requested.
+     *
+     * @param after  Id of the last Gateway of the previous page, 0 to start from the beginning.
+     * @param limit  Max amount of Gateways in the page, capped by the configured maximum page size.
+     * @param fields Comma separated names of the fields to serve, any of {@link #GATEWAY_FIELDS}
+     * @return Page of Gateways along with the cursor of the next page.
+     * @throws NotValidGatewayException thrown if no field or an unknown one is requested
+     */
+    public KeysetPage<GatewayFields> listFields(long after, int limit, String fields) throws NotValidGatewayException {
+        Set<String> requested = new HashSet<>();
+        for (String field : fields.split(",")) {
+            if (!field.isBlank()) {
+                requested.add(field.trim());
+            }
+        }
+        if (requested.isEmpty() || !GATEWAY_FIELDS.containsAll(requested)) {
+            requested.removeAll(GATEWAY_FIELDS);
+            NotValidGatewayException e = new NotValidGatewayException(
+                    "Provided fields are not valid: " + (requested.isEmpty() ? "none" : requested)
+                    + ", the fields of a gateway are " + GATEWAY_FIELDS);
+            logger.error(e.getMessage(), e);
+            throw e;
+        }
+        //Field names are the attribute names, and only known ones get this far
+        List<String> columns = new ArrayList<>();
+        StringBuilder query = new StringBuilder("Select g.id, g.version");
+        for (String field : GATEWAY_FIELDS) {
+            if (requested.contains(field) && !field.equals("devices")) {
+                columns.add(field);
+                query.append(", g.").append(field);
+            }
+        }
+        query.append(" from Gateway g where g.id>?1 order by g.id");
+        int size = pageSize(limit);
+        List<GatewayFields> fetched = new ArrayList<>();
+        for (Object[] row : entityManager.createQuery(query.toString(), Object[].class).setParameter(1, after)
+                                         .setMaxResults(size + 1).getResultList()) {
+            GatewayFields gateway = new GatewayFields((Long) row[0], (Long) row[1]);
+            for (int i = 0; i < columns.size(); i++) {
+                gateway.getFields().put(columns.get(i), row[i + 2]);
+            }
+            fetched.add(gateway);
+        }
+        KeysetPage<GatewayFields> gateways = KeysetPage.of(fetched, size, GatewayFields::getId);
+        if (requested.contains("devices") && !gateways.isEmpty()) {
+            Map<Long, List<DeviceExport>> devices = new HashMap<>();
+            gateways.getItems().forEach(gateway -> devices.put(gateway.getId(), new ArrayList<>()));
+            deviceRepository.findExportsByGatewayIdIn(devices.keySet())
+                            .forEach(device -> devices.get(device.getGatewayId()).add(device));
+            for (GatewayFields gateway : gateways.getItems()) {
+                List<DeviceExport> attached = devices.get(gateway.getId());
+                gateway.getFields().put("devices", attached);
+                gateway.setDevicesVersion(attached.stream().mapToLong(DeviceExport::getVersion).sum());
+            }
+        }
+        logger.info("Listed " + gateways.getItems().size() + " gateways with fields " + requested + " after id: "
+                    + after);
+        return gateways;
+    }
+
+    /**
+     * Retrieves the Gateways whose IP address is the given one.
+     *
+     * @param ipAddress IPv4 address in dotted decimal notation
+     * @return Gateways with the given address, ordered by id.
+     * @throws NotValidGatewayException thrown if the given address is not a valid IPv4 address
+     */
+    public List<Gateway> gatewaysByIp(String ipAddress) throws NotValidGatewayException {
+        long ipValue = Ipv4.parse(ipAddress);
+        if (ipValue == Ipv4.INVALID) {
+            NotValidGatewayException e = new NotValidGatewayException("Provided IP address is not valid");
+            logger.error(e.getMessage(), e);
+            throw e;
+        }
+        return gatewayRepository.findWithDevicesByIpValue(ipValue);
+    }
+
+    /**
+     * Retrieves one page of the Gateways whose IP address is within the given subnet. Gateways are ordered by address,
+     * then by id, so the page is read straight from the ip_value index, and the cursor is the address of the last
+     * Gateway of the page. Since the next page starts after that address, every Gateway sharing it is included in the
+     * page, which may then exceed the limit.
+     *
+     * @param cidr  Subnet in CIDR notation, e.g. 10.8.0.0/16
+     * @param after Address, as returned in next, of the last Gateway of the previous page, -1 to start from the
+     *              beginning.
+     * @param limit Max amount of Gateways in the page, capped by the configured maximum page size.
+     * @return Page of Gateway records along with the cursor of the next page.
+     * @throws NotValidGatewayException thrown if the given subnet is not valid
+     */
+    public KeysetPage<Gateway> gatewaysInSubnet(String cidr, long after, int limit) throws NotValidGatewayException {
+        Ipv4Subnet subnet = Ipv4Subnet.parse(cidr);
+        if (subnet == null) {
+            NotValidGatewayException e = new NotValidGatewayException("Provided subnet is not valid: " + cidr);
+            logger.error(e.getMessage(), e);
+            throw e;
+        }
+        int size = pageSize(limit);
+        long from = Math.max(subnet.getFirst(), after + 1);
+        List<GatewayAddress> fetched = from > subnet.getLast() ? Collections.emptyList() :
+                gatewayRepository.findAddressPageInIpRange(from, subnet.getLast(), PageRequest.of(0, size + 1));
+        Long next = null;
+        List<Long> ids = new ArrayList<>(size);
+        if (fetched.size() > size) {
+            long last = fetched.get(size - 1).getIpValue();
+            fetched.stream().filter(address -> address.getIpValue() < last)
+                   .forEach(address -> ids.add(address.getId()));
+            ids.addAll(gatewayRepository.findIdsByIpValue(last));
+            next = last < subnet.getLast() ? last : null;
+        } else {
+            fetched.forEach(address -> ids.add(address.getId()));
+        }
+        List<Gateway> gateways =
+                ids.isEmpty() ? new ArrayList<>() : new ArrayList<>(gatewayRepository.findWithDevicesByIdIn(ids));
+        gateways.sort(Comparator.comparingLong(Gateway::getIpValue).thenComparingLong(Gateway::getId));
+        logger.info("Listed " + gateways.size() + " gateways in " + subnet + " after address: " + after);
+        return new KeysetPage<>(gateways, next);
+    }
+
+    /**
+     * Loads a page of Gateways, along with their devices, from a page of their ids. The page is resolved on ids first
+     * since limiting a collection join fetch would be done in memory.
+     */
+    private KeysetPage<Gateway> gatewaysOf(KeysetPage<Long> ids) {
+        List<Gateway> gateways =
+                ids.isEmpty() ? Collections.emptyList() : gatewayRepository.findWithDevicesByIdIn(ids.getItems());
+        return new KeysetPage<>(gateways, ids.getNext());
+    }
+
+    private int pageSize(int limit) {
+        return Math.min(Math.max(limit, 1), maxPageLimit);
+    }
+
+    /**
+     * Writes every Gateway along with its attached Devices to the given stream as newline delimited JSON, one Gateway
+     * per line. Gateways and Devices are read through two forward only cursors, both ordered by gateway id, and merged
+     * while writing, so only the Gateway being written is held in memory regardless of the size of the inventory. The
+     * output is flushed every configured amount of Gateways.
+     *
+     * @param out Stream to write the inventory to. It is flushed but not closed.
+     * @return Amount of Gateways written
+     * @throws IOException thrown if the inventory could not be written to the stream
+     */
+    @Transactional(readOnly = true)
+    public long exportInventory(OutputStream out) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(GatewayExport.class)
+                                          .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        long written = 0;
+        try (Stream<GatewayExport> gateways = gatewayRepository.streamInventory();
+             Stream<DeviceExport> devices = deviceRepository.streamAttachedInventory();
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            Iterator<DeviceExport> deviceIterator = devices.iterator();
+            DeviceExport pending = deviceIterator.hasNext() ? deviceIterator.next() : null;
+            Iterator<GatewayExport> gatewayIterator = gateways.iterator();
+            while (gatewayIterator.hasNext()) {
+                GatewayExport gateway = gatewayIterator.next();
+                //Both cursors are sorted by gateway id, so the devices of this gateway are the next ones pending
+                while (pending != null && pending.getGatewayId() <= gateway.getId()) {
+                    if (pending.getGatewayId() == gateway.getId()) {
+                        gateway.getDevices().add(pending);
+                    }
+                    pending = deviceIterator.hasNext() ? deviceIterator.next() : null;
+                }
+                writer.writeValue(generator, gateway);
+                generator.writeRaw('\n');
+                if (++written % exportFlushEvery == 0) {
+                    generator.flush();
+                }
+            }
+            generator.flush();
+        }
+        logger.info("Exported " + written + " gateways");
+        return written;
     }
 
     /**
@@ -103,8 +420,46 @@ public class GatewayService {
      * @return Updated Gateway record
      * @throws GatewayNotFoundException thrown if the specified Gateway record to update does not exist
      */
+    @Transactional
     public Gateway updateGateway(Gateway gateway, long id) throws GatewayNotFoundException, NotValidGatewayException {
-        Gateway gwRecord = gatewayById(id);
+        return update(recordToUpdate(id), gateway, id);
+    }
+
+    /**
+     * Updates a specified Gateway record only if it was not modified since the client read it. The entity tag is
+     * checked against the record loaded for the update, and a change committed after the check makes the update fail
+     * on its version.
+     *
+     * @param gateway Information to be updated
+     * @param id      id of the record to update
+     * @param ifMatch Entity tags the client expects the Gateway to have, as sent in the If-Match header. Null to
+     *                update it unconditionally
+     * @return Updated Gateway record
+     * @throws GatewayNotFoundException    thrown if the specified Gateway record to update does not exist
+     * @throws PreconditionFailedException thrown if the Gateway does not have any of the expected entity tags
+     */
+    @Transactional
+    public Gateway updateGateway(Gateway gateway, long id, String ifMatch)
+            throws GatewayNotFoundException, NotValidGatewayException, PreconditionFailedException {
+        Gateway gwRecord = recordToUpdate(id);
+        if (ifMatch != null && !ETags.matches(ifMatch, ETags.of(gwRecord))) {
+            logger.warn("The gateway of id: " + id + " was not updated, it was modified since it was read");
+            throw new PreconditionFailedException("The gateway of id: " + id + " was modified, its current entity tag "
+                                                  + "is " + ETags.of(gwRecord));
+        }
+        return update(gwRecord, gateway, id);
+    }
+
+    private Gateway recordToUpdate(long id) throws GatewayNotFoundException {
+        //Loaded from the database, the cached record is shared with the view requests
+        return gatewayRepository.findById(id).orElseThrow(() -> {
+            logger.warn("Requested nonexistent gateway of id: " + id);
+            return new GatewayNotFoundException("Gateway not found with ID: " + id);
+        });
+    }
+
+    private Gateway update(Gateway gwRecord, Gateway gateway, long id)
+            throws GatewayNotFoundException, NotValidGatewayException {
         if (gwRecord != null) {
             if (!gateway.isIPAddressValid()) {
                 NotValidGatewayException notValidGatewayException =
@@ -112,8 +467,8 @@ public class GatewayService {
                 logger.error(notValidGatewayException.getMessage(), notValidGatewayException);
                 throw notValidGatewayException;
             }
-            Gateway bySerialNumber = gatewayRepository.findBySerialNumber(gateway.getSerialNumber()).orElse(null);
-            if (bySerialNumber != null && bySerialNumber.getId() != id) {
+            Long bySerialNumber = gatewayRepository.findIdBySerialNumber(gateway.getSerialNumber()).orElse(null);
+            if (bySerialNumber != null && bySerialNumber != id) {
                 NotValidGatewayException e = new NotValidGatewayException(
                         "A gateway with serial number: " + gateway.getSerialNumber() + " already exist");
                 logger.error(e.getMessage(), e);
@@ -122,6 +477,9 @@ public class GatewayService {
             gwRecord.setName(gateway.getName());
             gwRecord.setIpAddress(gateway.getIpAddress());
             gwRecord.setSerialNumber(gateway.getSerialNumber());
+            uniqueKeyFilter.addSerialNumber(gateway.getSerialNumber());
+            entityCache.evictGateways(Collections.singleton(id));
+            changeFeed.gatewayChanged(ChangeType.GATEWAY_UPDATED, id);
             logger.info("The gateway of id: " + id + " was updated");
             return gatewayRepository.save(gwRecord);
         } else {
@@ -137,7 +495,9 @@ public class GatewayService {
      * Attaches an existing device to a specified gateway. In case either the specified Gateway or Device are not
      * found an
      * exception is thrown. The specified devices will only be attached if the amount of currently attached devices
-     * does not exceed the limit, otherwise an exception will be thrown.
+     * does not exceed the limit, otherwise an exception will be thrown. The check and the attachment happen while
+     * holding a lock on the Device and Gateway rows, so concurrent attaches to the same Gateway cannot exceed the limit
+     * and concurrent attaches of the same Device keep the counters of the Gateways it moves between.
      *
      * @param gatewayId Identifier of the Gateway to which the device will be attached
      * @param deviceId  Identifier of the Device to be attached
@@ -146,52 +506,76 @@ public class GatewayService {
      * @throws DeviceNotFoundException  thrown when the specified Device record is not found.
      * @throws DeviceLimitException     thrown when the specified Gateway has the maximum amount of devices attached.
      */
+    @Transactional
     public Gateway attachDevice(long gatewayId, long deviceId)
             throws GatewayNotFoundException, DeviceNotFoundException, DeviceLimitException {
-        Gateway gateway;
-        try {//Search for the specified gateway
-            gateway = gatewayById(gatewayId);
-        } catch (Throwable e) {
-            logger.error("Could not attach device due to gateway not found", e);
-            throw new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found");
-        }
-        Device device;
-        try {//Search for the specified device
-            device = deviceService.deviceById(deviceId);
-        } catch (Throwable e) {
-            logger.error("Could not attach device to gateway due to device not found", e);
-            throw new DeviceNotFoundException("Device of id: " + deviceId + " could not be found");
+        //The device is locked before the gateway, otherwise two concurrent moves of the same device would both
+        //release its slot in the gateway it was in
+        Device device = deviceRepository.findByIdForUpdate(deviceId).orElseThrow(() -> {
+            logger.error("Could not attach device to gateway due to device not found");
+            return new DeviceNotFoundException("Device of id: " + deviceId + " could not be found");
+        });
+        Gateway previous = device.getGateway();
+        //Gateway rows are locked in id order, so two moves in opposite directions between the same gateways cannot
+        //deadlock
+        if (previous != null && previous.getId() < gatewayId) {
+            lockGateway(previous.getId());
         }
+        Gateway gateway = lockGateway(gatewayId);
         //Add this point both gateway and device have been found
-        if (!gateway.getDevices().contains(
-                device)) {//if the gateway already has de device attached is not necessary to perform any operation
-            logger.info("Devices in gateway " + gateway.getDevices().size());
-            if (gateway.getDevices().size()
-                < maxDevices) {//Check if the amount of attached devices is less than the configured limit
+        //if the gateway already has de device attached is not necessary to perform any operation
+        if (previous == null || previous.getId() != gatewayId) {
+            //The gateway row is locked, so no concurrent attach can change the counter until this transaction ends
+            logger.info("Devices in gateway " + gateway.getDeviceCount());
+            //Check if the amount of attached devices is less than the configured limit
+            if (gateway.getDeviceCount() < maxDevices) {
                 device.setGateway(gateway);
                 try {
                     deviceService.updateDevice(device,
                                                deviceId);//Since the device is the owner of the gateway the device
-                    // record
-                    gateway.getDevices().add(device);
+                    // record is the one updated
+                    if (previous != null) {//The device is moved from another gateway
+                        gatewayRepository.addToDeviceCount(previous.getId(), -1);
+                        entityCache.evictGateways(Collections.singleton(previous.getId()));
+                        changeFeed.deviceChanged(ChangeType.DEVICE_DETACHED, previous.getId(), deviceId);
+                    }
+                    gatewayRepository.addToDeviceCount(gatewayId, 1);
+                    changeFeed.deviceChanged(ChangeType.DEVICE_ATTACHED, gatewayId, deviceId);
+                    gateway.setDeviceCount(gateway.getDeviceCount() + 1);
                 } catch (NotValidDeviceException e) {
                     logger.error(e.getMessage(), e);
                 }
-                // is the one updated
                 logger.info("Device attached to gateway, attempting to save the change");
             } else {
                 throw new DeviceLimitException(
                         "The amount of devices exceeds the predefined limit of " + maxDevices + " devices");
             }
         }
-
+        //Loading the collection does not flush the device update, without it the attached device would be missing
+        entityManager.flush();
+        Hibernate.initialize(gateway.getDevices());
         return gateway;
     }
 
+    /**
+     * Loads the specified Gateway locking its row until the current transaction ends.
+     *
+     * @param gatewayId Identifier of the Gateway to lock
+     * @return The locked Gateway, its devices are not loaded
+     * @throws GatewayNotFoundException thrown when the specified Gateway record is not found
+     */
+    private Gateway lockGateway(long gatewayId) throws GatewayNotFoundException {
+        return gatewayRepository.findByIdForUpdate(gatewayId).orElseThrow(() -> {
+            logger.error("Could not attach device due to gateway not found");
+            return new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found");
+        });
+    }
+
     /**
      * Detaches the specified Device from the specified Gateway. If either the specified Gateway or Device don't
      * exist an exception will be raised. Furthermore, if the specified Device is not attached to the specified
-     * Gateway an exception will also be thrown.
+     * Gateway an exception will also be thrown. The Device is detached with a single update matching both ids, the
+     * Gateway is only read afterwards to be returned.
      *
      * @param gatewayId Gateway from which the Device will be detached.
      * @param deviceId  Device to be detached from the Gateway.
@@ -200,76 +584,260 @@ public class GatewayService {
      * @throws DeviceNotFoundException  thrown if the specified Device record does not exist or the Device is not
      *                                  attached to the Gateway.
      */
+    @Transactional
     public Gateway detachDevice(long gatewayId, long deviceId)
             throws GatewayNotFoundException, DeviceNotFoundException {
-        if (!gatewayRepository.existsById(gatewayId)) {
-            logger.error("Could not detach device due to gateway not found");
-            throw new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found");
-        }
-        Device device;
-        try {//Search for the specified device
-            device = deviceService.deviceById(deviceId);
-        } catch (Throwable e) {
-            logger.error("Could not detach device to gateway due to device not found", e);
-            throw new DeviceNotFoundException("Device of id: " + deviceId + " could not be found");
-        }
-
-        if (device.getGateway() == null || device.getGateway().getId() != gatewayId) {
+        //The update only matches the device if it is attached to the gateway
+        if (deviceRepository.detach(gatewayId, deviceId) == 0) {
+            //Tell apart a nonexistent gateway or device from a device that is not attached to the gateway
+            if (!gatewayRepository.existsById(gatewayId)) {
+                logger.error("Could not detach device due to gateway not found");
+                throw new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found");
+            }
+            if (!deviceRepository.existsById(deviceId)) {
+                logger.error("Could not detach device to gateway due to device not found");
+                throw new DeviceNotFoundException("Device of id: " + deviceId + " could not be found");
+            }
             logger.error("The specified device is not attached to the gateway");
             throw new DeviceNotFoundException(
                     "The specified device of id: " + deviceId + " is not attached to the specified gateway");
         }
         logger.info("Device detached from gateway");
-        device.setGateway(null);
-        try {
-            deviceService.updateDevice(device, deviceId);
-        } catch (NotValidDeviceException e) {
-            logger.error(e.getMessage(), e);
+        gatewayRepository.addToDeviceCount(gatewayId, -1);
+        entityCache.evictDevices(Collections.singleton(deviceId));
+        entityCache.evictGateways(Collections.singleton(gatewayId));
+        fleetStats.devicesMoved(Collections.singleton(deviceId), null);
+        changeFeed.deviceChanged(ChangeType.DEVICE_DETACHED, gatewayId, deviceId);
+        //Read after the updates, so the remaining devices and the counter are the committed ones
+        return gatewayRepository.findById(gatewayId).orElseThrow(
+                () -> new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found"));
+    }
+
+    /**
+     * Attaches many existing devices to a specified Gateway in a single transaction. The state of all the devices is
+     * read with one query and the accepted ones are attached with one update, so the amount of statements does not
+     * depend on the amount of devices. Devices already attached elsewhere are moved to this Gateway, as in
+     * {@link #attachDevice(long, long)}. The limit of devices is checked once for the whole list, under the same
+     * Gateway lock as single attaches: devices are attached in the given order until the Gateway is full and the
+     * remaining ones are reported as exceeding the limit. As in single attaches, the device rows are locked before
+     * the rows of the Gateway and of the Gateways the devices are moved from, both in id order.
+     *
+     * @param gatewayId Identifier of the Gateway to which the devices will be attached
+     * @param deviceIds Identifiers of the Devices to be attached
+     * @return The result of each device, in the same order they were given.
+     * @throws GatewayNotFoundException thrown when the specified Gateway record is not found
+     * @throws NotValidDeviceException  thrown if more devices than the configured bulk limit are given at once.
+     */
+    @Transactional
+    public List<BulkItemResult> attachDevices(long gatewayId, List<Long> deviceIds)
+            throws GatewayNotFoundException, NotValidDeviceException {
+        checkBulkSize(deviceIds);
+        //The devices stay where they were read until this transaction ends
+        Map<Long, DeviceAttachment> attachments = attachmentsOf(deviceIds);
+        Set<Long> previousGateways = new TreeSet<>();
+        attachments.values().stream().map(DeviceAttachment::getGatewayId).filter(Objects::nonNull)
+                   .filter(previous -> previous != gatewayId).forEach(previousGateways::add);
+        if (!previousGateways.isEmpty()) {
+            previousGateways.add(gatewayId);
+            gatewayRepository.findIdsForUpdate(previousGateways);
+        }
+        Gateway gateway = lockGateway(gatewayId);
+        long available = maxDevices - gateway.getDeviceCount();
+        List<BulkItemResult> results = new ArrayList<>(deviceIds.size());
+        Set<Long> accepted = new HashSet<>();
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < deviceIds.size(); i++) {
+            long deviceId = deviceIds.get(i);
+            DeviceAttachment attachment = attachments.get(deviceId);
+            if (attachment == null) {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.NOT_FOUND,
+                                               "Device of id: " + deviceId + " could not be found"));
+            } else if (!seen.add(deviceId) || Long.valueOf(gatewayId).equals(attachment.getGatewayId())) {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.UNCHANGED, null));
+            } else if (accepted.size() < available) {
+                accepted.add(deviceId);
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.ATTACHED, null));
+            } else {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.DEVICE_LIMIT,
+                                               "The amount of devices exceeds the predefined limit of " + maxDevices
+                                               + " devices"));
+            }
+        }
+        if (!accepted.isEmpty()) {
+            //The locked rows are the ones updated, so the counters follow them
+            int attached = deviceRepository.attachAll(gateway, accepted);
+            gatewayRepository.addToDeviceCount(gatewayId, attached);
+            //Devices moved from other gateways leave a free slot behind
+            Map<Long, List<Long>> movedFrom = new TreeMap<>();
+            accepted.stream().map(attachments::get).filter(attachment -> attachment.getGatewayId() != null).forEach(
+                    attachment -> movedFrom.computeIfAbsent(attachment.getGatewayId(), key -> new ArrayList<>())
+                                           .add(attachment.getId()));
+            movedFrom.forEach((previous, ids) -> gatewayRepository.addToDeviceCount(previous, -ids.size()));
+            entityCache.evictDevices(accepted);
+            entityCache.evictGateways(movedFrom.keySet());
+            entityCache.evictGateways(Collections.singleton(gatewayId));
+            fleetStats.devicesMoved(accepted, gatewayId);
+            movedFrom.forEach((previous, ids) -> changeFeed.devicesChanged(ChangeType.DEVICE_DETACHED, previous, ids));
+            changeFeed.devicesChanged(ChangeType.DEVICE_ATTACHED, gatewayId, accepted);
+        }
+        logger.info(accepted.size() + " of " + deviceIds.size() + " devices attached to gateway " + gatewayId);
+        return results;
+    }
+
+    /**
+     * Detaches many Devices from a specified Gateway in a single transaction, with one query to read the state of the
+     * devices and one update to detach them. Devices that do not exist or are not attached to the Gateway are
+     * reported without preventing the detachment of the rest.
+     *
+     * @param gatewayId Gateway from which the Devices will be detached.
+     * @param deviceIds Identifiers of the Devices to be detached
+     * @return The result of each device, in the same order they were given.
+     * @throws GatewayNotFoundException thrown if the specified Gateway record does not exist.
+     * @throws NotValidDeviceException  thrown if more devices than the configured bulk limit are given at once.
+     */
+    @Transactional
+    public List<BulkItemResult> detachDevices(long gatewayId, List<Long> deviceIds)
+            throws GatewayNotFoundException, NotValidDeviceException {
+        checkBulkSize(deviceIds);
+        Gateway gateway = gatewayRepository.findWithoutDevicesById(gatewayId).orElseThrow(() -> {
+            logger.error("Could not detach devices due to gateway not found");
+            return new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found");
+        });
+        Map<Long, DeviceAttachment> attachments = attachmentsOf(deviceIds);
+        List<BulkItemResult> results = new ArrayList<>(deviceIds.size());
+        Set<Long> accepted = new HashSet<>();
+        for (int i = 0; i < deviceIds.size(); i++) {
+            long deviceId = deviceIds.get(i);
+            DeviceAttachment attachment = attachments.get(deviceId);
+            if (attachment == null) {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.NOT_FOUND,
+                                               "Device of id: " + deviceId + " could not be found"));
+            } else if (!Long.valueOf(gatewayId).equals(attachment.getGatewayId())) {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.NOT_ATTACHED,
+                                               "The specified device of id: " + deviceId
+                                               + " is not attached to the specified gateway"));
+            } else if (accepted.add(deviceId)) {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.DETACHED, null));
+            } else {
+                results.add(new BulkItemResult(i, deviceId, BulkItemStatus.UNCHANGED, null));
+            }
+        }
+        if (!accepted.isEmpty()) {
+            int detached = deviceRepository.detachAll(gateway, accepted);
+            gatewayRepository.addToDeviceCount(gatewayId, -detached);
+            entityCache.evictDevices(accepted);
+            entityCache.evictGateways(Collections.singleton(gatewayId));
+            fleetStats.devicesMoved(accepted, null);
+            changeFeed.devicesChanged(ChangeType.DEVICE_DETACHED, gatewayId, accepted);
+        }
+        logger.info(accepted.size() + " of " + deviceIds.size() + " devices detached from gateway " + gatewayId);
+        return results;
+    }
+
+    private void checkBulkSize(List<Long> deviceIds) throws NotValidDeviceException {
+        if (deviceIds.size() > maxBulkSize) {
+            throw new NotValidDeviceException("At most " + maxBulkSize + " devices can be processed at once, "
+                                              + deviceIds.size() + " were given");
         }
-        return gatewayById(gatewayId);
     }
 
     /**
-     * Retrieves the devices attached to a specified Gateway. If the specified Gateway does not exist an exception is
-     * raised.
+     * Reads the gateway of every device locking the device rows, in id order, until the current transaction ends.
+     */
+    private Map<Long, DeviceAttachment> attachmentsOf(List<Long> deviceIds) {
+        Map<Long, DeviceAttachment> attachments = new HashMap<>();
+        if (!deviceIds.isEmpty()) {
+            deviceRepository.findAttachmentsForUpdate(new HashSet<>(deviceIds))
+                            .forEach(attachment -> attachments.put(attachment.getId(), attachment));
+        }
+        return attachments;
+    }
+
+    /**
+     * Retrieves one page of the devices attached to a specified Gateway. If the specified Gateway does not exist an
+     * exception is raised.
      *
      * @param gatewayId Gateway identifier
-     * @return List of Devices attached to the Gateway.
+     * @param after     Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit     Max amount of Devices in the page.
+     * @return Page of Devices attached to the Gateway.
      * @throws GatewayNotFoundException thrown if the specified Gateway does not exist.
      */
-    public List<Device> gatewayDevices(long gatewayId) throws GatewayNotFoundException {
-        Gateway gateway;
-        try {//Search for the specified gateway
-            gateway = gatewayById(gatewayId);
-        } catch (Throwable e) {
-            logger.error("Gateway of id:" + gatewayId + " not found", e);
+    public KeysetPage<Device> gatewayDevices(long gatewayId, long after, int limit) throws GatewayNotFoundException {
+        if (!gatewayRepository.existsById(gatewayId)) {
+            logger.error("Gateway of id:" + gatewayId + " not found");
             throw new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found");
         }
-        return gateway.getDevices();
+        return deviceService.listByGateway(gatewayId, after, limit);
+    }
+
+    /**
+     * Computes the entity tag of one page of the devices attached to a specified Gateway without loading them: only
+     * their ids and versions are read.
+     *
+     * @param gatewayId Gateway identifier
+     * @param after     Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit     Max amount of Devices in the page.
+     * @return The current entity tag of the page, null if the Gateway does not exist
+     */
+    public String gatewayDevicesETag(long gatewayId, long after, int limit) {
+        if (!gatewayRepository.existsById(gatewayId)) {
+            return null;
+        }
+        return deviceService.listByGatewayETag(gatewayId, after, limit);
     }
 
 
     /**
-     * Attempts to delete a Gateway record.
+     * Attempts to delete a Gateway record. Its devices are detached with one update and the Gateway is deleted with
+     * another, neither of them is loaded. The rows of its devices and then its own row are locked first, in the order
+     * attaches lock them, so no device can be attached to it or moved away from it meanwhile.
      *
      * @param id Gateway to be deleted
      * @return True if the Gateway exists and therefore is deleted, False otherwise.
      */
+    @Transactional
     public boolean deleteGateway(long id) {
-        Gateway gwRecord = gatewayRepository.findById(id).orElse(null);
-        if (gwRecord != null) {
-            for (Device d : gwRecord.getDevices()) {
-                d.setGateway(null);
-                try {
-                    deviceService.updateDevice(d, d.getId());
-                } catch (DeviceNotFoundException | NotValidDeviceException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }
-            gatewayRepository.deleteById(id);
-            return true;
+        deviceRepository.findIdsByGatewayIdForUpdate(id);
+        if (gatewayRepository.findIdsForUpdate(Collections.singleton(id)).isEmpty()) {
+            return false;
+        }
+        //Devices attached before the gateway got locked are read again, none can be attached from now on
+        List<Long> detached = deviceRepository.findIdsByGatewayId(id);
+        if (!detached.isEmpty()) {
+            deviceRepository.detachAllFrom(id);
         }
-        return false;
+        gatewayRepository.deleteOne(id);
+        entityCache.evictDevices(detached);
+        entityCache.evictGateways(Collections.singleton(id));
+        fleetStats.devicesMoved(detached, null);
+        fleetStats.gatewayDeleted(id);
+        changeFeed.devicesChanged(ChangeType.DEVICE_DETACHED, id, detached);
+        changeFeed.gatewayChanged(ChangeType.GATEWAY_DELETED, id);
+        return true;
+    }
+
+    /**
+     * Lists the Gateways whose device counter does not match the amount of devices actually attached to them. The
+     * counters are kept by the services, so a mismatch means the device table was modified bypassing them.
+     *
+     * @return Gateways with an inconsistent device counter
+     */
+    public List<DeviceCountMismatch> verifyDeviceCounts() {
+        return gatewayRepository.findDeviceCountMismatches();
+    }
+
+    /**
+     * Recomputes the device counter of every Gateway from the device table.
+     *
+     * @return Amount of Gateways whose counter was wrong and got fixed
+     */
+    @Transactional
+    public int rebuildDeviceCounts() {
+        int rebuilt = gatewayRepository.rebuildDeviceCounts();
+        entityCache.evictAllGateways();
+        logger.info("Device counters rebuilt for " + rebuilt + " gateways");
+        return rebuilt;
     }
 
     public void setDeviceService(DeviceService deviceService) {
@@ -0,0 +1,156 @@
+package com.musala.gateway.management.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * In memory Bloom filters over the existing gateway serial numbers and device uids, used to skip the uniqueness lookup
+ * on create when a key certainly does not exist. The unique constraints of the database remain the final check, so a
+ * key missing from the filters (e.g. a row inserted bypassing the services) only costs a failed insert.
+ * <p>
+ * The filters are built once the application is ready and every created or updated key is added to them. Keys cannot
+ * be removed from a Bloom filter, so deleted ones keep being reported as possibly existing until the next rebuild,
+ * which only costs the lookup that would have been done anyway. While a filter is being built every key is reported
+ * as possibly existing.
+ */
+@Component
+public class UniqueKeyFilter {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Value("${musala.unique.filter.enabled}")
+    private boolean enabled;
+    @Value("${musala.unique.filter.capacity}")
+    private long capacity;
+    @Value("${musala.unique.filter.fpp}")
+    private double fpp;
+    private volatile KeyFilter<String> serialNumbers;
+    private volatile KeyFilter<Long> uids;
+
+    /**
+     * Default constructor. Until {@link #rebuild()} is called every key is reported as possibly existing.
+     */
+    public UniqueKeyFilter() {
+        enabled = true;
+        capacity = 1000000;
+        fpp = 0.01;
+    }
+
+    /**
+     * @param serialNumber Gateway serial number
+     * @return False if no gateway has the given serial number, true if one may have it.
+     */
+    public boolean mightExistSerialNumber(String serialNumber) {
+        return !enabled || serialNumbers == null || serialNumbers.mightContain(serialNumber);
+    }
+
+    /**
+     * @param uid Device uid
+     * @return False if no device has the given uid, true if one may have it.
+     */
+    public boolean mightExistUid(long uid) {
+        return !enabled || uids == null || uids.mightContain(uid);
+    }
+
+    public void addSerialNumber(String serialNumber) {
+        if (serialNumbers != null && serialNumber != null) {
+            serialNumbers.put(serialNumber);
+        }
+    }
+
+    public void addUid(long uid) {
+        if (uids != null) {
+            uids.put(uid);
+        }
+    }
+
+    /**
+     * Builds both filters from the keys currently stored in the database, replacing the previous ones. The new filters
+     * are published before the keys are read, so keys added meanwhile are not lost.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        KeyFilter<String> serialNumbers =
+                new KeyFilter<>(Funnels.stringFunnel(StandardCharsets.UTF_8), gatewayRepository.count());
+        this.serialNumbers = serialNumbers;
+        try (Stream<String> keys = gatewayRepository.streamSerialNumbers()) {
+            serialNumbers.build(keys);
+        }
+        KeyFilter<Long> uids = new KeyFilter<>(Funnels.longFunnel(), deviceRepository.count());
+        this.uids = uids;
+        try (Stream<Long> keys = deviceRepository.streamUIDs()) {
+            uids.build(keys);
+        }
+        logger.info("Unique key filters built with " + serialNumbers.bloom.approximateElementCount()
+                    + " serial numbers and " + uids.bloom.approximateElementCount() + " uids");
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Statistics of both filters: approximate amount of keys, amount of keys the filter is sized for and the current
+     * expected false positive probability.
+     *
+     * @return Statistics by filter name
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("serialNumbers", serialNumbers == null ? null : serialNumbers.stats());
+        stats.put("uids", uids == null ? null : uids.stats());
+        return stats;
+    }
+
+    private class KeyFilter<T> {
+        private final BloomFilter<T> bloom;
+        private final long expectedKeys;
+        private volatile boolean ready;
+
+        KeyFilter(Funnel<? super T> funnel, long existingKeys) {
+            expectedKeys = Math.max(capacity, existingKeys * 2);
+            bloom = BloomFilter.create(funnel, expectedKeys, fpp);
+        }
+
+        void build(Stream<T> keys) {
+            keys.forEach(bloom::put);
+            ready = true;
+        }
+
+        boolean mightContain(T key) {
+            return !ready || bloom.mightContain(key);
+        }
+
+        void put(T key) {
+            bloom.put(key);
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("ready", ready);
+            stats.put("keys", bloom.approximateElementCount());
+            stats.put("capacity", expectedKeys);
+            stats.put("expectedFpp", bloom.expectedFpp());
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.musala.gateway.management.util;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+
+/**
+ * Formats the gateway and device endpoints can answer in: JSON, and the binary CBOR and Smile encodings of the same
+ * Jackson model, which drop the repeated field names and text numbers of JSON. Clients pick one with the Accept
+ * header, JSON being the default.
+ */
+public final class BinaryFormats {
+    public static final MediaType CBOR = MediaType.APPLICATION_CBOR;
+    public static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+
+    private BinaryFormats() {
+    }
+
+    /**
+     * @param format JSON, CBOR or Smile
+     * @return Short name of the format, e.g. to tell apart the entity tags of its representations
+     */
+    public static String name(MediaType format) {
+        return SMILE.equalsTypeAndSubtype(format) ? "smile" : format.getSubtype();
+    }
+
+    /**
+     * Picks the format of a response the way the message converters would: the most specific and preferred type of
+     * the Accept header that is JSON, CBOR or Smile, JSON for wildcards.
+     *
+     * @param accept Accept header of the request, null if missing
+     * @return The format to answer in, null if the client accepts none of them
+     */
+    public static MediaType negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType type : accepted) {
+            if (type.getQualityValue() == 0) {
+                continue;
+            }
+            for (MediaType format : new MediaType[] {MediaType.APPLICATION_JSON, CBOR, SMILE}) {
+                if (type.includes(format)) {
+                    return format;
+                }
+            }
+        }
+        return null;
+    }
+}
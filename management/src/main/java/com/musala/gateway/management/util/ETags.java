@@ -0,0 +1,197 @@
+package com.musala.gateway.management.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.musala.gateway.management.dto.GatewayFields;
+import com.musala.gateway.management.dto.GatewaySummary;
+import com.musala.gateway.management.dto.KeysetPage;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceVersion;
+import org.springframework.http.MediaType;
+
+/**
+ * Strong entity tags of gateways, devices and pages of them, derived from the version columns so they can be computed
+ * without serializing the response.
+ * <p>
+ * The tag of a device is its version. A gateway is served along with its devices, so its tag is made of its version
+ * and the sum of the versions of its devices: versions only grow and attaching or detaching a device increases the
+ * version of the gateway, so the pair never repeats. The tag of a page is a hash of the ids and tags of its items and
+ * the cursor of the next page.
+ * <p>
+ * The tags of gateways and devices are strong, so the binary representations of a record get a tag of their own, see
+ * {@link #variant}. Pages get weak tags instead: they stand for the same items in any format, and responses with a
+ * strong tag are never compressed.
+ */
+public final class ETags {
+    private ETags() {
+    }
+
+    /**
+     * @param device A Device
+     * @return The entity tag of the Device, quoted
+     */
+    public static String of(Device device) {
+        return device(device.getVersion());
+    }
+
+    /**
+     * @param version Version of a Device
+     * @return The entity tag of the Device, quoted
+     */
+    public static String device(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @param gateway A Gateway, along with its devices
+     * @return The entity tag of the Gateway, quoted
+     */
+    public static String of(Gateway gateway) {
+        return gateway(gateway.getVersion(), devicesVersion(gateway));
+    }
+
+    /**
+     * @param version        Version of a Gateway
+     * @param devicesVersion Sum of the versions of its devices
+     * @return The entity tag of the Gateway, quoted
+     */
+    public static String gateway(long version, long devicesVersion) {
+        return "\"" + version + "." + devicesVersion + "\"";
+    }
+
+    /**
+     * @param page A page of Gateways, along with their devices
+     * @return The weak entity tag of the page, quoted
+     */
+    public static String ofGateways(KeysetPage<Gateway> page) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (Gateway gateway : page.getItems()) {
+            hasher.putLong(gateway.getId()).putLong(gateway.getVersion()).putLong(devicesVersion(gateway));
+        }
+        return tag(hasher, page.getNext());
+    }
+
+    /**
+     * @param page A page of Gateway summaries
+     * @return The weak entity tag of the page, quoted
+     */
+    public static String ofSummaries(KeysetPage<GatewaySummary> page) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (GatewaySummary gateway : page.getItems()) {
+            hasher.putLong(gateway.getId()).putLong(gateway.getVersion());
+        }
+        return tag(hasher, page.getNext());
+    }
+
+    /**
+     * @param page A page of Gateways reduced to some of their fields
+     * @return The weak entity tag of the page, quoted
+     */
+    public static String ofFields(KeysetPage<GatewayFields> page) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (GatewayFields gateway : page.getItems()) {
+            hasher.putLong(gateway.getId()).putLong(gateway.getVersion()).putLong(gateway.getDevicesVersion());
+        }
+        return tag(hasher, page.getNext());
+    }
+
+    /**
+     * @param page A page of Devices
+     * @return The weak entity tag of the page, quoted
+     */
+    public static String ofDevices(KeysetPage<Device> page) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (Device device : page.getItems()) {
+            hasher.putLong(device.getId()).putLong(device.getVersion());
+        }
+        return tag(hasher, page.getNext());
+    }
+
+    /**
+     * @param page A page of Devices reduced to their versions
+     * @return The weak entity tag of the page, the same {@link #ofDevices} gives for the page of the Devices, quoted
+     */
+    public static String ofDeviceVersions(KeysetPage<DeviceVersion> page) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (DeviceVersion device : page.getItems()) {
+            hasher.putLong(device.getId()).putLong(device.getVersion());
+        }
+        return tag(hasher, page.getNext());
+    }
+
+    /**
+     * @param etag   Entity tag of a record, quoted
+     * @param format Format the record is sent in
+     * @return The entity tag of the representation of the record in the given format: the tag itself for JSON, the
+     * tag with the format appended for the binary formats
+     */
+    public static String variant(String etag, MediaType format) {
+        if (format == null || MediaType.APPLICATION_JSON.isCompatibleWith(format)) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "+" + BinaryFormats.name(format) + "\"";
+    }
+
+    /**
+     * Compares the entity tag of a representation with the ones listed in an If-None-Match header, using the weak
+     * comparison: weak tags (W/ prefixed) match their strong counterparts.
+     *
+     * @param header The header value: *, or a comma separated list of tags
+     * @param etag   Current entity tag of the representation, quoted, weak or strong
+     * @return True if the header lists the tag or is *
+     */
+    public static boolean noneMatch(String header, String etag) {
+        String opaque = opaque(etag);
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaque(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the entity tag of a record with the ones listed in an If-Match header, using the strong comparison:
+     * weak tags never match. Tags of any representation of the record match, since updates do not depend on the
+     * format the client read it in.
+     *
+     * @param header The header value: *, or a comma separated list of tags
+     * @param etag   Current entity tag of the record, quoted
+     * @return True if the header lists the tag or is *
+     */
+    public static boolean matches(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            int variant = tag.lastIndexOf('+');
+            if (variant > 0 && tag.endsWith("\"")) {
+                tag = tag.substring(0, variant) + "\"";
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long devicesVersion(Gateway gateway) {
+        long sum = 0;
+        for (Device device : gateway.getDevices()) {
+            sum += device.getVersion();
+        }
+        return sum;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static String tag(Hasher hasher, Long next) {
+        hasher.putLong(next == null ? -1 : next);
+        return "W/\"" + hasher.hash() + "\"";
+    }
+}
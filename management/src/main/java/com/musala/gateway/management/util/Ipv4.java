@@ -0,0 +1,73 @@
+package com.musala.gateway.management.util;
+
+/**
+ * IPv4 addresses in dotted decimal notation. An address is valid when it has exactly four segments delimited by a dot
+ * (.), each made of one to three digits with a value up to 255 (leading zeros are accepted, e.g. 010.8.6.1).
+ * <p>
+ * Parsing walks the characters once without allocating, so it can run on every request and validation.
+ */
+public final class Ipv4 {
+    /**
+     * Value returned by {@link #parse(CharSequence)} for invalid addresses.
+     */
+    public static final long INVALID = -1;
+
+    private Ipv4() {
+    }
+
+    /**
+     * Parses a dotted decimal IPv4 address.
+     *
+     * @param address Address to parse, may be null
+     * @return The address as an unsigned 32 bit value, or {@link #INVALID} if the address is not valid.
+     */
+    public static long parse(CharSequence address) {
+        if (address == null) {
+            return INVALID;
+        }
+        int length = address.length();
+        long value = 0;
+        int segments = 0;
+        int segment = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                segment = segment * 10 + (c - '0');
+                if (++digits > 3 || segment > 255) {
+                    return INVALID;
+                }
+            } else if (c == '.' && digits > 0 && segments < 3) {
+                value = value << 8 | segment;
+                segments++;
+                segment = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0 || segments != 3) {
+            return INVALID;
+        }
+        return value << 8 | segment;
+    }
+
+    /**
+     * @param address Address to check, may be null
+     * @return True if the address is a valid dotted decimal IPv4 address.
+     */
+    public static boolean isValid(CharSequence address) {
+        return parse(address) != INVALID;
+    }
+
+    /**
+     * Formats an unsigned 32 bit value as a dotted decimal IPv4 address, without leading zeros.
+     *
+     * @param value Address value, as returned by {@link #parse(CharSequence)}
+     * @return The dotted decimal address
+     */
+    public static String format(long value) {
+        return ((value >> 24) & 0xFF) + "." + ((value >> 16) & 0xFF) + "." + ((value >> 8) & 0xFF) + "."
+               + (value & 0xFF);
+    }
+}
@@ -0,0 +1,71 @@
+package com.musala.gateway.management.util;
+
+/**
+ * Range of IPv4 addresses given in CIDR notation, e.g. 10.8.0.0/16. Host bits set in the address are ignored, so
+ * 10.8.6.51/16 is the same subnet as 10.8.0.0/16. An address without prefix length is a subnet of that single
+ * address.
+ */
+public final class Ipv4Subnet {
+    private final long first;
+    private final long last;
+
+    private Ipv4Subnet(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses a subnet in CIDR notation.
+     *
+     * @param cidr Subnet to parse, may be null
+     * @return The subnet, or null if it is not valid.
+     */
+    public static Ipv4Subnet parse(String cidr) {
+        if (cidr == null) {
+            return null;
+        }
+        int slash = cidr.indexOf('/');
+        long address = Ipv4.parse(slash < 0 ? cidr : cidr.substring(0, slash));
+        int prefix = slash < 0 ? 32 : prefixLength(cidr, slash + 1);
+        if (address == Ipv4.INVALID || prefix < 0) {
+            return null;
+        }
+        long hostMask = (1L << (32 - prefix)) - 1;
+        return new Ipv4Subnet(address & ~hostMask, address | hostMask);
+    }
+
+    private static int prefixLength(String cidr, int from) {
+        int length = cidr.length() - from;
+        if (length < 1 || length > 2) {
+            return -1;
+        }
+        int prefix = 0;
+        for (int i = from; i < cidr.length(); i++) {
+            char c = cidr.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            prefix = prefix * 10 + (c - '0');
+        }
+        return prefix <= 32 ? prefix : -1;
+    }
+
+    /**
+     * @return First address of the subnet, as an unsigned 32 bit value.
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return Last address of the subnet, as an unsigned 32 bit value.
+     */
+    public long getLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return Ipv4.format(first) + "-" + Ipv4.format(last);
+    }
+}
@@ -0,0 +1,152 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.musala.gateway.management.dto.KeysetPage;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.GatewayService;
+import com.musala.gateway.management.util.BinaryFormats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the gateway and device endpoints answer in CBOR and Smile as well as JSON, decoding to the same values, and
+ * that large responses are compressed by the server. The application runs on a real port for the compression done by
+ * Tomcat.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+class BinaryFormatTest {
+    private final ObjectMapper cborMapper = Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+    private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.json().factory(new SmileFactory()).build();
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void pagesAndRecordsDecodeToTheSameValuesInEveryFormat() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        for (int i = 0; i < 3; i++) {
+            gatewayService.attachDevice(gateway.getId(), deviceService.createDevice(getTestDevice()).getId());
+        }
+        String after = String.valueOf(gateway.getId() - 1);
+        JavaType gatewayPage = objectMapper.getTypeFactory().constructParametricType(KeysetPage.class, Gateway.class);
+        MvcResult json = mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1"))
+                                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT)).andReturn();
+        MvcResult cbor = mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1")
+                                                             .accept(BinaryFormats.CBOR))
+                                .andExpect(content().contentTypeCompatibleWith(BinaryFormats.CBOR)).andReturn();
+        KeysetPage<Gateway> fromJson = objectMapper.readValue(json.getResponse().getContentAsByteArray(), gatewayPage);
+        KeysetPage<Gateway> fromCbor = cborMapper.readValue(cbor.getResponse().getContentAsByteArray(), gatewayPage);
+        assertThat(cbor.getResponse().getContentAsByteArray().length)
+                .isLessThan(json.getResponse().getContentAsByteArray().length);
+        assertThat(objectMapper.writeValueAsString(fromCbor)).isEqualTo(objectMapper.writeValueAsString(fromJson));
+        assertThat(fromCbor.getItems().get(0).getDevices()).hasSize(3);
+
+        Device device = fromJson.getItems().get(0).getDevices().get(0);
+        byte[] smile = mockMvc.perform(get("/device/view/" + device.getId()).accept(BinaryFormats.SMILE))
+                              .andExpect(status().isOk())
+                              .andExpect(content().contentTypeCompatibleWith(BinaryFormats.SMILE))
+                              .andReturn().getResponse().getContentAsByteArray();
+        assertThat(objectMapper.writeValueAsString(smileMapper.readValue(smile, Device.class)))
+                .isEqualTo(objectMapper.writeValueAsString(device));
+    }
+
+    @Test
+    void everyFormatHasItsOwnEntityTag() throws Exception {
+        Device device = deviceService.createDevice(getTestDevice());
+        String jsonTag = mockMvc.perform(get("/device/view/" + device.getId())).andReturn().getResponse()
+                                .getHeader(HttpHeaders.ETAG);
+        String cborTag = mockMvc.perform(get("/device/view/" + device.getId()).accept(BinaryFormats.CBOR))
+                                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(cborTag).isNotEqualTo(jsonTag).endsWith("+cbor\"");
+        mockMvc.perform(get("/device/view/" + device.getId()).accept(BinaryFormats.CBOR)
+                                                              .header(HttpHeaders.IF_NONE_MATCH, jsonTag))
+               .andExpect(status().isOk());
+        mockMvc.perform(get("/device/view/" + device.getId()).accept(BinaryFormats.CBOR)
+                                                              .header(HttpHeaders.IF_NONE_MATCH, cborTag))
+               .andExpect(status().isNotModified()).andExpect(header().string(HttpHeaders.ETAG, cborTag));
+
+        //The record read in any format can be updated with the tag it came with, sending the body in CBOR too
+        device.setVendor("Nokia");
+        mockMvc.perform(put("/device/update/" + device.getId()).contentType(BinaryFormats.CBOR)
+                                                               .content(cborMapper.writeValueAsBytes(device))
+                                                               .header(HttpHeaders.IF_MATCH, cborTag))
+               .andExpect(status().isOk()).andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+        mockMvc.perform(post("/device/create").contentType(BinaryFormats.SMILE).accept(BinaryFormats.SMILE)
+                                              .content(smileMapper.writeValueAsBytes(getTestDevice())))
+               .andExpect(status().isCreated()).andExpect(content().contentTypeCompatibleWith(BinaryFormats.SMILE));
+    }
+
+    @Test
+    void largeResponsesAreCompressed() throws Exception {
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            devices.add(getTestDevice());
+        }
+        deviceService.createDevices(devices);
+        HttpClient client = HttpClient.newHttpClient();
+        for (MediaType format : new MediaType[] {MediaType.APPLICATION_JSON, BinaryFormats.CBOR, BinaryFormats.SMILE}) {
+            HttpResponse<byte[]> response = client.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/device/list?limit=100"))
+                               .header(HttpHeaders.ACCEPT, format.toString())
+                               .header(HttpHeaders.ACCEPT_ENCODING, "gzip").build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertThat(response.headers().firstValue(HttpHeaders.CONTENT_ENCODING)).hasValue("gzip");
+            assertThat(response.headers().firstValue(HttpHeaders.ETAG).orElseThrow()).startsWith("W/");
+            byte[] body = new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes();
+            assertThat(response.body().length).isLessThan(body.length);
+            ObjectMapper mapper = format == BinaryFormats.CBOR ? cborMapper :
+                                  format == BinaryFormats.SMILE ? smileMapper : objectMapper;
+            assertThat(mapper.readTree(body).get("items").size()).isEqualTo(100);
+        }
+        URI view = URI.create("http://localhost:" + port + "/device/view/" + devices.get(0).getId());
+        HttpResponse<String> small = client.send(
+                HttpRequest.newBuilder(view).header(HttpHeaders.ACCEPT_ENCODING, "gzip").build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(small.headers().firstValue(HttpHeaders.CONTENT_ENCODING)).isEmpty();
+    }
+}
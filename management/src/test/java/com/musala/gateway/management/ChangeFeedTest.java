@@ -0,0 +1,96 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.service.ChangeFeed;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * Checks the change feed streams the committed changes in order and lets clients resume within its window. The
+ * application runs with a small feed, so resuming from outside the window is cheap to reach.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.changes.capacity=8"})
+@ExtendWith(SpringExtension.class)
+class ChangeFeedTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ChangeFeed changeFeed;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+
+    @Test
+    void committedChangesAreStreamedInOrder() throws Exception {
+        MvcResult subscription = mockMvc.perform(get("/changes")).andExpect(request().asyncStarted()).andReturn();
+        Gateway gateway = gatewayService.create(validIpGateway());
+        Device device = deviceService.createDevice(getTestDevice());
+        gatewayService.attachDevice(gateway.getId(), device.getId());
+        gatewayService.detachDevice(gateway.getId(), device.getId());
+
+        String stream = awaitEvents(subscription, 4);
+        assertThat(stream).containsSubsequence("event:GATEWAY_CREATED", "event:DEVICE_CREATED",
+                                               "event:DEVICE_ATTACHED", "event:DEVICE_DETACHED");
+        assertThat(stream).contains("\"gatewayId\":" + gateway.getId() + ",\"deviceId\":" + device.getId());
+    }
+
+    @Test
+    void clientsResumeAfterTheLastEventTheyReceived() throws Exception {
+        long lastEventId = (long) changeFeed.stats().get("nextEventId");
+        Gateway received = gatewayService.create(validIpGateway());
+        Gateway missed = gatewayService.create(validIpGateway());
+        MvcResult subscription = mockMvc.perform(get("/changes").header("Last-Event-ID", lastEventId))
+                                        .andExpect(request().asyncStarted()).andReturn();
+
+        String stream = awaitEvents(subscription, 1);
+        assertThat(stream).contains("id:" + (lastEventId + 1));
+        assertThat(stream).contains("\"gatewayId\":" + missed.getId());
+        assertThat(stream).doesNotContain("\"gatewayId\":" + received.getId() + ",");
+    }
+
+    @Test
+    void resumingFromAnEventNoLongerKeptResetsTheClient() throws Exception {
+        long lastEventId = (long) changeFeed.stats().get("nextEventId") - 1;
+        for (int i = 0; i < 9; i++) {
+            gatewayService.create(validIpGateway());
+        }
+        MvcResult subscription = mockMvc.perform(get("/changes").header("Last-Event-ID", lastEventId))
+                                        .andExpect(request().asyncStarted()).andReturn();
+        assertThat(awaitEvents(subscription, 1)).startsWith("event:reset");
+    }
+
+    private String awaitEvents(MvcResult subscription, int events) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String stream = subscription.getResponse().getContentAsString();
+        while (countEvents(stream) < events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            stream = subscription.getResponse().getContentAsString();
+        }
+        return stream;
+    }
+
+    private int countEvents(String stream) {
+        int events = 0;
+        for (int end = stream.indexOf("\n\n"); end >= 0; end = stream.indexOf("\n\n", end + 2)) {
+            events++;
+        }
+        return events;
+    }
+}
@@ -0,0 +1,225 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.metrics.StatementCounter;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.DeviceStatusBuffer;
+import com.musala.gateway.management.service.EntityCache;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the entity tags derived from the versions of gateways and devices: conditional reads are answered with 304
+ * until the record, or anything it is served along with, changes, and conditional updates of records modified since
+ * they were read are rejected. The application runs with the background status writer effectively
+ * disabled, so the tests decide when the reported statuses are written.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+class ConditionalRequestTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private DeviceStatusBuffer deviceStatusBuffer;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private EntityCache entityCache;
+    @Autowired
+    private StatementCounter statementCounter;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void viewsAreNotModifiedUntilTheGatewayOrItsDevicesChange() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        Gateway other = gatewayService.create(validIpGateway());
+        Device device = deviceService.createDevice(getTestDevice());
+        gatewayService.attachDevice(gateway.getId(), device.getId());
+        String gatewayTag = etag(get("/gateway/view/" + gateway.getId()));
+        String deviceTag = etag(get("/device/view/" + device.getId()));
+
+        //Answered from the cached records, or from the versions alone once they are evicted
+        StatementBudget.atMost(statementCounter, 0, () -> notModified("/gateway/view/" + gateway.getId(), gatewayTag));
+        StatementBudget.atMost(statementCounter, 0, () -> notModified("/device/view/" + device.getId(), deviceTag));
+        entityCache.evictGateways(Collections.singleton(gateway.getId()));
+        entityCache.evictDevices(Collections.singleton(device.getId()));
+        StatementBudget.atMost(statementCounter, 1, () -> notModified("/gateway/view/" + gateway.getId(), gatewayTag));
+        StatementBudget.atMost(statementCounter, 1, () -> notModified("/device/view/" + device.getId(), deviceTag));
+        notModified("/gateway/view/" + gateway.getId(), "\"0.0\", W/" + gatewayTag);
+
+        //A heartbeat changes the device, and so the gateway it is served along with
+        deviceStatusBuffer.offer(device.getId(), DeviceStatus.OFFLINE);
+        deviceStatusBuffer.flush();
+        String reportedGatewayTag = modified("/gateway/view/" + gateway.getId(), gatewayTag);
+        String reportedDeviceTag = modified("/device/view/" + device.getId(), deviceTag);
+
+        //Moving the device changes both gateways
+        String otherTag = etag(get("/gateway/view/" + other.getId()));
+        gatewayService.attachDevice(other.getId(), device.getId());
+        modified("/gateway/view/" + gateway.getId(), reportedGatewayTag);
+        modified("/gateway/view/" + other.getId(), otherTag);
+        modified("/device/view/" + device.getId(), reportedDeviceTag);
+    }
+
+    @Test
+    void updatesOfRecordsModifiedSinceTheyWereReadAreRejected() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        Device device = deviceService.createDevice(getTestDevice());
+        String gatewayTag = etag(get("/gateway/view/" + gateway.getId()));
+        String deviceTag = etag(get("/device/view/" + device.getId()));
+
+        gateway.setName("renamed");
+        String renamedTag = mockMvc.perform(put("/gateway/update/" + gateway.getId()).header(HttpHeaders.IF_MATCH,
+                                                                                              gatewayTag)
+                                                    .contentType(MediaType.APPLICATION_JSON)
+                                                    .content(objectMapper.writeValueAsString(gateway)))
+                                   .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(renamedTag).isNotEqualTo(gatewayTag);
+        gateway.setName("lost");
+        mockMvc.perform(put("/gateway/update/" + gateway.getId()).header(HttpHeaders.IF_MATCH, gatewayTag)
+                                                                 .contentType(MediaType.APPLICATION_JSON)
+                                                                 .content(objectMapper.writeValueAsString(gateway)))
+               .andExpect(status().isPreconditionFailed());
+        assertThat(gatewayService.gatewayById(gateway.getId()).getName()).isEqualTo("renamed");
+        assertThat(etag(get("/gateway/view/" + gateway.getId()))).isEqualTo(renamedTag);
+
+        device.setVendor("Nokia");
+        mockMvc.perform(put("/device/update/" + device.getId()).header(HttpHeaders.IF_MATCH, "W/" + deviceTag)
+                                                               .contentType(MediaType.APPLICATION_JSON)
+                                                               .content(objectMapper.writeValueAsString(device)))
+               .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(put("/device/update/" + device.getId()).header(HttpHeaders.IF_MATCH, deviceTag)
+                                                               .contentType(MediaType.APPLICATION_JSON)
+                                                               .content(objectMapper.writeValueAsString(device)))
+               .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG,
+                                                                     etag(get("/device/view/" + device.getId()))));
+        device.setVendor("Lost");
+        mockMvc.perform(put("/device/update/" + device.getId()).header(HttpHeaders.IF_MATCH, deviceTag)
+                                                               .contentType(MediaType.APPLICATION_JSON)
+                                                               .content(objectMapper.writeValueAsString(device)))
+               .andExpect(status().isPreconditionFailed());
+        assertThat(deviceService.deviceById(device.getId()).getVendor()).isEqualTo("Nokia");
+    }
+
+    @Test
+    void updateRacingAConcurrentOneFailsOnTheVersion() throws Exception {
+        Device device = deviceService.createDevice(getTestDevice());
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        TransactionTemplate concurrent = new TransactionTemplate(transactionManager);
+        concurrent.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Assertions.assertThrows(ObjectOptimisticLockingFailureException.class,
+                                () -> transaction.executeWithoutResult(status -> {
+                                    Device loaded = deviceRepository.findById(device.getId()).orElseThrow();
+                                    concurrent.executeWithoutResult(other -> jdbcTemplate.update(
+                                            "update device set vendor='Other', version=version+1 where id=?",
+                                            device.getId()));
+                                    loaded.setVendor("Stale");
+                                }));
+        assertThat(deviceRepository.findById(device.getId()).orElseThrow().getVendor()).isEqualTo("Other");
+    }
+
+    @Test
+    void pagesCarryAnEntityTagOfTheirItems() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        Device first = deviceService.createDevice(getTestDevice());
+        Device second = deviceService.createDevice(getTestDevice());
+        gatewayService.attachDevices(gateway.getId(), Arrays.asList(first.getId(), second.getId()));
+        String devicesTag = etag(get("/gateway/devices/" + gateway.getId()));
+        String listTag = etag(get("/device/list").param("after", String.valueOf(first.getId() - 1)));
+        notModified("/gateway/devices/" + gateway.getId(), devicesTag);
+        mockMvc.perform(get("/device/list").param("after", String.valueOf(first.getId() - 1))
+                                           .header(HttpHeaders.IF_NONE_MATCH, listTag))
+               .andExpect(status().isNotModified());
+
+        deviceStatusBuffer.offer(second.getId(), DeviceStatus.OFFLINE);
+        deviceStatusBuffer.flush();
+        modified("/gateway/devices/" + gateway.getId(), devicesTag);
+        mockMvc.perform(get("/device/list").param("after", String.valueOf(first.getId() - 1))
+                                           .header(HttpHeaders.IF_NONE_MATCH, listTag))
+               .andExpect(status().isOk());
+        String nextPageTag = etag(get("/gateway/devices/" + gateway.getId()).param("limit", "1"));
+        assertThat(nextPageTag).isNotEqualTo(etag(get("/gateway/devices/" + gateway.getId())));
+    }
+
+    @Test
+    void devicePagesAreNotModifiedWithoutLoadingTheirDevices() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        Device first = deviceService.createDevice(getTestDevice());
+        Device second = deviceService.createDevice(getTestDevice());
+        gatewayService.attachDevices(gateway.getId(), Arrays.asList(first.getId(), second.getId()));
+        String devicesTag = etag(get("/gateway/devices/" + gateway.getId()));
+        String firstPageTag = etag(get("/gateway/devices/" + gateway.getId()).param("limit", "1"));
+
+        StatementCounter.Recording recording = statementCounter.start(true);
+        try {
+            notModified("/gateway/devices/" + gateway.getId(), devicesTag);
+            mockMvc.perform(get("/gateway/devices/" + gateway.getId()).param("limit", "1")
+                                                                       .header(HttpHeaders.IF_NONE_MATCH, firstPageTag))
+                   .andExpect(status().isNotModified());
+        } finally {
+            statementCounter.stop();
+        }
+        //The existence of the gateway and the versions of the devices, the devices themselves are never selected
+        assertThat(recording.getStatements()).hasSize(4);
+        assertThat(recording.getStatements()).noneMatch(statement -> statement.contains("vendor"));
+    }
+
+    private String etag(RequestBuilder request) throws Exception {
+        String etag = mockMvc.perform(request).andExpect(status().isOk()).andReturn().getResponse()
+                             .getHeader(HttpHeaders.ETAG);
+        assertThat(etag).matches("(W/)?\".+\"");
+        return etag;
+    }
+
+    private Object notModified(String url, String ifNoneMatch) throws Exception {
+        return mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch))
+                      .andExpect(status().isNotModified()).andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
+    private String modified(String url, String ifNoneMatch) throws Exception {
+        String etag = mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch))
+                             .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotEqualTo(ifNoneMatch);
+        return etag;
+    }
+}
@@ -0,0 +1,294 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.dto.BulkItemResult;
+import com.musala.gateway.management.dto.BulkItemStatus;
+import com.musala.gateway.management.exception.DeviceLimitException;
+import com.musala.gateway.management.exception.GatewayNotFoundException;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+class DeviceLimitConcurrencyTest {
+    private static final int THREADS = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Value("${musala.max.gateway.devices}")
+    private int maxDevices;
+
+    /**
+     * Fires many concurrent single attaches at the same gateway and checks that exactly the limit of devices got
+     * attached and every other attach was rejected.
+     *
+     * @throws Exception
+     */
+    @Test
+    void concurrentAttachesNeverExceedTheLimit() throws Exception {
+        Gateway gateway = gatewayRepository.save(testGateway());
+        List<Long> deviceIds = createDevices(THREADS * 4);
+        AtomicInteger attached = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        runConcurrently(deviceIds.size(), i -> {
+            try {
+                gatewayService.attachDevice(gateway.getId(), deviceIds.get(i));
+                attached.incrementAndGet();
+            } catch (DeviceLimitException e) {
+                rejected.incrementAndGet();
+            }
+            return null;
+        });
+        assertThat(attached.get()).isEqualTo(maxDevices);
+        assertThat(rejected.get()).isEqualTo(deviceIds.size() - maxDevices);
+        assertThat(deviceRepository.countByGateway(gateway.getId())).isEqualTo(maxDevices);
+    }
+
+    /**
+     * Mixes concurrent bulk and single attaches on the same gateway and checks the limit still holds.
+     *
+     * @throws Exception
+     */
+    @Test
+    void concurrentBulkAttachesNeverExceedTheLimit() throws Exception {
+        Gateway gateway = gatewayRepository.save(testGateway());
+        List<Long> deviceIds = createDevices(THREADS * 3);
+        AtomicInteger attached = new AtomicInteger();
+        runConcurrently(THREADS, i -> {
+            List<Long> own = deviceIds.subList(i * 3, i * 3 + 3);
+            if (i % 2 == 0) {
+                for (BulkItemResult result : gatewayService.attachDevices(gateway.getId(), own)) {
+                    if (result.getStatus() == BulkItemStatus.ATTACHED) {
+                        attached.incrementAndGet();
+                    }
+                }
+            } else {
+                for (Long deviceId : own) {
+                    try {
+                        gatewayService.attachDevice(gateway.getId(), deviceId);
+                        attached.incrementAndGet();
+                    } catch (DeviceLimitException ignored) {
+                    }
+                }
+            }
+            return null;
+        });
+        assertThat(attached.get()).isEqualTo(maxDevices);
+        assertThat(deviceRepository.countByGateway(gateway.getId())).isEqualTo(maxDevices);
+    }
+
+    /**
+     * Moves the same devices between a few gateways with concurrent bulk and single attaches, which lock the devices
+     * and the gateways they move between, and checks no move deadlocks and every device counter matches the devices
+     * actually attached.
+     *
+     * @throws Exception
+     */
+    @Test
+    void concurrentMovesKeepTheDeviceCounters() throws Exception {
+        List<Long> gatewayIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            gatewayIds.add(gatewayRepository.save(testGateway()).getId());
+        }
+        //Fewer devices than any gateway can hold, so no move is rejected by the limit
+        List<Long> deviceIds = createDevices(maxDevices - 2);
+        gatewayService.attachDevices(gatewayIds.get(0), deviceIds);
+        runConcurrently(THREADS, i -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int move = 0; move < 20; move++) {
+                long gatewayId = gatewayIds.get(random.nextInt(gatewayIds.size()));
+                if (random.nextBoolean()) {
+                    List<Long> some = new ArrayList<>(deviceIds);
+                    Collections.shuffle(some);
+                    gatewayService.attachDevices(gatewayId, some.subList(0, 3));
+                } else {
+                    gatewayService.attachDevice(gatewayId, deviceIds.get(random.nextInt(deviceIds.size())));
+                }
+            }
+            return null;
+        });
+        long attached = 0;
+        for (Long gatewayId : gatewayIds) {
+            long devices = deviceRepository.countByGateway(gatewayId);
+            assertThat(gatewayRepository.findById(gatewayId).get().getDeviceCount()).isEqualTo(devices);
+            attached += devices;
+        }
+        assertThat(attached).isEqualTo(deviceIds.size());
+    }
+
+    /**
+     * Deletes gateways while devices are being attached to them and checks every attach either lands before the
+     * delete, which then detaches the device, or finds the gateway deleted, and no device is left attached.
+     *
+     * @throws Exception
+     */
+    @Test
+    void deletingAGatewayWhileDevicesAreAttachedToIt() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            Gateway gateway = gatewayRepository.save(testGateway());
+            List<Long> deviceIds = createDevices(maxDevices);
+            runConcurrently(deviceIds.size() + 1, i -> {
+                if (i == deviceIds.size()) {
+                    assertThat(gatewayService.deleteGateway(gateway.getId())).isTrue();
+                } else {
+                    try {
+                        gatewayService.attachDevice(gateway.getId(), deviceIds.get(i));
+                    } catch (GatewayNotFoundException ignored) {
+                    }
+                }
+                return null;
+            });
+            assertThat(deviceRepository.countByGateway(gateway.getId())).isZero();
+            assertThat(deviceRepository.findAllById(deviceIds)).hasSize(deviceIds.size())
+                                                               .allMatch(device -> device.getGateway() == null);
+        }
+    }
+
+    /**
+     * Measures attach/detach throughput when every thread targets the same gateway, so they all queue on its lock.
+     *
+     * @throws Exception
+     */
+    @Test
+    @Tag("benchmark")
+    void attachThroughputOnHotGateway() throws Exception {
+        measureAttachThroughput("hot gateway", 1);
+    }
+
+    /**
+     * Measures attach/detach throughput when threads target gateways spread across the fleet, so they rarely meet on
+     * the same lock.
+     *
+     * @throws Exception
+     */
+    @Test
+    @Tag("benchmark")
+    void attachThroughputAcrossFleet() throws Exception {
+        measureAttachThroughput("spread fleet", 256);
+    }
+
+    private void measureAttachThroughput(String scenario, int gateways) throws Exception {
+        List<Long> gatewayIds = new ArrayList<>();
+        for (int i = 0; i < gateways; i++) {
+            gatewayIds.add(gatewayRepository.save(testGateway()).getId());
+        }
+        List<Long> deviceIds = createDevices(THREADS);
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(10);
+        AtomicLong operations = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        runConcurrently(THREADS, i -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long deviceId = deviceIds.get(i);
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                long gatewayId = gatewayIds.get(random.nextInt(gatewayIds.size()));
+                int done = 1;
+                try {
+                    gatewayService.attachDevice(gatewayId, deviceId);
+                    gatewayService.detachDevice(gatewayId, deviceId);
+                    done++;
+                } catch (DeviceLimitException e) {
+                    //The hot gateway is full with the devices of other threads, the rejection is an operation too
+                    if (now > warmupEnd) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                if (now > warmupEnd) {
+                    operations.addAndGet(done);
+                }
+            }
+            return null;
+        });
+        logger.info(String.format("Attach/detach throughput on %s with %d threads: %.1f ops/s (%d attaches rejected "
+                                  + "by the limit)", scenario, THREADS, operations.get() / 10.0, rejected.get()));
+    }
+
+    private interface Task {
+        Void run(int index) throws Exception;
+    }
+
+    /**
+     * Runs the given amount of tasks on a fixed pool, releasing all of them at once, and rethrows the first failure.
+     */
+    private void runConcurrently(int tasks, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                int index = i;
+                Callable<Void> callable = () -> {
+                    start.await();
+                    try {
+                        return task.run(index);
+                    } catch (Exception e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                };
+                futures.add(executor.submit(callable));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(failed.get()).isFalse();
+    }
+
+    private List<Long> createDevices(int amount) {
+        List<Long> ids = new ArrayList<>();
+        Random random = new Random();
+        for (int i = 0; i < amount; i++) {
+            ids.add(deviceRepository.save(new Device(random.nextLong(), "Cisco", Date.from(Instant.now()),
+                                                     DeviceStatus.ONLINE)).getId());
+        }
+        Collections.shuffle(ids);
+        return ids;
+    }
+
+    private Gateway testGateway() {
+        return new Gateway(UUID.randomUUID().toString(), "concurrent_gw", "10.8.6.50");
+    }
+}
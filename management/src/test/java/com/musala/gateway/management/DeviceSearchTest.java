@@ -0,0 +1,198 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.dto.DeviceSearch;
+import com.musala.gateway.management.dto.KeysetPage;
+import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.management.metrics.StatementCounter;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.GatewayService;
+import com.musala.gateway.management.service.UniqueKeyFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks /device/search finds exactly the devices matching its filters, one page at a time, and that the query of each
+ * filter is planned over its index of the device table rather than a scan. The application runs over its own
+ * database, seeded with tens of thousands of devices of several vendors, statuses and creation times.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class DeviceSearchTest {
+    private static final int GATEWAYS = 300;
+    private static final int DEVICES = 50000;
+    private final Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private UniqueKeyFilter uniqueKeyFilter;
+    @Autowired
+    private StatementCounter statementCounter;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    private Long gatewayId;
+
+    /**
+     * Inserts the gateways with the devices attached to them, and many more unattached devices, so the planner weighs
+     * the indexes against a table of a realistic size. Vendors, statuses and creation times over the last year are
+     * spread independently of each other.
+     */
+    @BeforeAll
+    void seedFleet() {
+        jdbcTemplate.update("insert into gateway (id, serial_number, name, ip_address, ip_value, device_count) "
+                            + "select next value for gateway_seq, 'search-gw-' || x, 'search_gw', '10.8.6.50', "
+                            + "168298034, 0 from system_range(1, ?)", GATEWAYS);
+        String device = "select next value for device_seq, 1000000 + x, case mod(x, 5) when 0 then 'Cisco' "
+                        + "when 1 then 'Huawei' when 2 then 'Nokia' when 3 then 'Sony' else 'Juniper' end, "
+                        + "dateadd('HOUR', -mod(x * 7919, 8760), ?), "
+                        + "case when mod(x, 7) = 0 then 'OFFLINE' else 'ONLINE' end";
+        jdbcTemplate.update("insert into device (id, uid, vendor, created_at, status, gateway_id) " + device
+                            + ", g.id from system_range(1, ?) join gateway g on g.serial_number = 'search-gw-' || "
+                            + "(mod(x, ?) + 1)", Timestamp.from(now), GATEWAYS * 10, GATEWAYS);
+        jdbcTemplate.update("insert into device (id, uid, vendor, created_at, status) " + device
+                            + " from system_range(?, ?)", Timestamp.from(now), GATEWAYS * 10 + 1, DEVICES);
+        gatewayService.rebuildDeviceCounts();
+        uniqueKeyFilter.rebuild();
+        gatewayId = jdbcTemplate.queryForObject("select id from gateway where serial_number = 'search-gw-1'",
+                                                Long.class);
+        //Refreshes the selectivity of the columns the planner estimates the cost of each index with
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Test
+    void findsTheDevicesMatchingEveryFilter() throws Exception {
+        Date weekAgo = Date.from(now.minus(7, ChronoUnit.DAYS));
+        assertFinds(new DeviceSearch("Cisco", DeviceStatus.OFFLINE, weekAgo, null, null, false),
+                    d -> d.get("VENDOR").equals("Cisco") && d.get("STATUS").equals("OFFLINE")
+                         && !createdAt(d).before(weekAgo));
+        assertFinds(new DeviceSearch(null, DeviceStatus.OFFLINE, null, null, null, false),
+                    d -> d.get("STATUS").equals("OFFLINE"));
+        Date from = Date.from(now.minus(30, ChronoUnit.DAYS));
+        Date to = Date.from(now.minus(20, ChronoUnit.DAYS));
+        assertFinds(new DeviceSearch(null, null, from, to, null, false),
+                    d -> !createdAt(d).before(from) && createdAt(d).before(to));
+        assertFinds(new DeviceSearch(null, null, null, null, gatewayId, false),
+                    d -> gatewayId.equals(d.get("GATEWAY_ID")));
+        assertFinds(new DeviceSearch("Sony", null, null, null, null, true),
+                    d -> d.get("VENDOR").equals("Sony") && d.get("GATEWAY_ID") == null);
+    }
+
+    @Test
+    void everyFilterIsServedByAnIndex() throws Exception {
+        Timestamp weekAgo = Timestamp.from(now.minus(7, ChronoUnit.DAYS));
+        assertPlannedOver("DEVICE_VENDOR_IDX",
+                          new DeviceSearch("Cisco", DeviceStatus.OFFLINE, null, null, null, false), 0L, "Cisco",
+                          "OFFLINE");
+        assertPlannedOver("DEVICE_STATUS_IDX",
+                          new DeviceSearch(null, DeviceStatus.OFFLINE, null, null, null, false), 0L, "OFFLINE");
+        assertPlannedOver("DEVICE_CREATED_AT_IDX", new DeviceSearch(null, null, weekAgo, null, null, false),
+                          0L, weekAgo);
+        assertPlannedOver("DEVICE_GATEWAY_IDX", new DeviceSearch(null, null, null, null, gatewayId, false),
+                          0L, gatewayId);
+        assertPlannedOver("DEVICE_GATEWAY_IDX", new DeviceSearch(null, null, null, null, null, true), 0L);
+    }
+
+    @Test
+    void searchesArePaginatedAndValidated() throws Exception {
+        JsonNode first = objectMapper.readTree(
+                mockMvc.perform(get("/device/search").param("vendor", "Nokia").param("deviceStatus", "OFFLINE")
+                                                     .param("createdFrom", now.minus(90, ChronoUnit.DAYS).toString())
+                                                     .param("limit", "5"))
+                       .andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray());
+        assertThat(first.get("items")).hasSize(5).allSatisfy(
+                device -> assertThat(device.get("vendor").asText()).isEqualTo("Nokia"));
+        long after = first.get("next").asLong();
+        mockMvc.perform(get("/device/search").param("vendor", "Nokia").param("deviceStatus", "OFFLINE")
+                                             .param("createdFrom", now.minus(90, ChronoUnit.DAYS).toString())
+                                             .param("after", String.valueOf(after)).param("limit", "5"))
+               .andExpect(status().isOk()).andExpect(jsonPath("$.items[0].id").value(greaterThan((int) after)));
+        mockMvc.perform(get("/device/search").param("vendor", "Unknown")).andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/device/search").param("createdFrom", now.minus(1, ChronoUnit.DAYS).toString())
+                                             .param("createdTo", now.minus(2, ChronoUnit.DAYS).toString()))
+               .andExpect(status().isBadRequest()).andExpect(jsonPath("$.NotValidDeviceException").exists());
+        mockMvc.perform(get("/device/search").param("gateway", String.valueOf(gatewayId))
+                                             .param("unattached", "true"))
+               .andExpect(status().isBadRequest()).andExpect(jsonPath("$.NotValidDeviceException").exists());
+        Assertions.assertThrows(NotValidDeviceException.class, () -> deviceService.search(
+                new DeviceSearch(null, null, null, null, gatewayId, true), 0, 10));
+    }
+
+    private void assertFinds(DeviceSearch search, Predicate<Map<String, Object>> filter) throws Exception {
+        List<Long> expected = new ArrayList<>();
+        for (Map<String, Object> device : jdbcTemplate.queryForList(
+                "select id, vendor, status, created_at, gateway_id from device order by id")) {
+            if (filter.test(device)) {
+                expected.add(((Number) device.get("ID")).longValue());
+            }
+        }
+        List<Long> found = new ArrayList<>();
+        long after = 0;
+        KeysetPage<Device> page;
+        do {
+            page = deviceService.search(search, after, 1000);
+            page.getItems().forEach(device -> found.add(device.getId()));
+            after = page.getNext() == null ? 0 : page.getNext();
+        } while (page.getNext() != null);
+        assertThat(expected).isNotEmpty();
+        assertThat(found).as("devices matching %s", search).isEqualTo(expected);
+    }
+
+    private static Date createdAt(Map<String, Object> device) {
+        return (Date) device.get("CREATED_AT");
+    }
+
+    /**
+     * Runs the search to capture the SQL it sends, then asks H2 for the plan of the statement resolving the page.
+     */
+    private void assertPlannedOver(String index, DeviceSearch search, Object... parameters) throws Exception {
+        StatementCounter.Recording recording = statementCounter.start(true);
+        try {
+            deviceService.search(search, 0, 100);
+        } finally {
+            statementCounter.stop();
+        }
+        assertThat(recording.getStatements()).hasSize(2);
+        Object[] bound = Arrays.copyOf(parameters, parameters.length + 1);
+        bound[parameters.length] = 101;
+        List<Map<String, Object>> plan = jdbcTemplate.queryForList("EXPLAIN " + recording.getStatements().get(0),
+                                                                   bound);
+        assertThat(plan.get(0).values().iterator().next().toString()).contains("PUBLIC." + index);
+    }
+}
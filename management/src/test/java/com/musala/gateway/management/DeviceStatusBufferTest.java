@@ -0,0 +1,123 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.dto.DeviceStatusReport;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.service.DeviceStatusBuffer;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the ingestion of the statuses reported by device heartbeats. The application runs with a small buffer and the
+ * background writer effectively disabled, so the tests decide when the statuses are flushed.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.status.buffer.max.size=3", "musala.status.flush.batch.size=2",
+                              "musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+class DeviceStatusBufferTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private DeviceStatusBuffer deviceStatusBuffer;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @AfterEach
+    void flushLeftovers() {
+        deviceStatusBuffer.flush();
+    }
+
+    @Test
+    void latestReportedStatusIsWrittenOnFlush() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Device first = deviceRepository.save(getTestDevice());
+        Device second = deviceRepository.save(getTestDevice());
+        gatewayService.attachDevice(gateway.getId(), first.getId());
+        mockMvc.perform(get("/gateway/view/" + gateway.getId()))
+               .andExpect(jsonPath("$.devices[0].deviceStatus").value("ONLINE"));
+
+        mockMvc.perform(put("/device/status/" + first.getId()).param("status", "OFFLINE"))
+               .andExpect(status().isAccepted());
+        mockMvc.perform(post("/device/status").contentType(MediaType.APPLICATION_JSON).content(
+                       objectMapper.writeValueAsString(Arrays.asList(
+                               new DeviceStatusReport(first.getId(), DeviceStatus.ONLINE),
+                               new DeviceStatusReport(second.getId(), DeviceStatus.OFFLINE),
+                               new DeviceStatusReport(first.getId(), DeviceStatus.OFFLINE)))))
+               .andExpect(status().isAccepted()).andExpect(jsonPath("$.accepted").value(3));
+        assertThat(deviceRepository.findById(first.getId()).orElseThrow().getDeviceStatus())
+                .isEqualTo(DeviceStatus.ONLINE);
+
+        assertThat(deviceStatusBuffer.flush()).isEqualTo(2);
+        assertThat(deviceRepository.findById(first.getId()).orElseThrow().getDeviceStatus())
+                .isEqualTo(DeviceStatus.OFFLINE);
+        assertThat(deviceRepository.findById(second.getId()).orElseThrow().getDeviceStatus())
+                .isEqualTo(DeviceStatus.OFFLINE);
+        mockMvc.perform(get("/gateway/view/" + gateway.getId()))
+               .andExpect(jsonPath("$.devices[0].deviceStatus").value("OFFLINE"));
+        mockMvc.perform(get("/device/view/" + second.getId()))
+               .andExpect(jsonPath("$.deviceStatus").value("OFFLINE"));
+    }
+
+    @Test
+    void fullBufferOnlyAcceptsDevicesAlreadyPending() throws Exception {
+        mockMvc.perform(post("/device/status").contentType(MediaType.APPLICATION_JSON).content(
+                       objectMapper.writeValueAsString(Arrays.asList(
+                               new DeviceStatusReport(1L, DeviceStatus.OFFLINE),
+                               new DeviceStatusReport(2L, DeviceStatus.OFFLINE),
+                               new DeviceStatusReport(3L, DeviceStatus.OFFLINE),
+                               new DeviceStatusReport(4L, DeviceStatus.OFFLINE)))))
+               .andExpect(status().isServiceUnavailable()).andExpect(header().exists(HttpHeaders.RETRY_AFTER))
+               .andExpect(jsonPath("$.rejected[0]").value(4));
+        mockMvc.perform(put("/device/status/5").param("status", "ONLINE"))
+               .andExpect(status().isServiceUnavailable());
+        mockMvc.perform(put("/device/status/2").param("status", "ONLINE")).andExpect(status().isAccepted());
+
+        deviceStatusBuffer.flush();
+        mockMvc.perform(put("/device/status/5").param("status", "ONLINE")).andExpect(status().isAccepted());
+        mockMvc.perform(post("/device/status").contentType(MediaType.APPLICATION_JSON)
+                                              .content("[{\"id\": 6}]"))
+               .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void pendingStatusesAreFlushedOnShutdown() {
+        Device device = deviceRepository.save(getTestDevice());
+        assertThat(deviceStatusBuffer.offer(device.getId(), DeviceStatus.OFFLINE)).isTrue();
+        deviceStatusBuffer.stop();
+        assertThat(deviceStatusBuffer.stats().get("pending")).isEqualTo(0);
+        assertThat(deviceRepository.findById(device.getId()).orElseThrow().getDeviceStatus())
+                .isEqualTo(DeviceStatus.OFFLINE);
+    }
+}
@@ -0,0 +1,173 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.Arrays;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that the views served from the entity cache reflect every mutation right after it is done. Each test first
+ * views the affected records so they are cached, mutates them and views them again.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+class EntityCacheTest {
+    @Autowired
+    private WebApplicationContext applicationContext;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void initialize() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(applicationContext).build();
+    }
+
+    @Test
+    void repeatedViewsAreServedFromTheCache() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        long hits = getJson("/admin/cache/stats").get("gateways").get("hits").asLong();
+        getJson("/gateway/view/" + gateway.getId());
+        getJson("/gateway/view/" + gateway.getId());
+        getJson("/gateway/view/" + gateway.getId());
+        JsonNode stats = getJson("/admin/cache/stats").get("gateways");
+        assertThat(stats.get("hits").asLong()).isGreaterThanOrEqualTo(hits + 2);
+        assertThat(stats.get("misses").asLong()).isPositive();
+    }
+
+    @Test
+    void updateGatewayIsNotServedStale() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("name").asText()).isEqualTo("test_gw");
+        gateway.setName("renamed_gw");
+        mockMvc.perform(put("/gateway/update/" + gateway.getId()).contentType(MediaType.APPLICATION_JSON)
+                                                                .content(objectMapper.writeValueAsString(gateway)))
+               .andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("name").asText()).isEqualTo("renamed_gw");
+    }
+
+    @Test
+    void updateDeviceIsNotServedStale() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Device device = getTestDevice();
+        device.setGateway(gateway);
+        device = deviceRepository.save(device);
+        getJson("/gateway/view/" + gateway.getId());
+        assertThat(getJson("/device/view/" + device.getId()).get("vendor").asText()).isEqualTo("Huawei");
+        device.setVendor("Nokia");
+        mockMvc.perform(put("/device/update/" + device.getId()).contentType(MediaType.APPLICATION_JSON)
+                                                               .content(objectMapper.writeValueAsString(device)))
+               .andExpect(status().isOk());
+        assertThat(getJson("/device/view/" + device.getId()).get("vendor").asText()).isEqualTo("Nokia");
+        //The gateway view embeds its devices
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices").get(0).get("vendor").asText())
+                .isEqualTo("Nokia");
+    }
+
+    @Test
+    void attachAndDetachAreNotServedStale() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Gateway other = gatewayRepository.save(validIpGateway());
+        Device device = deviceRepository.save(getTestDevice());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).isEmpty();
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach/" + device.getId())).andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).hasSize(1);
+        assertThat(getJson("/gateway/view/" + other.getId()).get("devices")).isEmpty();
+        //Moving the device to another gateway changes both of them
+        mockMvc.perform(put("/gateway/" + other.getId() + "/attach/" + device.getId())).andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).isEmpty();
+        assertThat(getJson("/gateway/view/" + other.getId()).get("devices")).hasSize(1);
+        mockMvc.perform(put("/gateway/" + other.getId() + "/detach/" + device.getId())).andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + other.getId()).get("devices")).isEmpty();
+        assertThat(getJson("/gateway/view/" + other.getId()).get("deviceCount").asInt()).isZero();
+    }
+
+    @Test
+    void bulkAttachAndDetachAreNotServedStale() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Gateway other = gatewayRepository.save(validIpGateway());
+        Device first = deviceRepository.save(getTestDevice());
+        Device second = getTestDevice();
+        second.setGateway(other);
+        second = deviceRepository.save(second);
+        getJson("/gateway/view/" + gateway.getId());
+        getJson("/gateway/view/" + other.getId());
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach").contentType(MediaType.APPLICATION_JSON)
+                                                                     .content(objectMapper.writeValueAsString(
+                                                                             Arrays.asList(first.getId(),
+                                                                                           second.getId()))))
+               .andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).hasSize(2);
+        assertThat(getJson("/gateway/view/" + other.getId()).get("devices")).isEmpty();
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/detach").contentType(MediaType.APPLICATION_JSON)
+                                                                     .content(objectMapper.writeValueAsString(
+                                                                             Arrays.asList(first.getId(),
+                                                                                           second.getId()))))
+               .andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).isEmpty();
+    }
+
+    @Test
+    void deletesAreNotServedStale() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Device kept = getTestDevice();
+        kept.setGateway(gateway);
+        kept = deviceRepository.save(kept);
+        Device deleted = getTestDevice();
+        deleted.setGateway(gateway);
+        deleted = deviceRepository.save(deleted);
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).hasSize(2);
+        getJson("/device/view/" + deleted.getId());
+        mockMvc.perform(delete("/device/delete/" + deleted.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/device/view/" + deleted.getId())).andExpect(status().isNoContent());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("devices")).hasSize(1);
+        mockMvc.perform(delete("/gateway/delete/" + gateway.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/gateway/view/" + gateway.getId())).andExpect(status().isNoContent());
+        assertThat(getJson("/device/view/" + kept.getId()).get("id").asLong()).isEqualTo(kept.getId());
+    }
+
+    @Test
+    void rebuiltCountersAreNotServedStale() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("deviceCount").asInt()).isZero();
+        Device bypassing = getTestDevice();
+        bypassing.setGateway(gateway);
+        deviceRepository.save(bypassing);
+        mockMvc.perform(post("/admin/counters/rebuild")).andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("deviceCount").asInt()).isEqualTo(1);
+    }
+
+    private JsonNode getJson(String url) throws Exception {
+        return objectMapper.readTree(mockMvc.perform(get(url)).andExpect(status().isOk()).andReturn().getResponse()
+                                            .getContentAsString());
+    }
+}
@@ -0,0 +1,139 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.dto.FleetSpec;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.FleetSeeder;
+import com.musala.gateway.management.service.FleetStats;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Checks the fleet seeder inserts the gateways and devices described by its spec, with the vendors, statuses and
+ * creation times spread by the given weights, and that the services keep working over the seeded rows. The application
+ * runs with the background status writer effectively disabled.
+ */
+@SpringBootTest(properties = {"musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+class FleetSeederTest {
+    @Autowired
+    private FleetSeeder fleetSeeder;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private FleetStats fleetStats;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void seedsTheFleetOfTheSpec() throws Exception {
+        FleetSpec spec = new FleetSpec("spec", 500, 10, 0.5);
+        Map<String, Integer> vendors = new LinkedHashMap<>();
+        vendors.put("Cisco", 75);
+        vendors.put("Sony", 0);
+        vendors.put("Nokia", 25);
+        spec.setVendorWeights(vendors);
+        spec.setStatusWeights(FleetSpec.statusWeights("ONLINE:80,OFFLINE:20"));
+        spec.setCreatedWithinDays(30);
+        Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        fleetSeeder.seed(spec);
+
+        assertThat(count("select count(*) from gateway where serial_number like 'spec-%'")).isEqualTo(500);
+        assertThat(count("select count(*) from device d join gateway g on d.gateway_id = g.id "
+                         + "where g.serial_number like 'spec-%'")).isEqualTo(5000);
+        assertThat(count("select count(*) from device where gateway_id is null")).isGreaterThanOrEqualTo(5000);
+        assertThat(gatewayService.verifyDeviceCounts()).isEmpty();
+        String seeded = "from device where uid > (select max(uid) - 10000 from device)";
+        assertThat(count("select count(distinct uid) " + seeded)).isEqualTo(10000);
+        assertThat(count("select count(*) " + seeded + " and vendor = 'Cisco'") / 10000.0).isCloseTo(0.75,
+                                                                                                    within(0.03));
+        assertThat(count("select count(*) " + seeded + " and vendor = 'Sony'")).isZero();
+        assertThat(count("select count(*) " + seeded + " and status = 'OFFLINE'") / 10000.0).isCloseTo(0.2,
+                                                                                                       within(0.03));
+        Timestamp oldest = jdbcTemplate.queryForObject("select min(created_at) " + seeded, Timestamp.class);
+        assertThat(oldest.toInstant()).isBetween(start.minus(Duration.ofDays(30)), start.minus(Duration.ofDays(29)));
+
+        List<Gateway> byIp = gatewayService.gatewaysByIp("10.0.1.7");
+        assertThat(byIp).extracting(Gateway::getSerialNumber).contains("spec-263");
+        Gateway gateway = byIp.stream().filter(g -> g.getSerialNumber().equals("spec-263")).findFirst().get();
+        assertThat(fleetStats.gateway(gateway.getId())).containsEntry("devices", 10L);
+        long device = deviceService.createDevice(getTestDevice()).getId();
+        gatewayService.detachDevice(gateway.getId(), gateway.getDevices().get(0).getId());
+        assertThat(gatewayService.attachDevice(gateway.getId(), device).getDeviceCount()).isEqualTo(10);
+    }
+
+    @Test
+    void theSameSpecSeedsTheSameFleet() {
+        fleetSeeder.seed(new FleetSpec("first", 20, 5, 0.2));
+        fleetSeeder.seed(new FleetSpec("second", 20, 5, 0.2));
+        FleetSpec reseeded = new FleetSpec("third", 20, 5, 0.2);
+        reseeded.setSeed(2);
+        fleetSeeder.seed(reseeded);
+
+        assertThat(attributesOf("first")).hasSize(100).isEqualTo(attributesOf("second"))
+                                         .isNotEqualTo(attributesOf("third"));
+    }
+
+    @Test
+    void rejectsFleetsItCannotSeed() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                                () -> fleetSeeder.seed(new FleetSpec("crowded", 10, 11, 0)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new FleetSpec("unattached", 10, 5, 1));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                                () -> new FleetSpec("weights", 10, 5, 0).setVendorWeights(Map.of("Cisco", 0)));
+        fleetSeeder.seed(new FleetSpec("twice", 10, 5, 0));
+        Assertions.assertThrows(IllegalStateException.class, () -> fleetSeeder.seed(new FleetSpec("twice", 10, 5, 0)));
+    }
+
+    /**
+     * Seeds two million devices, a fifth of what takes a few minutes, including the rebuild of the unique key filters
+     * and fleet statistics. Ten million devices need several GB of heap for the in memory database.
+     */
+    @Test
+    @Tag("heavy")
+    void seedsMillionsOfDevicesInMinutes() {
+        long start = System.nanoTime();
+        fleetSeeder.seed(new FleetSpec("heavy", 100000, 10, 0.5));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMinutes(3));
+        assertThat(count("select count(*) from device")).isGreaterThanOrEqualTo(2000000);
+    }
+
+    /**
+     * @return Vendor, status and seconds since the newest one of the devices attached to the gateways with the prefix
+     */
+    private List<String> attributesOf(String serialPrefix) {
+        String newest = "select max(n.created_at) from device n join gateway m on n.gateway_id = m.id "
+                        + "where m.serial_number like ?";
+        return jdbcTemplate.queryForList("select d.vendor || ' ' || d.status || ' ' || "
+                                         + "datediff('SECOND', d.created_at, (" + newest + ")) "
+                                         + "from device d join gateway g on d.gateway_id = g.id "
+                                         + "where g.serial_number like ? order by d.id", String.class,
+                                         serialPrefix + "-%", serialPrefix + "-%");
+    }
+
+    private long count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+
+}
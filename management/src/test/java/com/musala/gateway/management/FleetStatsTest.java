@@ -0,0 +1,144 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.dto.DeviceStatusReport;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.DeviceStatusBuffer;
+import com.musala.gateway.management.service.FleetStats;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the fleet statistics are kept up to date by every service mutation, and that the incrementally maintained
+ * counters match the ones rebuilt from the database. The statistics are rebuilt before each test, so they do not
+ * depend on the records other tests stored bypassing the services.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+class FleetStatsTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private FleetStats fleetStats;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private DeviceStatusBuffer deviceStatusBuffer;
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @BeforeEach
+    void rebuildStats() {
+        fleetStats.rebuild();
+    }
+
+    @Test
+    void statsFollowEveryMutation() throws Exception {
+        String vendor = "Vendor-" + UUID.randomUUID();
+        Gateway gateway = gatewayService.create(validIpGateway());
+        Gateway other = gatewayService.create(validIpGateway());
+        assertThat(gatewayStats(gateway.getId())).containsEntry("devices", 0L);
+        Map<String, Long> before = fleetStats.fleet();
+
+        Device first = deviceService.createDevice(getTestDevice(vendor));
+        Device second = deviceService.createDevice(getTestDevice(vendor));
+        deviceService.createDevices(Arrays.asList(getTestDevice(vendor), getTestDevice(vendor)));
+        assertThat(fleetStats.vendors()).containsEntry(vendor, 4L);
+        assertThat(fleetStats.fleet().get("unattached")).isEqualTo(before.get("unattached") + 4);
+
+        gatewayService.attachDevice(gateway.getId(), first.getId());
+        gatewayService.attachDevices(gateway.getId(), Collections.singletonList(second.getId()));
+        Device changed = deviceService.deviceById(second.getId());
+        mockMvc.perform(put("/device/update/" + second.getId()).contentType(MediaType.APPLICATION_JSON).content(
+                objectMapper.writeValueAsString(new Device(changed.getUid(), "Other-" + vendor, changed.getCreatedAt(),
+                                                           DeviceStatus.OFFLINE)))).andExpect(status().isOk());
+        mockMvc.perform(post("/device/status").contentType(MediaType.APPLICATION_JSON).content(
+                objectMapper.writeValueAsString(Collections.singletonList(
+                        new DeviceStatusReport(first.getId(), DeviceStatus.OFFLINE))))).andExpect(status().isAccepted());
+        deviceStatusBuffer.flush();
+        assertThat(gatewayStats(gateway.getId())).containsEntry("devices", 2L).containsEntry("ONLINE", 0L)
+                                                 .containsEntry("OFFLINE", 2L);
+        assertThat(fleetStats.vendors()).containsEntry(vendor, 3L).containsEntry("Other-" + vendor, 1L);
+
+        gatewayService.attachDevice(other.getId(), first.getId());
+        assertThat(gatewayStats(other.getId())).containsEntry("devices", 1L).containsEntry("OFFLINE", 1L);
+        gatewayService.detachDevices(gateway.getId(), Collections.singletonList(second.getId()));
+        deviceService.deleteDevice(second.getId());
+        gatewayService.deleteGateway(other.getId());
+        assertThat(gatewayStats(gateway.getId())).containsEntry("devices", 0L);
+        mockMvc.perform(get("/stats/gateway/" + other.getId())).andExpect(status().isNoContent());
+        Map<String, Long> after = fleetStats.fleet();
+        assertThat(after.get("devices")).isEqualTo(before.get("devices") + 3);
+        assertThat(after.get("gateways")).isEqualTo(before.get("gateways") - 1);
+
+        Map<String, Long> vendors = fleetStats.vendors();
+        fleetStats.rebuild();
+        assertThat(fleetStats.fleet()).isEqualTo(after);
+        assertThat(fleetStats.vendors()).isEqualTo(vendors);
+    }
+
+    @Test
+    void rejectedChangesAreNotCounted() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        for (int i = 0; i < 10; i++) {
+            gatewayService.attachDevice(gateway.getId(), deviceService.createDevice(getTestDevice("Sony")).getId());
+        }
+        Device device = deviceService.createDevice(getTestDevice("Sony"));
+        Map<String, Long> before = fleetStats.fleet();
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach/" + device.getId()))
+               .andExpect(status().isBadRequest());
+        assertThat(fleetStats.fleet()).isEqualTo(before);
+        assertThat(gatewayStats(gateway.getId())).containsEntry("devices", 10L);
+    }
+
+    @Test
+    void rebuildPicksUpDevicesStoredBypassingTheServices() throws Exception {
+        Map<String, Long> before = fleetStats.fleet();
+        deviceRepository.save(getTestDevice("Bypass"));
+        assertThat(fleetStats.fleet()).isEqualTo(before);
+        String rebuilt = mockMvc.perform(post("/admin/stats/rebuild")).andExpect(status().isOk()).andReturn()
+                                .getResponse().getContentAsString();
+        assertThat(objectMapper.readTree(rebuilt).get("devices").asLong()).isEqualTo(before.get("devices") + 1);
+        JsonNode vendors = objectMapper.readTree(mockMvc.perform(get("/stats/vendors")).andExpect(status().isOk())
+                                                        .andReturn().getResponse().getContentAsString());
+        assertThat(vendors.get("Bypass").asLong()).isEqualTo(1);
+    }
+
+    private Map<String, Long> gatewayStats(long id) throws Exception {
+        String body = mockMvc.perform(get("/stats/gateway/" + id)).andExpect(status().isOk()).andReturn()
+                             .getResponse().getContentAsString();
+        return objectMapper.readValue(body, objectMapper.getTypeFactory()
+                                                        .constructMapType(Map.class, String.class, Long.class));
+    }
+}
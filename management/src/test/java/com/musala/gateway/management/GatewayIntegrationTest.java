@@ -1,8 +1,11 @@
 package com.musala.gateway.management;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.dto.BulkItemStatus;
 import com.musala.gateway.management.exception.GatewayNotFoundException;
 import com.musala.gateway.management.exception.NotValidGatewayException;
+import com.musala.gateway.management.metrics.StatementCounter;
 import com.musala.gateway.management.model.Device;
 import com.musala.gateway.management.model.DeviceStatus;
 import com.musala.gateway.management.model.Gateway;
@@ -16,6 +19,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -23,13 +27,20 @@ import org.springframework.web.context.WebApplicationContext;
 
 import java.sql.Date;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.function.Predicate;
 
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -47,6 +58,10 @@ class GatewayIntegrationTest {
     DeviceRepository deviceRepository;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private StatementCounter statementCounter;
     private MockMvc mockMvc;
 
     @BeforeEach
@@ -194,6 +209,27 @@ class GatewayIntegrationTest {
         }.setGateway(gateway), "Checks if contains the gateway"));
     }
 
+    /**
+     * The gateway returned by an attach lists the device just attached, also when it is moved from another gateway.
+     */
+    @Test
+    void attachResponseListsTheAttachedDevice() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Gateway other = gatewayRepository.save(validIpGateway());
+        Device first = deviceRepository.save(getTestDevice());
+        Device moved = deviceRepository.save(getTestDevice());
+        mockMvc.perform(put("/gateway/" + other.getId() + "/attach/" + moved.getId())).andExpect(status().isOk());
+
+        JsonNode attached = attach(gateway.getId(), first.getId());
+        assertThat(attached.get("deviceCount").asInt()).isEqualTo(1);
+        assertThat(attached.get("devices").findValuesAsText("id")).containsExactly(String.valueOf(first.getId()));
+        attached = attach(gateway.getId(), moved.getId());
+        assertThat(attached.get("deviceCount").asInt()).isEqualTo(2);
+        assertThat(attached.get("devices").findValuesAsText("id"))
+                .containsExactlyInAnyOrder(String.valueOf(first.getId()), String.valueOf(moved.getId()));
+        assertThat(getJson("/gateway/view/" + other.getId()).get("devices")).isEmpty();
+    }
+
     @Test
     void detachDeviceSuccessful() throws Exception {
         Device device = getTestDevice();
@@ -228,16 +264,257 @@ class GatewayIntegrationTest {
 
     }
 
-    Gateway validIpGateway() {
-        return new Gateway(UUID.randomUUID().toString(), "test_gw", "10.8.6.50");
+    /**
+     * Checks that walking the gateway list page by page visits every gateway exactly once and ends with an empty
+     * cursor.
+     *
+     * @throws Exception
+     */
+    @Test
+    void listGatewaysWalksAllPages() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            gatewayRepository.save(validIpGateway());
+        }
+        long total = gatewayRepository.count();
+        List<Long> visited = new ArrayList<>();
+        JsonNode page = getJson("/gateway/list?limit=2");
+        while (true) {
+            assertThat(page.get("items").size()).isLessThanOrEqualTo(2);
+            page.get("items").forEach(item -> visited.add(item.get("id").asLong()));
+            if (page.get("next").isNull()) {
+                break;
+            }
+            page = getJson("/gateway/list?limit=2&after=" + page.get("next").asLong());
+        }
+        assertThat(visited).hasSize((int) total).doesNotHaveDuplicates().isSorted();
     }
 
-    Gateway notValidIpGateway() {
-        return new Gateway(UUID.randomUUID().toString(), "test_gw", "not.valid.ip.address");
+    /**
+     * Checks that the devices of a gateway are paginated and that a cursor past the last device yields no content.
+     *
+     * @throws Exception
+     */
+    @Test
+    void gatewayDevicesArePaginated() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        for (int i = 0; i < 3; i++) {
+            Device device = getTestDevice();
+            device.setGateway(gateway);
+            deviceRepository.save(device);
+        }
+        JsonNode first = getJson("/gateway/devices/" + gateway.getId() + "?limit=2");
+        assertThat(first.get("items").size()).isEqualTo(2);
+        assertThat(first.get("next").isNull()).isFalse();
+        JsonNode second = getJson("/gateway/devices/" + gateway.getId() + "?limit=2&after=" + first.get("next").asLong());
+        assertThat(second.get("items").size()).isEqualTo(1);
+        assertThat(second.get("next").isNull()).isTrue();
+        mockMvc.perform(get("/device/list?after=" + Long.MAX_VALUE)).andExpect(status().isNoContent());
+    }
+
+    /**
+     * Checks that a bulk create inserts the new devices and rejects, item by item, the uids that are already taken
+     * either in the database or earlier in the same request.
+     *
+     * @throws Exception
+     */
+    @Test
+    void bulkCreateReportsEachDevice() throws Exception {
+        Device existing = deviceRepository.save(getTestDevice());
+        Device first = getTestDevice();
+        Device second = getTestDevice();
+        Device repeated = new Device(first.getUid(), "Cisco", Date.from(Instant.now()), DeviceStatus.OFFLINE);
+        Device taken = new Device(existing.getUid(), "Cisco", Date.from(Instant.now()), DeviceStatus.ONLINE);
+        String body = objectMapper.writeValueAsString(Arrays.asList(first, second, repeated, taken));
+        String response = mockMvc.perform(post("/device/bulk").contentType(MediaType.APPLICATION_JSON).content(body))
+                                 .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        JsonNode results = objectMapper.readTree(response);
+        assertThat(results.size()).isEqualTo(4);
+        assertThat(results.get(0).get("status").asText()).isEqualTo(BulkItemStatus.CREATED.name());
+        assertThat(results.get(1).get("status").asText()).isEqualTo(BulkItemStatus.CREATED.name());
+        assertThat(results.get(2).get("status").asText()).isEqualTo(BulkItemStatus.REJECTED.name());
+        assertThat(results.get(3).get("status").asText()).isEqualTo(BulkItemStatus.REJECTED.name());
+        Device created = deviceRepository.findByUID(second.getUid()).orElse(null);
+        assertThat(created).isNotNull();
+        assertThat(created.getId()).isEqualTo(results.get(1).get("id").asLong());
+        assertThat(deviceRepository.findByUID(first.getUid()).map(Device::getVendor)).contains("Huawei");
     }
 
-    Device getTestDevice() {
-        return new Device(new Random().nextLong(), "Huawei", Date.from(Instant.now()), DeviceStatus.ONLINE);
+    /**
+     * Checks that a bulk attach fills the gateway up to the device limit and reports each device, and that a bulk
+     * detach only detaches the devices attached to the gateway.
+     *
+     * @throws Exception
+     */
+    @Test
+    void bulkAttachAndDetachReportEachDevice() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            ids.add(deviceRepository.save(getTestDevice()).getId());
+        }
+        ids.add(Long.MAX_VALUE);
+        JsonNode attached = putJson("/gateway/" + gateway.getId() + "/attach", ids);
+        assertThat(attached.size()).isEqualTo(13);
+        for (int i = 0; i < 10; i++) {
+            assertThat(attached.get(i).get("status").asText()).isEqualTo(BulkItemStatus.ATTACHED.name());
+        }
+        assertThat(attached.get(10).get("status").asText()).isEqualTo(BulkItemStatus.DEVICE_LIMIT.name());
+        assertThat(attached.get(11).get("status").asText()).isEqualTo(BulkItemStatus.DEVICE_LIMIT.name());
+        assertThat(attached.get(12).get("status").asText()).isEqualTo(BulkItemStatus.NOT_FOUND.name());
+        assertThat(deviceRepository.countByGateway(gateway.getId())).isEqualTo(10);
+        assertThat(gatewayRepository.findById(gateway.getId()).map(Gateway::getDeviceCount)).contains(10);
+
+        JsonNode detached = putJson("/gateway/" + gateway.getId() + "/detach", Arrays.asList(ids.get(0), ids.get(1),
+                                                                                               ids.get(11)));
+        assertThat(detached.get(0).get("status").asText()).isEqualTo(BulkItemStatus.DETACHED.name());
+        assertThat(detached.get(1).get("status").asText()).isEqualTo(BulkItemStatus.DETACHED.name());
+        assertThat(detached.get(2).get("status").asText()).isEqualTo(BulkItemStatus.NOT_ATTACHED.name());
+        assertThat(deviceRepository.countByGateway(gateway.getId())).isEqualTo(8);
+        assertThat(gatewayRepository.findById(gateway.getId()).map(Gateway::getDeviceCount)).contains(8);
+    }
+
+    /**
+     * Checks that the device counter follows single attaches, detaches and deletes, and that the verifier finds and
+     * rebuilds a counter left inconsistent by a change made bypassing the services.
+     *
+     * @throws Exception
+     */
+    @Test
+    void deviceCounterFollowsMutationsAndCanBeRebuilt() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Gateway other = gatewayRepository.save(validIpGateway());
+        Device first = deviceRepository.save(getTestDevice());
+        Device second = deviceRepository.save(getTestDevice());
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach/" + first.getId())).andExpect(status().isOk());
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach/" + second.getId()))
+               .andExpect(status().isOk());
+        assertThat(getJson("/gateway/view/" + gateway.getId()).get("deviceCount").asInt()).isEqualTo(2);
+        //Moving a device to another gateway frees its slot in the previous one
+        mockMvc.perform(put("/gateway/" + other.getId() + "/attach/" + second.getId())).andExpect(status().isOk());
+        assertThat(gatewayRepository.findById(gateway.getId()).map(Gateway::getDeviceCount)).contains(1);
+        assertThat(gatewayRepository.findById(other.getId()).map(Gateway::getDeviceCount)).contains(1);
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/detach/" + first.getId())).andExpect(status().isOk());
+        mockMvc.perform(delete("/device/delete/" + second.getId())).andExpect(status().isOk());
+        assertThat(gatewayRepository.findById(gateway.getId()).map(Gateway::getDeviceCount)).contains(0);
+        assertThat(gatewayRepository.findById(other.getId()).map(Gateway::getDeviceCount)).contains(0);
+
+        Device bypassing = getTestDevice();
+        bypassing.setGateway(gateway);
+        deviceRepository.save(bypassing);
+        String mismatches = mockMvc.perform(get("/admin/counters/verify")).andExpect(status().isOk()).andReturn()
+                                   .getResponse().getContentAsString();
+        assertThat(mismatches).contains("\"id\":" + gateway.getId() + ",");
+        mockMvc.perform(post("/admin/counters/rebuild")).andExpect(status().isOk());
+        assertThat(gatewayRepository.findById(gateway.getId()).map(Gateway::getDeviceCount)).contains(1);
+        assertThat(gatewayRepository.findDeviceCountMismatches()).isEmpty();
+    }
+
+    /**
+     * Checks the exact address and subnet lookups, including the subnet boundaries and pagination.
+     *
+     * @throws Exception
+     */
+    @Test
+    void gatewaysAreFoundByIpAndSubnet() throws Exception {
+        String subnet = "172.16." + new Random().nextInt(256) + ".";
+        List<Long> inSubnet = new ArrayList<>();
+        //Two gateways share the .128 address
+        for (String host : new String[]{"0", "1", "128", "128", "255"}) {
+            inSubnet.add(gatewayRepository.save(new Gateway(UUID.randomUUID().toString(), "subnet_gw", subnet + host))
+                                          .getId());
+        }
+        Gateway owner = gatewayRepository.findById(inSubnet.get(2)).orElseThrow();
+        JsonNode byIp = getJson("/gateway/by-ip/" + subnet + "128");
+        assertThat(byIp).hasSize(2);
+        assertThat(byIp.get(0).get("id").asLong()).isEqualTo(owner.getId());
+        mockMvc.perform(get("/gateway/by-ip/" + subnet + "7")).andExpect(status().isNoContent());
+        mockMvc.perform(get("/gateway/by-ip/300.1.1.1")).andExpect(status().isBadRequest());
+
+        List<Long> found = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        JsonNode page = getJson("/gateway/in-subnet?limit=2&cidr=" + subnet + "9/24");
+        while (true) {
+            page.get("items").forEach(gateway -> found.add(gateway.get("id").asLong()));
+            pageSizes.add(page.get("items").size());
+            if (page.get("next").isNull()) {
+                break;
+            }
+            page = getJson("/gateway/in-subnet?limit=2&after=" + page.get("next").asLong() + "&cidr=" + subnet
+                           + "9/24");
+        }
+        assertThat(found).containsExactlyElementsOf(inSubnet);
+        //The second page ends on the shared address, so it takes both gateways having it
+        assertThat(pageSizes).containsExactly(2, 2, 1);
+        JsonNode halfSubnet = getJson("/gateway/in-subnet?cidr=" + subnet + "0/25");
+        assertThat(halfSubnet.get("items")).hasSize(2);
+        mockMvc.perform(get("/gateway/in-subnet?cidr=" + subnet + "0/33")).andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Checks that the subnet lookup is served by a range scan of the ip_value index.
+     */
+    @Test
+    void subnetLookupUsesTheIpIndex() {
+        String plan = jdbcTemplate.queryForObject(
+                "explain select id, ip_value from gateway where ip_value between 2886729728 and 2886795263 "
+                + "order by ip_value, id limit 101", String.class);
+        assertThat(plan).containsIgnoringCase("gateway_ip_value_idx").containsIgnoringCase("index sorted");
+    }
+
+    /**
+     * Checks the amount of SQL statements run by the main endpoints. Attach locks the gateway, loads the device,
+     * updates it along with the gateway counter and returns the gateway devices.
+     *
+     * @throws Exception
+     */
+    @Test
+    void endpointsStayWithinTheirStatementBudgets() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        Device device = deviceRepository.save(getTestDevice());
+        StatementBudget.atMost(statementCounter, 1, () -> mockMvc.perform(
+                post("/gateway/create").contentType(MediaType.APPLICATION_JSON)
+                                       .content(objectMapper.writeValueAsString(validIpGateway())))
+                                                                .andExpect(status().isCreated()));
+        StatementBudget.atMost(statementCounter, 1, () -> mockMvc.perform(get("/gateway/view/" + gateway.getId()))
+                                                                .andExpect(status().isOk()));
+        StatementBudget.atMost(statementCounter, 2, () -> mockMvc.perform(get("/gateway/list?limit=10"))
+                                                                .andExpect(status().isOk()));
+        StatementBudget.atMost(statementCounter, 1, () -> mockMvc.perform(get("/device/list?limit=10"))
+                                                                .andExpect(status().isOk()));
+        StatementBudget.atMost(statementCounter, 5, () -> mockMvc.perform(
+                put("/gateway/" + gateway.getId() + "/attach/" + device.getId())).andExpect(status().isOk()));
+        StatementBudget.atMost(statementCounter, 3, () -> mockMvc.perform(
+                put("/gateway/" + gateway.getId() + "/detach/" + device.getId())).andExpect(status().isOk()));
+        device.setVendor("Nokia");
+        StatementBudget.atMost(statementCounter, 2, () -> mockMvc.perform(
+                put("/device/update/" + device.getId()).contentType(MediaType.APPLICATION_JSON)
+                                                       .content(objectMapper.writeValueAsString(device)))
+                                                                .andExpect(status().isOk()));
+        StatementBudget.atMost(statementCounter, 2, () -> mockMvc.perform(delete("/device/delete/" + device.getId()))
+                                                                .andExpect(status().isOk()));
+    }
+
+    private JsonNode putJson(String url, Object body) throws Exception {
+        String response = mockMvc.perform(put(url).contentType(MediaType.APPLICATION_JSON)
+                                                  .content(objectMapper.writeValueAsString(body)))
+                                 .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(response);
+    }
+
+    private JsonNode attach(long gatewayId, long deviceId) throws Exception {
+        String body = mockMvc.perform(put("/gateway/" + gatewayId + "/attach/" + deviceId))
+                             .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    private JsonNode getJson(String url) throws Exception {
+        String body = mockMvc.perform(get(url)).andExpect(status().isOk()).andReturn().getResponse()
+                             .getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    Gateway notValidIpGateway() {
+        return new Gateway(UUID.randomUUID().toString(), "test_gw", "not.valid.ip.address");
     }
 
 
@@ -39,7 +39,7 @@ public class GatewayServiceTest {
     @BeforeEach
     void initialize() {
         DeviceService deviceService = new DeviceService(deviceRepository);
-        gatewayService = new GatewayService(gatewayRepository, deviceService, 2);
+        gatewayService = new GatewayService(gatewayRepository, deviceRepository, deviceService, 2);
     }
 
     /**
@@ -109,8 +109,8 @@ public class GatewayServiceTest {
     void gatewayAttachDeviceFailsBecauseDeviceLimit() {
         long gwId = 1;
         long devId = 3;
-        when(gatewayRepository.findById(gwId)).thenReturn(Optional.of(maxDevicesGateway()));
-        when(deviceRepository.findById(devId)).thenReturn(Optional.of(getTestDevice()));
+        when(gatewayRepository.findByIdForUpdate(gwId)).thenReturn(Optional.of(maxDevicesGateway()));
+        when(deviceRepository.findByIdForUpdate(devId)).thenReturn(Optional.of(getTestDevice()));
         Assertions.assertThrows(DeviceLimitException.class, () -> gatewayService.attachDevice(gwId, devId));
     }
 
@@ -118,12 +118,9 @@ public class GatewayServiceTest {
     void gatewayDetachDeviceFailsBecauseDeviceNotAssigned() {
         long gwId = 1;
         long devId = 3;
-        Gateway maxDevicesGateway = maxDevicesGateway();
-        maxDevicesGateway.setId(gwId);
+        //The detaching update matches no device, both the gateway and the device exist
         when(gatewayRepository.existsById(gwId)).thenReturn(true);
-        Device attachedDevice = getTestDevice();
-        attachedDevice.setId(devId);
-        when(deviceRepository.findById(devId)).thenReturn(Optional.of(attachedDevice));
+        when(deviceRepository.existsById(devId)).thenReturn(true);
         DeviceNotFoundException ex =
                 Assertions.assertThrows(DeviceNotFoundException.class, () -> gatewayService.detachDevice(gwId, devId));
         assertThat(ex.getMessage()).isEqualTo(
@@ -148,6 +145,7 @@ public class GatewayServiceTest {
         gateway.getDevices().addAll(Arrays.asList(new Device(1, "Sony", Date.from(Instant.now()), DeviceStatus.ONLINE),
                                                   new Device(2, "Panasonic", Date.from(Instant.now()),
                                                              DeviceStatus.ONLINE)));
+        gateway.setDeviceCount(gateway.getDevices().size());
         return gateway;
     }
 }
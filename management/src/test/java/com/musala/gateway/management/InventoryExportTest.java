@@ -0,0 +1,147 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+class InventoryExportTest {
+    private static final int EXPORTED_GATEWAYS = 100_000;
+    private static final int EXPORTED_DEVICES = 1_000_000;
+    private static final int SEED_CHUNK = 10_000;
+    private static final long MAX_HEAP_GROWTH = 64L * 1024 * 1024;
+
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Checks that every gateway is exported in its own line along with its attached devices.
+     *
+     * @throws Exception
+     */
+    @Test
+    void exportWritesOneGatewayPerLineWithItsDevices() throws Exception {
+        Gateway gateway = gatewayRepository.save(new Gateway(UUID.randomUUID().toString(), "export_gw", "10.8.6.50"));
+        for (int i = 0; i < 2; i++) {
+            deviceRepository.save(new Device(new Random().nextLong(), "Cisco", Date.from(Instant.now()),
+                                             DeviceStatus.ONLINE, gateway));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long exported = gatewayService.exportInventory(out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize((int) exported);
+        JsonNode exportedGateway = null;
+        for (String line : lines) {
+            JsonNode node = objectMapper.readTree(line);
+            if (node.get("id").asLong() == gateway.getId()) {
+                exportedGateway = node;
+            }
+        }
+        assertThat(exportedGateway).isNotNull();
+        assertThat(exportedGateway.get("serialNumber").asText()).isEqualTo(gateway.getSerialNumber());
+        assertThat(exportedGateway.get("devices").size()).isEqualTo(2);
+    }
+
+    /**
+     * Exports a million devices and samples the used heap along the way. Loading the inventory at once would need
+     * several hundred megabytes, while streaming it should keep the heap within a small constant band.
+     *
+     * @throws Exception
+     */
+    @Test
+    @Tag("heavy")
+    void exportKeepsHeapFlat() throws Exception {
+        String prefix = "export-" + UUID.randomUUID() + "-";
+        for (int from = 1; from <= EXPORTED_GATEWAYS; from += SEED_CHUNK) {
+            jdbcTemplate.update("insert into gateway (id, serial_number, name, ip_address, ip_value, device_count) "
+                                + "select next value for gateway_seq, ? || x, 'export_gw', '10.8.6.50', 168298034, ? "
+                                + "from system_range(?, ?)", prefix, EXPORTED_DEVICES / EXPORTED_GATEWAYS, from,
+                                from + SEED_CHUNK - 1);
+        }
+        for (int from = 1; from <= EXPORTED_DEVICES; from += SEED_CHUNK) {
+            jdbcTemplate.update("insert into device (id, uid, vendor, created_at, status, gateway_id) select "
+                                + "next value for device_seq, -x, 'export', current_timestamp, 'ONLINE', g.id "
+                                + "from system_range(?, ?) join gateway g on g.serial_number = ? || (mod(x, ?) + 1)",
+                                from, from + SEED_CHUNK - 1, prefix, EXPORTED_GATEWAYS);
+        }
+        try {
+            HeapSamplingStream out = new HeapSamplingStream(EXPORTED_GATEWAYS / 10);
+            long exported = gatewayService.exportInventory(out);
+            assertThat(exported).isGreaterThanOrEqualTo(EXPORTED_GATEWAYS);
+            assertThat(out.maxUsed - out.minUsed).isLessThan(MAX_HEAP_GROWTH);
+        } finally {
+            for (int from = 1; from <= EXPORTED_DEVICES; from += SEED_CHUNK) {
+                jdbcTemplate.update("delete from device where uid between ? and ? and vendor = 'export'",
+                                    -(from + SEED_CHUNK - 1), -from);
+            }
+            jdbcTemplate.update("delete from gateway where serial_number like ?", prefix + "%");
+        }
+    }
+
+    /**
+     * Discards the exported bytes and records the used heap, after a collection, every given amount of lines.
+     */
+    private static class HeapSamplingStream extends OutputStream {
+        private final int sampleEvery;
+        private long lines;
+        private long minUsed = Long.MAX_VALUE;
+        private long maxUsed = 0;
+
+        HeapSamplingStream(int sampleEvery) {
+            this.sampleEvery = sampleEvery;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n' && ++lines % sampleEvery == 0) {
+                sample();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        private void sample() {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            minUsed = Math.min(minUsed, used);
+            maxUsed = Math.max(maxUsed, used);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.util.Ipv4;
+import com.musala.gateway.management.util.Ipv4Subnet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Ipv4Test {
+    /**
+     * Regex the addresses were validated with before the parser, the parser must accept exactly the same addresses.
+     */
+    private static final String SEGMENT = "(\\d{1,2}|(0|1)\\d{2}|2[0-4]\\d|25[0-5])";
+    private static final String IP_REGEX = SEGMENT + "\\." + SEGMENT + "\\." + SEGMENT + "\\." + SEGMENT;
+
+    @Test
+    void parsesValidAddresses() {
+        assertThat(Ipv4.parse("0.0.0.0")).isZero();
+        assertThat(Ipv4.parse("10.8.6.50")).isEqualTo(168298034L);
+        assertThat(Ipv4.parse("255.255.255.255")).isEqualTo(0xFFFFFFFFL);
+        assertThat(Ipv4.parse("010.008.006.050")).isEqualTo(168298034L);
+    }
+
+    @Test
+    void rejectsInvalidAddresses() {
+        for (String address : new String[]{null, "", "10.8.6", "10.8.6.50.1", "10.8.6.", ".10.8.6", "10..8.6",
+                                           "256.8.6.50", "10.8.6.0050", "10.8.6.a", " 10.8.6.50", "10.8.6.50 ",
+                                           "not.valid.ip.address", "1e1.8.6.50", "-1.8.6.50"}) {
+            assertThat(Ipv4.isValid(address)).as(address).isFalse();
+            assertThat(Ipv4.parse(address)).as(address).isEqualTo(Ipv4.INVALID);
+        }
+    }
+
+    @Test
+    void formatsParsedAddresses() {
+        assertThat(Ipv4.format(Ipv4.parse("10.8.6.50"))).isEqualTo("10.8.6.50");
+        assertThat(Ipv4.format(Ipv4.parse("255.0.010.1"))).isEqualTo("255.0.10.1");
+    }
+
+    @Test
+    void parsesSubnets() {
+        Ipv4Subnet subnet = Ipv4Subnet.parse("10.8.6.51/16");
+        assertThat(subnet.getFirst()).isEqualTo(Ipv4.parse("10.8.0.0"));
+        assertThat(subnet.getLast()).isEqualTo(Ipv4.parse("10.8.255.255"));
+        assertThat(Ipv4Subnet.parse("0.0.0.0/0").getLast()).isEqualTo(0xFFFFFFFFL);
+        Ipv4Subnet single = Ipv4Subnet.parse("10.8.6.51");
+        assertThat(single.getFirst()).isEqualTo(single.getLast()).isEqualTo(Ipv4.parse("10.8.6.51"));
+        for (String cidr : new String[]{null, "10.8.0.0/", "10.8.0.0/33", "10.8.0.0/1a", "10.8.0/16", "/16",
+                                        "10.8.0.0/016"}) {
+            assertThat(Ipv4Subnet.parse(cidr)).as(cidr).isNull();
+        }
+    }
+
+    /**
+     * Compares the parser with the regex on random strings made of digits and dots, which are the ones likely to be
+     * told apart wrongly.
+     */
+    @Test
+    void acceptsTheSameAddressesAsTheRegex() {
+        Random random = new Random(42);
+        char[] alphabet = "0123456789.".toCharArray();
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder address = new StringBuilder();
+            int length = 7 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                address.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            String candidate = address.toString();
+            assertThat(Ipv4.isValid(candidate)).as(candidate).isEqualTo(candidate.matches(IP_REGEX));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.musala.gateway.management;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Open model HTTP load generator. Requests are sent at a fixed arrival rate whatever the response times are, choosing
+ * each one among the added operations according to their weights. The latency of a request is measured from the time
+ * it was scheduled to be sent, not from when it was actually sent, so a stall of the service (or of the generator)
+ * shows in the latency of every request scheduled during it instead of being hidden by sending fewer requests.
+ */
+class LoadGenerator {
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final URI base;
+    private final List<WeightedOperation> operations = new ArrayList<>();
+    private int totalWeight;
+
+    LoadGenerator(URI base) {
+        this.base = base;
+    }
+
+    /**
+     * @param name      Name the latencies of the operation are reported under
+     * @param weight    Relative frequency of the operation, operations with no weight are not sent
+     * @param operation Builds each request of the operation
+     */
+    void add(String name, int weight, Operation operation) {
+        if (weight > 0) {
+            operations.add(new WeightedOperation(name, weight, operation));
+            totalWeight += weight;
+        }
+    }
+
+    /**
+     * Sends requests at the given rate for the given time and waits for their responses.
+     *
+     * @param rate     Requests per second
+     * @param duration Time during which requests are sent
+     * @return Latencies and responses by operation
+     */
+    Report run(double rate, Duration duration) {
+        Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        operations.forEach(operation -> endpoints.put(operation.name, new Endpoint()));
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long sent = 0;
+        AtomicLong completed = new AtomicLong();
+        for (long scheduled = start; scheduled < end; scheduled += interval) {
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            WeightedOperation operation = pick();
+            Endpoint endpoint = endpoints.get(operation.name);
+            Call call = operation.operation.next();
+            if (call == null) {
+                endpoint.skipped.increment();
+                continue;
+            }
+            long scheduledAt = scheduled;
+            sent++;
+            endpoint.sent.increment();
+            client.sendAsync(call.request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                endpoint.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledAt));
+                int status = response == null ? 0 : response.statusCode();
+                endpoint.count(status);
+                call.onStatus.accept(status);
+                completed.incrementAndGet();
+            });
+        }
+        long sendingTime = System.nanoTime() - start;
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (completed.get() < sent && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return new Report(rate, sendingTime, endpoints);
+    }
+
+    private WeightedOperation pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (WeightedOperation operation : operations) {
+            value -= operation.weight;
+            if (value < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("No operation was added");
+    }
+
+    URI uri(String path) {
+        return base.resolve(path);
+    }
+
+    /**
+     * Builds the requests of an operation, it is called from a single thread.
+     */
+    interface Operation {
+        /**
+         * @return The next request to send, null if the operation has nothing to send at the moment
+         */
+        Call next();
+    }
+
+    /**
+     * A request along with the callback receiving the status of its response, 0 if no response was received.
+     */
+    static class Call {
+        private final HttpRequest request;
+        private final IntConsumer onStatus;
+
+        Call(HttpRequest request, IntConsumer onStatus) {
+            this.request = request;
+            this.onStatus = onStatus;
+        }
+
+        Call(HttpRequest request) {
+            this(request, status -> {
+            });
+        }
+    }
+
+    private static class WeightedOperation {
+        private final String name;
+        private final int weight;
+        private final Operation operation;
+
+        WeightedOperation(String name, int weight, Operation operation) {
+            this.name = name;
+            this.weight = weight;
+            this.operation = operation;
+        }
+    }
+
+    private static class Endpoint {
+        //Microseconds, auto resized so no latency is out of range
+        private final Histogram latencies = new ConcurrentHistogram(3);
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder successful = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+
+        void count(int status) {
+            if (status >= 200 && status < 300) {
+                successful.increment();
+            } else if (status >= 400 && status < 500) {
+                rejected.increment();
+            }
+        }
+
+        /**
+         * @return Requests answered with a server error, failed to be sent or still unanswered
+         */
+        long failed() {
+            return sent.sum() - successful.sum() - rejected.sum();
+        }
+    }
+
+    static class Report {
+        private final double rate;
+        private final long sendingTime;
+        private final Map<String, Endpoint> endpoints;
+
+        Report(double rate, long sendingTime, Map<String, Endpoint> endpoints) {
+            this.rate = rate;
+            this.sendingTime = sendingTime;
+            this.endpoints = endpoints;
+        }
+
+        /**
+         * @return Requests answered with a server error or not answered at all
+         */
+        long failed() {
+            return endpoints.values().stream().mapToLong(Endpoint::failed).sum();
+        }
+
+        /**
+         * @param name Operation name
+         * @return Requests of the operation that got a response
+         */
+        long answered(String name) {
+            Endpoint endpoint = endpoints.get(name);
+            return endpoint.successful.sum() + endpoint.rejected.sum();
+        }
+
+        /**
+         * Prints throughput, response counts and latency percentiles, in milliseconds, by operation.
+         *
+         * @param out Stream to print to
+         */
+        void print(PrintStream out) {
+            double seconds = sendingTime / 1e9;
+            out.printf("Target rate %.1f req/s during %.1f s%n", rate, seconds);
+            out.printf("%-10s %9s %9s %8s %8s %8s %8s %9s %9s %9s %9s%n", "operation", "requests", "req/s", "2xx",
+                       "4xx", "failed", "skipped", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+            endpoints.forEach((name, endpoint) -> {
+                Histogram latencies = endpoint.latencies;
+                out.printf("%-10s %9d %9.1f %8d %8d %8d %8d %9.2f %9.2f %9.2f %9.2f%n", name,
+                           endpoint.sent.sum(), latencies.getTotalCount() / seconds,
+                           endpoint.successful.sum(), endpoint.rejected.sum(), endpoint.failed(),
+                           endpoint.skipped.sum(), latencies.getValueAtPercentile(50) / 1000.0,
+                           latencies.getValueAtPercentile(99) / 1000.0,
+                           latencies.getValueAtPercentile(99.9) / 1000.0, latencies.getMaxValue() / 1000.0);
+            });
+        }
+
+        /**
+         * Writes the full latency distribution of each operation, in milliseconds, to a .hgrm file named after it,
+         * which can be plotted with the HdrHistogram plotter.
+         *
+         * @param directory Directory the files are written to
+         * @throws IOException If a file could not be written
+         */
+        void write(Path directory) throws IOException {
+            Files.createDirectories(directory);
+            for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+                try (PrintStream out = new PrintStream(
+                        Files.newOutputStream(directory.resolve(entry.getKey() + ".hgrm")))) {
+                    entry.getValue().latencies.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+        }
+    }
+}
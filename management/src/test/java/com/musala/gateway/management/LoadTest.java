@@ -0,0 +1,164 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.dto.FleetSpec;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.service.FleetSeeder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives a mixed workload of views, listings, creates, attaches and detaches through the HTTP api of the application,
+ * started on a random port over an in memory database seeded with a fleet of gateways by {@link FleetSeeder}.
+ * Requests are sent at a fixed rate (see {@link LoadGenerator}) during a warmup, whose results are discarded, and then
+ * during the measured run. Throughput and latency percentiles by operation are printed and the latency distributions
+ * are written to target/loadtest.
+ * <p>
+ * The fleet, rate, durations and mix of operations can be changed with system properties, e.g.
+ * mvn test -Ploadtest -Dloadtest.rate=500 -Dloadtest.mix=view=80,attach=10,detach=10
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"musala.enable.test.data=false", "logging.level.com.musala=WARN"})
+@ExtendWith(SpringExtension.class)
+class LoadTest {
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private FleetSeeder fleetSeeder;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${loadtest.gateways:1000}")
+    private int gateways;
+    @Value("${loadtest.devices.per.gateway:5}")
+    private int devicesPerGateway;
+    @Value("${loadtest.unattached.ratio:0.67}")
+    private double unattachedRatio;
+    @Value("${loadtest.rate:200}")
+    private double rate;
+    @Value("${loadtest.warmup.seconds:10}")
+    private int warmupSeconds;
+    @Value("${loadtest.duration.seconds:60}")
+    private int durationSeconds;
+    @Value("${loadtest.mix:view=40,list=20,create=10,attach=15,detach=15}")
+    private String mix;
+
+    @Test
+    void mixedWorkload() throws Exception {
+        fleetSeeder.seed(new FleetSpec("load", gateways, devicesPerGateway, unattachedRatio));
+        List<Long> gatewayIds = jdbcTemplate.queryForList("select id from gateway", Long.class);
+        List<long[]> attachedDevices = jdbcTemplate.query(
+                "select gateway_id, id from device where gateway_id is not null",
+                (rs, row) -> new long[]{rs.getLong(1), rs.getLong(2)});
+        Collections.shuffle(attachedDevices);
+        //Every seeded device is in one of the queues or in an attach or detach in flight, never in two of them
+        Queue<long[]> attached = new ConcurrentLinkedQueue<>(attachedDevices);
+        Queue<Long> detached = new ConcurrentLinkedQueue<>(
+                jdbcTemplate.queryForList("select id from device where gateway_id is null", Long.class));
+        Map<String, Integer> weights = parseMix(mix);
+
+        LoadGenerator generator = new LoadGenerator(URI.create("http://localhost:" + port));
+        generator.add("view", weights.get("view"), () -> new LoadGenerator.Call(
+                HttpRequest.newBuilder(generator.uri("/gateway/view/" + randomOf(gatewayIds))).GET().build()));
+        generator.add("list", weights.get("list"), () -> new LoadGenerator.Call(HttpRequest.newBuilder(
+                generator.uri("/gateway/list?limit=20&after=" + randomOf(gatewayIds))).GET().build()));
+        String gatewayJson = objectMapper.writeValueAsString(new Gateway("", "load_gw", "10.8.6.50"));
+        generator.add("create", weights.get("create"), () -> new LoadGenerator.Call(
+                HttpRequest.newBuilder(generator.uri("/gateway/create")).header("Content-Type", "application/json")
+                           .POST(HttpRequest.BodyPublishers.ofString(
+                                   gatewayJson.replace("\"serialNumber\":\"\"",
+                                                       "\"serialNumber\":\"" + UUID.randomUUID() + "\"")))
+                           .build()));
+        generator.add("attach", weights.get("attach"), () -> {
+            Long deviceId = detached.poll();
+            if (deviceId == null) {
+                return null;
+            }
+            long gatewayId = randomOf(gatewayIds);
+            return new LoadGenerator.Call(
+                    HttpRequest.newBuilder(generator.uri("/gateway/" + gatewayId + "/attach/" + deviceId))
+                               .PUT(HttpRequest.BodyPublishers.noBody()).build(), status -> {
+                //A full gateway rejects the device, which is attached again later
+                if (status == 200) {
+                    attached.add(new long[]{gatewayId, deviceId});
+                } else {
+                    detached.add(deviceId);
+                }
+            });
+        });
+        generator.add("detach", weights.get("detach"), () -> {
+            long[] device = attached.poll();
+            if (device == null) {
+                return null;
+            }
+            return new LoadGenerator.Call(
+                    HttpRequest.newBuilder(generator.uri("/gateway/" + device[0] + "/detach/" + device[1]))
+                               .PUT(HttpRequest.BodyPublishers.noBody()).build(), status -> {
+                if (status == 200) {
+                    detached.add(device[1]);
+                } else {
+                    attached.add(device);
+                }
+            });
+        });
+
+        generator.run(rate, Duration.ofSeconds(warmupSeconds));
+        LoadGenerator.Report report = generator.run(rate, Duration.ofSeconds(durationSeconds));
+        report.print(System.out);
+        report.write(Paths.get("target", "loadtest"));
+        assertThat(report.failed()).isZero();
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            if (weight.getValue() > 0) {
+                assertThat(report.answered(weight.getKey())).as(weight.getKey()).isPositive();
+            }
+        }
+    }
+
+    /**
+     * @param mix Comma separated operation=weight pairs, operations left out are not sent
+     * @return Weight by operation
+     */
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String operation : new String[]{"view", "list", "create", "attach", "detach"}) {
+            weights.put(operation, 0);
+        }
+        for (String pair : mix.split(",")) {
+            String[] parts = pair.trim().split("=");
+            if (parts.length != 2 || !weights.containsKey(parts[0])) {
+                throw new IllegalArgumentException("Invalid operation weight: " + pair);
+            }
+            weights.put(parts[0], Integer.parseInt(parts[1]));
+        }
+        return weights;
+    }
+
+    private static long randomOf(List<Long> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+}
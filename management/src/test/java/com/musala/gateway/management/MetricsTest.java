@@ -0,0 +1,104 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.metrics.StatementCountFilter;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.UUID;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the metrics exposed in Prometheus format and the statement counts of the development mode, which the
+ * application runs with.
+ */
+@AutoConfigureMetrics
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.sql.statements.enabled=true"})
+@ExtendWith(SpringExtension.class)
+class MetricsTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${musala.max.gateway.devices}")
+    private int maxDevices;
+
+    @Test
+    void requestsRepositoriesAndPoolAreTimedAndMeasured() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        mockMvc.perform(get("/gateway/view/" + gateway.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/device/list")).andReturn();
+        String metrics = scrape();
+        assertThat(metrics).contains("http_server_requests_seconds_bucket{exception=\"None\",method=\"GET\","
+                                     + "outcome=\"SUCCESS\",status=\"200\",uri=\"/gateway/view/{id}\",le=");
+        assertThat(metrics).contains("uri=\"/device/list\"");
+        assertThat(metrics).containsPattern("spring_data_repository_invocations_seconds_count\\{[^}]*"
+                                            + "method=\"findById\",repository=\"GatewayRepository\"");
+        assertThat(metrics).doesNotContain("spring_data_repository_invocations_seconds_bucket");
+        assertThat(metrics).contains("hikaricp_connections_active{");
+        assertThat(metrics).contains("hikaricp_connections_pending{");
+    }
+
+    @Test
+    void rejectionsAreCountedByReason() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        for (int i = 0; i <= maxDevices; i++) {
+            long deviceId = deviceRepository.save(getTestDevice()).getId();
+            mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach/" + deviceId))
+                   .andExpect(i < maxDevices ? status().isOk() : status().isBadRequest());
+        }
+        mockMvc.perform(put("/gateway/" + gateway.getId() + "/attach/" + Long.MAX_VALUE))
+               .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/gateway/create").contentType(MediaType.APPLICATION_JSON).content(
+                objectMapper.writeValueAsString(new Gateway(UUID.randomUUID().toString(), "test_gw", "10.8.6.256"))))
+               .andExpect(status().isBadRequest());
+        String metrics = scrape();
+        assertThat(metrics).contains(
+                "gateway_rejections_total{cause=\"DeviceLimitException\",reason=\"device_limit\",} 1.0");
+        assertThat(metrics).contains(
+                "gateway_rejections_total{cause=\"DeviceNotFoundException\",reason=\"not_found\",} 1.0");
+        assertThat(metrics).contains(
+                "gateway_rejections_total{cause=\"MethodArgumentNotValidException\",reason=\"validation\",} 1.0");
+    }
+
+    @Test
+    void statementsAreReportedByRequest() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        mockMvc.perform(get("/gateway/list?limit=10")).andExpect(status().isOk())
+               .andExpect(header().string(StatementCountFilter.HEADER, "2"));
+        mockMvc.perform(get("/gateway/view/" + gateway.getId())).andExpect(status().isOk())
+               .andExpect(header().string(StatementCountFilter.HEADER, "1"));
+        mockMvc.perform(get("/gateway/view/" + gateway.getId())).andExpect(status().isOk())
+               .andExpect(header().string(StatementCountFilter.HEADER, "0"));
+        assertThat(scrape()).contains("http_server_requests_statements_count{uri=\"/gateway/view/{id}\",}");
+    }
+
+    private String scrape() throws Exception {
+        return mockMvc.perform(get("/actuator/prometheus")).andExpect(status().isOk()).andReturn().getResponse()
+                      .getContentAsString();
+    }
+}
@@ -0,0 +1,167 @@
+package com.musala.gateway.management;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musala.gateway.management.metrics.StatementCounter;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.DeviceStatusBuffer;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the summary view and the sparse fieldsets of /gateway/list: only the requested fields are written, and
+ * neither the unrequested columns nor the devices, unless requested, are read from the database. The application runs
+ * with the background status writer effectively disabled.
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"musala.status.flush.interval.millis=3600000"})
+@ExtendWith(SpringExtension.class)
+class ProjectionTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private DeviceStatusBuffer deviceStatusBuffer;
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @Test
+    void summaryViewServesTheDeviceCounterWithoutReadingTheDevices() throws Exception {
+        Gateway gateway = gatewayWithDevices(3);
+        String after = String.valueOf(gateway.getId() - 1);
+        MvcResult full = mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1"))
+                                .andExpect(status().isOk()).andReturn();
+
+        StatementCounter.Recording recording = statementCounter.start(true);
+        MvcResult summary;
+        try {
+            summary = mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1")
+                                                          .param("view", "summary"))
+                             .andExpect(status().isOk())
+                             .andExpect(jsonPath("$.items[0].deviceCount").value(3)).andReturn();
+        } finally {
+            statementCounter.stop();
+        }
+        assertThat(recording.getStatements()).hasSize(1);
+        assertThat(recording.getStatements().get(0)).doesNotContainPattern("\\bdevice\\b");
+        JsonNode item = objectMapper.readTree(summary.getResponse().getContentAsByteArray()).get("items").get(0);
+        assertThat(item.fieldNames()).toIterable()
+                                     .containsExactly("id", "serialNumber", "name", "ipAddress", "deviceCount");
+        assertThat(summary.getResponse().getContentAsByteArray().length)
+                .isLessThan(full.getResponse().getContentAsByteArray().length);
+
+        //The counter is part of the summary, so attaching a device changes its tag
+        String etag = summary.getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1").param("view", "summary")
+                                            .header(HttpHeaders.IF_NONE_MATCH, etag))
+               .andExpect(status().isNotModified());
+        gatewayService.attachDevice(gateway.getId(), deviceService.createDevice(getTestDevice()).getId());
+        mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1").param("view", "summary")
+                                            .header(HttpHeaders.IF_NONE_MATCH, etag))
+               .andExpect(status().isOk()).andExpect(jsonPath("$.items[0].deviceCount").value(4));
+    }
+
+    @Test
+    void onlyTheRequestedFieldsAreSelected() throws Exception {
+        Gateway gateway = gatewayWithDevices(2);
+        gatewayService.create(validIpGateway());
+        String after = String.valueOf(gateway.getId() - 1);
+
+        StatementCounter.Recording recording = statementCounter.start(true);
+        MvcResult sparse;
+        try {
+            sparse = mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1")
+                                                         .param("fields", "ipAddress,id, serialNumber"))
+                            .andExpect(status().isOk()).andReturn();
+        } finally {
+            statementCounter.stop();
+        }
+        assertThat(recording.getStatements()).hasSize(1);
+        assertThat(recording.getStatements().get(0)).contains("serial_number", "ip_address")
+                                                    .doesNotContainPattern("\\.name\\b")
+                                                    .doesNotContain("device_count", "ip_value")
+                                                    .doesNotContainPattern("\\bdevice\\b");
+        JsonNode page = objectMapper.readTree(sparse.getResponse().getContentAsByteArray());
+        assertThat(page.get("items").get(0).fieldNames()).toIterable()
+                                                        .containsExactly("id", "serialNumber", "ipAddress");
+        assertThat(page.get("items").get(0).get("serialNumber").asText()).isEqualTo(gateway.getSerialNumber());
+        assertThat(page.get("next").asLong()).isEqualTo(gateway.getId());
+
+        //The devices are read in a second statement and written as in the full listing
+        JsonNode withDevices = StatementBudget.atMost(statementCounter, 2, () -> objectMapper.readTree(
+                mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1")
+                                                    .param("fields", "id,devices"))
+                       .andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray()));
+        JsonNode full = objectMapper.readTree(
+                mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1"))
+                       .andReturn().getResponse().getContentAsByteArray());
+        assertThat(byId(withDevices.get("items").get(0).get("devices")))
+                .isEqualTo(byId(full.get("items").get(0).get("devices")));
+
+        //The tag covers the requested devices
+        String etag = mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1")
+                                                          .param("fields", "id,devices"))
+                             .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        deviceStatusBuffer.offer(withDevices.get("items").get(0).get("devices").get(0).get("id").asLong(),
+                                 DeviceStatus.OFFLINE);
+        deviceStatusBuffer.flush();
+        mockMvc.perform(get("/gateway/list").param("after", after).param("limit", "1").param("fields", "id,devices")
+                                            .header(HttpHeaders.IF_NONE_MATCH, etag))
+               .andExpect(status().isOk());
+    }
+
+    @Test
+    void unknownFieldsAndViewsAreRejected() throws Exception {
+        mockMvc.perform(get("/gateway/list").param("fields", "id,password"))
+               .andExpect(status().isBadRequest()).andExpect(jsonPath("$.NotValidGatewayException").exists());
+        mockMvc.perform(get("/gateway/list").param("fields", " , "))
+               .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/gateway/list").param("view", "compact"))
+               .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/gateway/list").param("view", "summary").param("fields", "id"))
+               .andExpect(status().isBadRequest());
+    }
+
+    private Gateway gatewayWithDevices(int devices) throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            ids.add(deviceService.createDevice(getTestDevice()).getId());
+        }
+        gatewayService.attachDevices(gateway.getId(), ids);
+        return gateway;
+    }
+
+    private static Map<Long, JsonNode> byId(JsonNode devices) {
+        Map<Long, JsonNode> byId = new HashMap<>();
+        devices.forEach(device -> byId.put(device.get("id").asLong(), device));
+        return byId;
+    }
+}
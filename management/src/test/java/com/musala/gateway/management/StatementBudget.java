@@ -0,0 +1,37 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.metrics.StatementCounter;
+
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Asserts an upper bound on the SQL statements Hibernate runs for an action, typically a request performed through
+ * MockMvc, which runs on the calling thread. When the budget is exceeded the failure lists the statements that were
+ * run, so an extra lookup or an eager fetch shows up as a failing test.
+ */
+final class StatementBudget {
+    private StatementBudget() {
+    }
+
+    /**
+     * @param statementCounter Counter registered in the application context
+     * @param budget           Max amount of statements the action may run
+     * @param action           Action to run, e.g. mockMvc.perform(...)
+     * @return The result of the action
+     */
+    static <T> T atMost(StatementCounter statementCounter, int budget, Callable<T> action) throws Exception {
+        StatementCounter.Recording recording = statementCounter.start(true);
+        T result;
+        try {
+            result = action.call();
+        } finally {
+            statementCounter.stop();
+        }
+        assertThat(recording.getCount())
+                .as("SQL statements, budget of %d:%n%s", budget, String.join("\n", recording.getStatements()))
+                .isLessThanOrEqualTo(budget);
+        return result;
+    }
+}
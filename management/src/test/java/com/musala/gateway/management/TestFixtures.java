@@ -0,0 +1,31 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Gateways and devices shared by the tests that persist them, with random serial numbers and uids so they do not
+ * clash with the ones other tests left in the same database.
+ */
+final class TestFixtures {
+    private TestFixtures() {
+    }
+
+    static Gateway validIpGateway() {
+        return new Gateway(UUID.randomUUID().toString(), "test_gw", "10.8.6.50");
+    }
+
+    static Device getTestDevice() {
+        return getTestDevice("Huawei");
+    }
+
+    static Device getTestDevice(String vendor) {
+        return new Device(new Random().nextLong(), vendor, Date.from(Instant.now()), DeviceStatus.ONLINE);
+    }
+}
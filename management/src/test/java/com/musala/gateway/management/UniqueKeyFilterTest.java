@@ -0,0 +1,166 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.management.exception.NotValidGatewayException;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.repository.GatewayRepository;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.GatewayService;
+import com.musala.gateway.management.service.UniqueKeyFilter;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Date;
+import java.time.Instant;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+class UniqueKeyFilterTest {
+    private static final int EXISTING_DEVICES = 1_000_000;
+    private static final int CREATED_DEVICES = 2_000;
+    private static final int SEED_CHUNK = 10_000;
+    private static final long SEED_UID_OFFSET = 4_000_000_000L;
+
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private UniqueKeyFilter uniqueKeyFilter;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    private Statistics statistics;
+
+    @BeforeEach
+    void initialize() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        uniqueKeyFilter.rebuild();
+    }
+
+    @AfterEach
+    void restore() {
+        uniqueKeyFilter.setEnabled(true);
+        statistics.setStatisticsEnabled(false);
+    }
+
+    /**
+     * Checks that creating gateways and devices with new keys does not look the keys up, while it does when the
+     * filter is disabled.
+     *
+     * @throws Exception
+     */
+    @Test
+    void newKeysSkipTheLookup() throws Exception {
+        statistics.clear();
+        gatewayService.create(validIpGateway());
+        deviceService.createDevice(getTestDevice());
+        assertThat(statistics.getQueryExecutionCount()).isZero();
+
+        uniqueKeyFilter.setEnabled(false);
+        gatewayService.create(validIpGateway());
+        deviceService.createDevice(getTestDevice());
+        assertThat(statistics.getQueryExecutionCount()).isEqualTo(2);
+    }
+
+    /**
+     * Checks that keys inserted bypassing the services, and therefore missing from the filter, are still rejected with
+     * the same error by the unique constraints.
+     *
+     * @throws Exception
+     */
+    @Test
+    void keysMissingFromTheFilterAreStillRejected() throws Exception {
+        Gateway gateway = gatewayRepository.save(validIpGateway());
+        NotValidGatewayException gatewayException = assertThrows(NotValidGatewayException.class, () ->
+                gatewayService.create(new Gateway(gateway.getSerialNumber(), "test_gw", "10.8.6.51")));
+        assertThat(gatewayException.getMessage())
+                .isEqualTo("A gateway with serial number: " + gateway.getSerialNumber() + " already exist");
+        Device device = deviceRepository.save(getTestDevice());
+        NotValidDeviceException deviceException = assertThrows(NotValidDeviceException.class, () ->
+                deviceService.createDevice(
+                        new Device(device.getUid(), "Nokia", Date.from(Instant.now()), DeviceStatus.OFFLINE)));
+        assertThat(deviceException.getMessage()).isEqualTo("A device with the specified uid already exist");
+    }
+
+    /**
+     * Checks that keys of deleted records, which stay in the filter, can be used again.
+     *
+     * @throws Exception
+     */
+    @Test
+    void keysOfDeletedRecordsCanBeReused() throws Exception {
+        Device device = deviceService.createDevice(getTestDevice());
+        deviceService.deleteDevice(device.getId());
+        Device reused = deviceService.createDevice(
+                new Device(device.getUid(), "Nokia", Date.from(Instant.now()), DeviceStatus.OFFLINE));
+        assertThat(reused.getId()).isNotEqualTo(device.getId());
+    }
+
+    /**
+     * Creates devices one by one next to a million existing ones, with and without the filter, and compares the
+     * statements sent to the database. Each created device should save the uid lookup.
+     */
+    @Test
+    @Tag("benchmark")
+    void filterSavesTheUidLookupAtAMillionRows() throws Exception {
+        for (long from = 1; from <= EXISTING_DEVICES; from += SEED_CHUNK) {
+            jdbcTemplate.update("insert into device (id, uid, vendor, created_at, status) select "
+                                + "next value for device_seq, ? + x, 'bloom', current_timestamp, 'ONLINE' "
+                                + "from system_range(?, ?)", SEED_UID_OFFSET, from, from + SEED_CHUNK - 1);
+        }
+        try {
+            uniqueKeyFilter.rebuild();
+            uniqueKeyFilter.setEnabled(false);
+            long[] withoutFilter = createDevices(SEED_UID_OFFSET + EXISTING_DEVICES + 1);
+            uniqueKeyFilter.setEnabled(true);
+            long[] withFilter = createDevices(SEED_UID_OFFSET + EXISTING_DEVICES + CREATED_DEVICES + 1);
+            System.out.printf("%d creates next to %d devices: %d statements in %d ms without filter, "
+                              + "%d statements in %d ms with filter%n", CREATED_DEVICES, EXISTING_DEVICES,
+                              withoutFilter[0], withoutFilter[1], withFilter[0], withFilter[1]);
+            //Allows for the lookups of false positives
+            assertThat(withoutFilter[0] - withFilter[0]).isGreaterThanOrEqualTo(CREATED_DEVICES * 95L / 100);
+        } finally {
+            for (long from = 1; from <= EXISTING_DEVICES + 2 * CREATED_DEVICES; from += SEED_CHUNK) {
+                jdbcTemplate.update("delete from device where uid between ? and ?", SEED_UID_OFFSET + from,
+                                    SEED_UID_OFFSET + from + SEED_CHUNK - 1);
+            }
+        }
+    }
+
+    /**
+     * @return The statements prepared and the elapsed milliseconds
+     */
+    private long[] createDevices(long firstUid) throws Exception {
+        statistics.clear();
+        long start = System.nanoTime();
+        for (long uid = firstUid; uid < firstUid + CREATED_DEVICES; uid++) {
+            deviceService.createDevice(new Device(uid, "bloom", Date.from(Instant.now()), DeviceStatus.ONLINE));
+        }
+        return new long[]{statistics.getPrepareStatementCount(), (System.nanoTime() - start) / 1_000_000};
+    }
+}
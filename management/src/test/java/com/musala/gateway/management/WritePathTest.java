@@ -0,0 +1,119 @@
+package com.musala.gateway.management;
+
+import com.musala.gateway.management.exception.DeviceNotFoundException;
+import com.musala.gateway.management.exception.GatewayNotFoundException;
+import com.musala.gateway.management.metrics.StatementCounter;
+import com.musala.gateway.management.model.Device;
+import com.musala.gateway.management.model.Gateway;
+import com.musala.gateway.management.repository.DeviceAttachment;
+import com.musala.gateway.management.repository.DeviceRepository;
+import com.musala.gateway.management.service.DeviceService;
+import com.musala.gateway.management.service.FleetStats;
+import com.musala.gateway.management.service.GatewayService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.musala.gateway.management.TestFixtures.getTestDevice;
+import static com.musala.gateway.management.TestFixtures.validIpGateway;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks deleting a gateway, detaching a device and deleting a device run a fixed amount of statements whatever the
+ * amount of devices involved, while keeping their return values, errors and device counters. The application runs
+ * with gateways allowed to hold many devices.
+ */
+@SpringBootTest(properties = {"musala.status.flush.interval.millis=3600000", "musala.max.gateway.devices=200"})
+@ExtendWith(SpringExtension.class)
+class WritePathTest {
+    @Autowired
+    private GatewayService gatewayService;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private FleetStats fleetStats;
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @Test
+    void deletingAGatewayDetachesAllItsDevicesAtOnce() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        List<Long> ids = attachNewDevices(gateway, 150);
+        long version = deviceService.deviceById(ids.get(0)).getVersion();
+
+        assertThat(StatementBudget.atMost(statementCounter, 5, () -> gatewayService.deleteGateway(gateway.getId())))
+                .isTrue();
+        assertThat(deviceRepository.findAttachments(ids)).hasSize(ids.size())
+                                                         .allSatisfy(d -> assertThat(d.getGatewayId()).isNull());
+        assertThat(deviceService.deviceById(ids.get(0)).getVersion()).isGreaterThan(version);
+        assertThat(fleetStats.gateway(gateway.getId())).isNull();
+        Assertions.assertThrows(GatewayNotFoundException.class, () -> gatewayService.gatewayById(gateway.getId()));
+
+        assertThat(StatementBudget.atMost(statementCounter, 2, () -> gatewayService.deleteGateway(gateway.getId())))
+                .isFalse();
+    }
+
+    @Test
+    void detachingADeviceReturnsTheGatewayWithTheRemainingDevices() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        List<Long> ids = attachNewDevices(gateway, 100);
+
+        Gateway detached = StatementBudget.atMost(statementCounter, 3,
+                                                  () -> gatewayService.detachDevice(gateway.getId(), ids.get(0)));
+        assertThat(detached.getDeviceCount()).isEqualTo(99);
+        assertThat(detached.getDevices()).hasSize(99).noneMatch(d -> d.getId() == ids.get(0));
+        assertThat(deviceRepository.findAttachment(ids.get(0)).map(DeviceAttachment::getGatewayId)).isEmpty();
+        assertThat(gatewayService.verifyDeviceCounts()).noneMatch(m -> m.getId() == gateway.getId());
+    }
+
+    @Test
+    void detachingReportsWhatCouldNotBeDetached() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        long attached = attachNewDevices(gateway, 1).get(0);
+        long unattached = deviceService.createDevice(getTestDevice()).getId();
+
+        Assertions.assertThrows(GatewayNotFoundException.class,
+                                () -> gatewayService.detachDevice(Long.MAX_VALUE, attached));
+        DeviceNotFoundException missing = Assertions.assertThrows(
+                DeviceNotFoundException.class, () -> gatewayService.detachDevice(gateway.getId(), Long.MAX_VALUE));
+        assertThat(missing.getMessage()).contains("could not be found");
+        DeviceNotFoundException notAttached = Assertions.assertThrows(
+                DeviceNotFoundException.class, () -> gatewayService.detachDevice(gateway.getId(), unattached));
+        assertThat(notAttached.getMessage()).contains("is not attached to the specified gateway");
+        assertThat(gatewayService.gatewayById(gateway.getId()).getDeviceCount()).isEqualTo(1);
+    }
+
+    @Test
+    void deletingADeviceUpdatesTheCounterOfItsGateway() throws Exception {
+        Gateway gateway = gatewayService.create(validIpGateway());
+        List<Long> ids = attachNewDevices(gateway, 2);
+
+        assertThat(StatementBudget.atMost(statementCounter, 3, () -> deviceService.deleteDevice(ids.get(0))))
+                .isTrue();
+        assertThat(gatewayService.gatewayById(gateway.getId()).getDeviceCount()).isEqualTo(1);
+        Assertions.assertThrows(DeviceNotFoundException.class, () -> deviceService.deviceById(ids.get(0)));
+
+        assertThat(StatementBudget.atMost(statementCounter, 1, () -> deviceService.deleteDevice(ids.get(0))))
+                .isFalse();
+    }
+
+    private List<Long> attachNewDevices(Gateway gateway, int devices) throws Exception {
+        List<Device> created = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            created.add(getTestDevice());
+        }
+        deviceService.createDevices(created);
+        List<Long> ids = new ArrayList<>();
+        created.forEach(device -> ids.add(device.getId()));
+        gatewayService.attachDevices(gateway.getId(), ids);
+        return ids;
+    }
+}
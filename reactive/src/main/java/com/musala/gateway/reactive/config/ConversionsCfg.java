@@ -0,0 +1,45 @@
+package com.musala.gateway.reactive.config;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.r2dbc.convert.R2dbcCustomConversions;
+import org.springframework.data.r2dbc.dialect.DialectResolver;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * The records keep the java.util.Date timestamps of the servlet build, which R2DBC drivers do not encode, so they are
+ * written and read as LocalDateTime in the default time zone, as JDBC does.
+ */
+@Configuration
+public class ConversionsCfg {
+
+    @Bean
+    public R2dbcCustomConversions r2dbcCustomConversions(ConnectionFactory connectionFactory) {
+        return R2dbcCustomConversions.of(DialectResolver.getDialect(connectionFactory),
+                                         Arrays.asList(new DateWriter(), new DateReader()));
+    }
+
+    @WritingConverter
+    static class DateWriter implements Converter<Date, LocalDateTime> {
+        @Override
+        public LocalDateTime convert(Date source) {
+            return LocalDateTime.ofInstant(source.toInstant(), ZoneId.systemDefault());
+        }
+    }
+
+    @ReadingConverter
+    static class DateReader implements Converter<LocalDateTime, Date> {
+        @Override
+        public Date convert(LocalDateTime source) {
+            return Date.from(source.atZone(ZoneId.systemDefault()).toInstant());
+        }
+    }
+}
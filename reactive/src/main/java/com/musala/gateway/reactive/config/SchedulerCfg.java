@@ -0,0 +1,21 @@
+package com.musala.gateway.reactive.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The H2 driver runs every statement on the thread that subscribes to it, so a write waiting on a row lock, for up to
+ * the LOCK_TIMEOUT of the database, would block an event loop and every connection served by it. The services
+ * subscribe to their writes on this bounded scheduler instead. Reads are left on the event loops, they never wait on
+ * row locks.
+ */
+@Configuration
+public class SchedulerCfg {
+
+    @Bean
+    public Scheduler writeScheduler() {
+        return Schedulers.boundedElastic();
+    }
+}
@@ -0,0 +1,111 @@
+package com.musala.gateway.reactive.controller;
+
+import com.musala.gateway.management.exception.DeviceNotFoundException;
+import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.reactive.model.Device;
+import com.musala.gateway.reactive.service.DeviceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Same endpoints, statuses and error bodies as {@link com.musala.gateway.management.controller.DeviceController},
+ * served without blocking a thread per request.
+ */
+@RestController
+@RequestMapping("/device")
+public class DeviceController {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    DeviceService deviceService;
+
+    /**
+     * Retrieves one page of devices ordered by id, NO_CONTENT if no record exists after the given cursor.
+     *
+     * @param after Id of the last device of the previous page, omit it to start from the beginning.
+     * @param limit Max amount of devices to return.
+     * @return Page of devices.
+     */
+    @GetMapping("/list")
+    public Mono<ResponseEntity<?>> list(@RequestParam(defaultValue = "0") long after,
+                                        @RequestParam(defaultValue = "${musala.page.default.limit}") int limit) {
+        logger.info("Request at: /device/list");
+        return deviceService.list(after, limit).map(page -> {
+            if (!page.isEmpty()) {
+                logger.info("/device/list responded OK");
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
+            logger.info("/device/list did not yield any results");
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        });
+    }
+
+    /**
+     * Retrieves a device given its id, NO_CONTENT if it does not exist.
+     *
+     * @param id Identifier of the requested device
+     * @return The requested device in case it exists.
+     */
+    @GetMapping("/view/{id}")
+    public Mono<ResponseEntity<?>> viewDevice(@PathVariable long id) {
+        logger.info("Request at: /device/view/" + id);
+        return deviceService.deviceById(id).<ResponseEntity<?>>map(device -> {
+            logger.info("/device/view/" + id + " responded OK");
+            return new ResponseEntity<>(device, HttpStatus.OK);
+        }).onErrorResume(DeviceNotFoundException.class, e -> {
+            logger.error("/device/view/" + id + " responded NO CONTENT", e);
+            return Mono.just(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+        });
+    }
+
+    @PostMapping("/create")
+    public Mono<ResponseEntity<?>> create(@Valid @RequestBody Device device) {
+        return deviceService.createDevice(device).map(created -> new ResponseEntity<>(created, HttpStatus.CREATED));
+    }
+
+    @PutMapping("/update/{id}")
+    public Mono<ResponseEntity<?>> update(@Valid @RequestBody Device device, @PathVariable long id) {
+        logger.info("Requested /device/update/" + id);
+        return deviceService.updateDevice(device, id).map(updated -> new ResponseEntity<>(updated, HttpStatus.OK));
+    }
+
+    @DeleteMapping("/delete/{id}")
+    public Mono<ResponseEntity<?>> delete(@PathVariable long id) {
+        logger.info("Requested /device/delete/" + id);
+        return deviceService.deleteDevice(id).map(deleted -> {
+            logger.info("Device of id: " + id + (deleted ? " deleted, /device/delete/" + id + " responded OK" :
+                                                 " could not be deleted, /device/delete/" + id
+                                                 + " responded NO_CONTENT status"));
+            return new ResponseEntity<>(deleted ? HttpStatus.OK : HttpStatus.NO_CONTENT);
+        });
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler( {
+            WebExchangeBindException.class, DeviceNotFoundException.class, NotValidDeviceException.class
+    })
+    @ResponseBody
+    public Map<String, String> handleValidationExceptions(Exception ex) {
+        Map<String, String> errors = new HashMap<>();
+        if (ex instanceof WebExchangeBindException) {
+            ((WebExchangeBindException) ex).getBindingResult().getAllErrors().forEach((error) -> {
+                String fieldName = ((FieldError) error).getField();
+                String errorMessage = error.getDefaultMessage();
+                errors.put(fieldName, errorMessage);
+            });
+        } else {
+            errors.put(ex.getClass().getSimpleName(), ex.getMessage());
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,156 @@
+package com.musala.gateway.reactive.controller;
+
+import com.musala.gateway.management.exception.*;
+import com.musala.gateway.reactive.model.Gateway;
+import com.musala.gateway.reactive.service.GatewayService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Same endpoints, statuses and error bodies as {@link com.musala.gateway.management.controller.GatewayController},
+ * served without blocking a thread per request.
+ */
+@SuppressWarnings("unused")
+@RestController
+@RequestMapping("/gateway")
+public class GatewayController {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    GatewayService gatewayService;
+
+    @GetMapping("/list")
+    public Mono<ResponseEntity<?>> listGateways(@RequestParam(defaultValue = "0") long after,
+                                                @RequestParam(defaultValue = "${musala.page.default.limit}")
+                                                        int limit) {
+        logger.info("Request made to /gateway/list");
+        return gatewayService.list(after, limit).map(gateways -> {
+            if (!gateways.isEmpty()) {
+                logger.info("/gateway/list responded OK.");
+                return new ResponseEntity<>(gateways, HttpStatus.OK);
+            }
+            logger.info("/gateway/list responded NO_CONTENT");
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        });
+    }
+
+    /**
+     * Finds the gateways with the given IP address.
+     *
+     * @param ip IPv4 address in dotted decimal notation
+     * @return The gateways with the given address, NO_CONTENT if there are none.
+     */
+    @GetMapping("/by-ip/{ip:.+}")
+    public Mono<ResponseEntity<?>> gatewaysByIp(@PathVariable String ip) {
+        logger.info("Request made to /gateway/by-ip/" + ip);
+        return gatewayService.gatewaysByIp(ip).map(gateways -> {
+            if (!gateways.isEmpty()) {
+                logger.info("/gateway/by-ip responded OK.");
+                return new ResponseEntity<>(gateways, HttpStatus.OK);
+            }
+            logger.info("/gateway/by-ip responded NO_CONTENT");
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        });
+    }
+
+    @GetMapping("/view/{id}")
+    public Mono<ResponseEntity<?>> viewGateway(@PathVariable long id) {
+        return gatewayService.gatewayById(id).<ResponseEntity<?>>map(gateway -> new ResponseEntity<>(gateway,
+                                                                                                    HttpStatus.OK))
+                             .onErrorResume(GatewayNotFoundException.class, e -> {
+                                 logger.error("/gateway/view responded NO_CONTENT", e);
+                                 return Mono.just(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+                             });
+    }
+
+    @PostMapping("/create")
+    public Mono<ResponseEntity<?>> createGateway(@Valid @RequestBody Gateway gateway) {
+        return gatewayService.create(gateway).map(record -> new ResponseEntity<>(record, HttpStatus.CREATED));
+    }
+
+    @DeleteMapping("/delete/{id}")
+    public Mono<ResponseEntity<?>> deleteGateway(@PathVariable long id) {
+        return gatewayService.deleteGateway(id).map(deleted -> {
+            logger.info("Gateway of id: " + id + (deleted ? " deleted, /gateway/delete/" + id + " responded OK" :
+                                                  " could not be deleted, /gateway/delete/" + id
+                                                  + " responded NO_CONTENT status"));
+            return new ResponseEntity<>(deleted ? HttpStatus.OK : HttpStatus.NO_CONTENT);
+        });
+    }
+
+    @PutMapping("/update/{id}")
+    public Mono<ResponseEntity<?>> updateGateway(@Valid @RequestBody Gateway gateway, @PathVariable long id) {
+        logger.info("/gateway/update Requested");
+        return gatewayService.updateGateway(gateway, id).map(updated -> {
+            logger.info("/gateway/update responded OK");
+            return new ResponseEntity<>(updated, HttpStatus.OK);
+        });
+    }
+
+    @PutMapping("/{gateway_id}/attach/{device_id}")
+    public Mono<ResponseEntity<?>> attachDevice(@PathVariable long gateway_id, @PathVariable long device_id) {
+        logger.info("/gateway/attach requested");
+        return gatewayService.attachDevice(gateway_id, device_id).map(updated -> {
+            logger.info("/gateway/attach responded OK");
+            return new ResponseEntity<>(updated, HttpStatus.OK);
+        });
+    }
+
+    @PutMapping("/{gateway_id}/detach/{device_id}")
+    public Mono<ResponseEntity<?>> detachDevice(@PathVariable long gateway_id, @PathVariable long device_id) {
+        logger.info("/gateway/detach requested");
+        return gatewayService.detachDevice(gateway_id, device_id).map(updated -> {
+            logger.info("/gateway/detach responded OK");
+            return new ResponseEntity<>(updated, HttpStatus.OK);
+        });
+    }
+
+    @GetMapping("/devices/{id}")
+    public Mono<ResponseEntity<?>> gatewayDevices(@PathVariable long id, @RequestParam(defaultValue = "0") long after,
+                                                  @RequestParam(defaultValue = "${musala.page.default.limit}")
+                                                          int limit) {
+        logger.info("/gateway/devices requested");
+        return gatewayService.gatewayDevices(id, after, limit).map(devices -> {
+            logger.info("/gateway/devices responded OK");
+            return new ResponseEntity<>(devices, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Maps the errors of the endpoints, and the model validation errors, to a BAD_REQUEST response.
+     *
+     * @param ex exception signaled
+     * @return a map with the fields that could not pass validation tests and the corresponding error message.
+     */
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler( {
+            WebExchangeBindException.class, DeviceLimitException.class, DeviceNotFoundException.class,
+            GatewayNotFoundException.class, NotValidGatewayException.class, NotValidDeviceException.class
+    })
+    @ResponseBody
+    public Map<String, String> handleValidationExceptions(Exception ex) {
+        Map<String, String> errors = new HashMap<>();
+        if (ex instanceof WebExchangeBindException) {
+            ((WebExchangeBindException) ex).getBindingResult().getAllErrors().forEach((error) -> {
+                String fieldName = ((FieldError) error).getField();
+                String errorMessage = error.getDefaultMessage();
+                logger.error("Gateway." + fieldName + ":" + errorMessage, ex);
+                errors.put(fieldName, errorMessage);
+            });
+        } else {
+            errors.put(ex.getClass().getSimpleName(), ex.getMessage());
+        }
+        return errors;
+    }
+
+}
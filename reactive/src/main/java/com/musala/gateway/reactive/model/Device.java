@@ -0,0 +1,93 @@
+package com.musala.gateway.reactive.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.musala.gateway.management.model.DeviceStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import javax.validation.constraints.NotNull;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Device record of the reactive edition, serialized exactly as
+ * {@link com.musala.gateway.management.model.Device}. The gateway is referenced by its id only, and like the gateway
+ * of the servlet record it is not serialized.
+ */
+@Table("device")
+public class Device {
+    @Id
+    private Long id;
+    @Column("uid")
+    @NotNull(message = "UID most be specified")
+    private long uid;//Assumed that the uid is a unique identifier for the device
+    @Column("vendor")
+    private String vendor;
+    @Column("created_at")
+    private Date createdAt;
+    @Column("status")
+    private DeviceStatus deviceStatus = DeviceStatus.ONLINE;
+    @Column("gateway_id")
+    @JsonIgnore
+    private Long gatewayId;
+
+    public Device() {
+        createdAt = Calendar.getInstance().getTime();
+    }
+
+    public Device(long uid, String vendor, Date createdAt, DeviceStatus deviceStatus) {
+        this.uid = uid;
+        this.vendor = vendor;
+        this.createdAt = createdAt;
+        this.deviceStatus = deviceStatus;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    public void setUid(long uid) {
+        this.uid = uid;
+    }
+
+    public String getVendor() {
+        return vendor;
+    }
+
+    public void setVendor(String vendor) {
+        this.vendor = vendor;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public DeviceStatus getDeviceStatus() {
+        return deviceStatus;
+    }
+
+    public void setDeviceStatus(DeviceStatus deviceStatus) {
+        this.deviceStatus = deviceStatus;
+    }
+
+    public Long getGatewayId() {
+        return gatewayId;
+    }
+
+    public void setGatewayId(Long gatewayId) {
+        this.gatewayId = gatewayId;
+    }
+}
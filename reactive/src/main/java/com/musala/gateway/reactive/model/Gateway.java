@@ -0,0 +1,134 @@
+package com.musala.gateway.reactive.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.musala.gateway.management.annotation.IPConstraint;
+import com.musala.gateway.management.util.Ipv4;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import javax.validation.constraints.NotBlank;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Gateway record of the reactive edition. It is serialized exactly as the servlet one, see
+ * {@link com.musala.gateway.management.model.Gateway}, and follows the same rules: the IP address is stored along with
+ * its numeric value and the device counter is never written from the record, only through the relative updates of
+ * GatewayRepository.
+ */
+@SuppressWarnings("unused")
+@Table("gateway")
+public class Gateway {
+    @Id
+    private Long id;
+    @Column("serial_number")
+    @NotBlank(message = "Serial number is required")
+    private String serialNumber;
+    private String name;
+    @Column("ip_address")
+    @NotBlank(message = "IP Address is required")
+    @IPConstraint(message = "Invalid IP Address")
+    private String ipAddress;
+    @Column("ip_value")
+    @JsonIgnore
+    private long ipValue;
+    /**
+     * Devices are not mapped, R2DBC has no relationships. The services read them with a query of their own and set
+     * them on the read paths that return them.
+     */
+    @Transient
+    private List<Device> devices;
+    @Column("device_count")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private int deviceCount;
+
+    public Gateway() {
+        devices = new ArrayList<>();
+    }
+
+    public Gateway(String serialNumber, String name, String ipAddress) {
+        this();
+        this.serialNumber = serialNumber;
+        this.name = name;
+        setIpAddress(ipAddress);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public void setIpAddress(String ipAddress) {
+        this.ipAddress = ipAddress;
+        this.ipValue = Ipv4.parse(ipAddress);
+    }
+
+    public long getIpValue() {
+        return ipValue;
+    }
+
+    public List<Device> getDevices() {
+        return devices;
+    }
+
+    public void setDevices(List<Device> devices) {
+        this.devices = devices;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public void setDeviceCount(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    @JsonIgnore
+    public boolean isIPAddressValid() {
+        return ipValue != Ipv4.INVALID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Gateway gateway = (Gateway) o;
+        return Objects.equals(serialNumber, gateway.serialNumber);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(serialNumber);
+    }
+}
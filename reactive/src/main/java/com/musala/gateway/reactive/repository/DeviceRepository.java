@@ -0,0 +1,55 @@
+package com.musala.gateway.reactive.repository;
+
+import com.musala.gateway.reactive.model.Device;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Date;
+
+@Repository
+public interface DeviceRepository extends ReactiveCrudRepository<Device, Long> {
+
+    @Query("select * from device where id > :after order by id limit :limit")
+    Flux<Device> findPageAfter(long after, int limit);
+
+    @Query("select * from device where gateway_id = :gatewayId and id > :after order by id limit :limit")
+    Flux<Device> findPageByGatewayAfter(long gatewayId, long after, int limit);
+
+    Flux<Device> findByGatewayIdOrderById(long gatewayId);
+
+    Flux<Device> findByGatewayIdInOrderById(Collection<Long> gatewayIds);
+
+    @Query("select id from device where uid = :uid")
+    Mono<Long> findIdByUid(long uid);
+
+    /**
+     * Loads a device locking its row until the current transaction ends, so concurrent attaches and detaches of the
+     * same device see the gateway it was left in by the previous one.
+     */
+    @Query("select * from device where id = :id for update")
+    Mono<Device> findByIdForUpdate(long id);
+
+    @Modifying
+    @Query("update device set gateway_id = :gatewayId where id = :id")
+    Mono<Integer> attach(long id, long gatewayId);
+
+    @Modifying
+    @Query("update device set gateway_id = null where id = :id")
+    Mono<Integer> detach(long id);
+
+    @Modifying
+    @Query("update device set gateway_id = null where gateway_id = :gatewayId")
+    Mono<Integer> detachAll(long gatewayId);
+
+    /**
+     * Writes the editable columns of a device, the gateway is only changed by attaches and detaches.
+     */
+    @Modifying
+    @Query("update device set uid = :uid, vendor = :vendor, created_at = :createdAt, status = :status where id = :id")
+    Mono<Integer> update(long id, long uid, String vendor, Date createdAt, String status);
+}
@@ -0,0 +1,49 @@
+package com.musala.gateway.reactive.repository;
+
+import com.musala.gateway.reactive.model.Gateway;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+public interface GatewayRepository extends ReactiveCrudRepository<Gateway, Long> {
+
+    @Query("select * from gateway where id > :after order by id limit :limit")
+    Flux<Gateway> findPageAfter(long after, int limit);
+
+    Flux<Gateway> findByIpValueOrderById(long ipValue);
+
+    @Query("select id from gateway where serial_number = :serialNumber")
+    Mono<Long> findIdBySerialNumber(String serialNumber);
+
+    /**
+     * Takes one of the free device slots of a gateway. The check and the increment are a single statement, so
+     * concurrent attaches to the same gateway cannot exceed the limit without holding a lock on it while the rest of
+     * the attachment runs.
+     *
+     * @param id         Gateway identifier
+     * @param maxDevices Max amount of devices allowed in a gateway
+     * @return 1 if a slot was taken, 0 if the gateway is full or does not exist.
+     */
+    @Modifying
+    @Query("update gateway set device_count = device_count + 1 where id = :id and device_count < :maxDevices")
+    Mono<Integer> takeDeviceSlot(long id, int maxDevices);
+
+    /**
+     * Adds the given amount, negative to subtract, to the device counter of a gateway.
+     */
+    @Modifying
+    @Query("update gateway set device_count = device_count + :delta where id = :id")
+    Mono<Integer> addToDeviceCount(long id, int delta);
+
+    /**
+     * Writes the editable columns of a gateway, leaving the device counter to the relative updates.
+     */
+    @Modifying
+    @Query("update gateway set serial_number = :serialNumber, name = :name, ip_address = :ipAddress, "
+           + "ip_value = :ipValue where id = :id")
+    Mono<Integer> update(long id, String serialNumber, String name, String ipAddress, long ipValue);
+}
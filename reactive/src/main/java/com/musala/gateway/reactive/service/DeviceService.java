@@ -0,0 +1,159 @@
+package com.musala.gateway.reactive.service;
+
+import com.musala.gateway.management.dto.KeysetPage;
+import com.musala.gateway.management.exception.DeviceNotFoundException;
+import com.musala.gateway.management.exception.NotValidDeviceException;
+import com.musala.gateway.reactive.model.Device;
+import com.musala.gateway.reactive.repository.DeviceRepository;
+import com.musala.gateway.reactive.repository.GatewayRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Device rules of the servlet build, see {@link com.musala.gateway.management.service.DeviceService}, on non-blocking
+ * repositories. Writes are subscribed to on the write scheduler, see
+ * {@link com.musala.gateway.reactive.config.SchedulerCfg}.
+ */
+@Service
+public class DeviceService {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    DeviceRepository deviceRepository;
+    @Autowired
+    GatewayRepository gatewayRepository;
+    @Autowired
+    private Scheduler writeScheduler;
+    @Value("${musala.page.max.limit}")
+    private int maxPageLimit;
+
+    /**
+     * Lists one page of Device records ordered by id, starting right after the specified cursor.
+     *
+     * @param after Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return Page of Device records along with the cursor of the next page.
+     */
+    public Mono<KeysetPage<Device>> list(long after, int limit) {
+        int size = pageSize(limit);
+        return deviceRepository.findPageAfter(after, size + 1).collectList()
+                               .map(fetched -> KeysetPage.of(fetched, size, Device::getId));
+    }
+
+    /**
+     * Lists one page of the Devices attached to the specified Gateway ordered by id, starting right after the
+     * specified cursor.
+     *
+     * @param gatewayId Gateway identifier
+     * @param after     Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit     Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return Page of Device records along with the cursor of the next page.
+     */
+    public Mono<KeysetPage<Device>> listByGateway(long gatewayId, long after, int limit) {
+        int size = pageSize(limit);
+        return deviceRepository.findPageByGatewayAfter(gatewayId, after, size + 1).collectList()
+                               .map(fetched -> KeysetPage.of(fetched, size, Device::getId));
+    }
+
+    /**
+     * Retrieves the specified Device record.
+     *
+     * @param id Identifier of the Device to retrieve.
+     * @return Device record corresponding to the specified id, or a DeviceNotFoundException error if it does not
+     * exist.
+     */
+    public Mono<Device> deviceById(long id) {
+        return deviceRepository.findById(id).switchIfEmpty(Mono.error(() -> {
+            logger.warn("Requested nonexistent device of id: " + id);
+            return new DeviceNotFoundException("Device not found with ID: " + id);
+        }));
+    }
+
+    /**
+     * Creates a new Device record, not attached to any gateway. The uid is looked up first and the unique constraint
+     * of the table catches the devices created concurrently with the same one.
+     *
+     * @param device Device information.
+     * @return Stored Device Record, or a NotValidDeviceException error if the uid is taken
+     */
+    public Mono<Device> createDevice(Device device) {
+        device.setId(null);
+        device.setGatewayId(null);
+        return deviceRepository.findIdByUid(device.getUid())
+                               .flatMap(existing -> Mono.<Device>error(uidTaken()))
+                               .switchIfEmpty(Mono.defer(() -> deviceRepository.save(device)))
+                               .onErrorResume(DataIntegrityViolationException.class,
+                                              e -> deviceRepository.findIdByUid(device.getUid())
+                                                                   .flatMap(existing -> Mono.<Device>error(uidTaken()))
+                                                                   .switchIfEmpty(Mono.error(e)))
+                               .doOnNext(saved -> logger.info("Device with id: " + saved.getId() + " created"))
+                               .subscribeOn(writeScheduler);
+    }
+
+    private NotValidDeviceException uidTaken() {
+        return new NotValidDeviceException("A device with the specified uid already exist");
+    }
+
+    /**
+     * Modifies the specified Device record. The uniqueness of the uid is only looked up when it changes, and the
+     * gateway of the device is left as it is.
+     *
+     * @param device Device information to perform the update.
+     * @param id     specified Device record to be updated
+     * @return Modified Device record, or a DeviceNotFoundException or NotValidDeviceException error
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Mono<Device> updateDevice(Device device, long id) {
+        return deviceRepository.findById(id).switchIfEmpty(Mono.error(() -> new DeviceNotFoundException(
+                "The specified Device with id: " + id + " could not be modified because it does not exist")))
+                               .flatMap(update -> {
+                                   Mono<Long> byUid = update.getUid() == device.getUid() ? Mono.just(id) :
+                                                      deviceRepository.findIdByUid(device.getUid());
+                                   return byUid.filter(existing -> existing != id)
+                                               .flatMap(existing -> Mono.<Integer>error(new NotValidDeviceException(
+                                                       "The specified uid is asociated to another device")))
+                                               .switchIfEmpty(Mono.defer(() -> deviceRepository.update(
+                                                       id, device.getUid(), device.getVendor(),
+                                                       device.getCreatedAt() != null ? device.getCreatedAt() :
+                                                       update.getCreatedAt(),
+                                                       device.getDeviceStatus() == null ? null :
+                                                       device.getDeviceStatus().name())));
+                               })
+                               .then(Mono.defer(() -> deviceRepository.findById(id)))
+                               .doOnNext(updated -> logger.info("Device of id: " + id + " updated"))
+                               .subscribeOn(writeScheduler);
+    }
+
+    /**
+     * Attempts to delete a Device record, freeing its slot in the gateway it is attached to.
+     *
+     * @param id Identifier of the device to be deleted.
+     * @return True if the specified Device exists, False otherwise.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Mono<Boolean> deleteDevice(long id) {
+        return deviceRepository.findByIdForUpdate(id).flatMap(device -> {
+            Mono<Void> deleted = deviceRepository.deleteById(id);
+            if (device.getGatewayId() != null) {
+                deleted = deleted.then(gatewayRepository.addToDeviceCount(device.getGatewayId(), -1)).then();
+            }
+            return deleted.then(Mono.fromSupplier(() -> {
+                logger.info("Device of id: " + id + " deleted");
+                return true;
+            }));
+        }).switchIfEmpty(Mono.fromSupplier(() -> {
+            logger.warn("Device of id: " + id + " could not be deleted because it does not exist");
+            return false;
+        })).subscribeOn(writeScheduler);
+    }
+
+    private int pageSize(int limit) {
+        return Math.min(Math.max(limit, 1), maxPageLimit);
+    }
+}
@@ -0,0 +1,309 @@
+package com.musala.gateway.reactive.service;
+
+import com.musala.gateway.management.dto.KeysetPage;
+import com.musala.gateway.management.exception.DeviceLimitException;
+import com.musala.gateway.management.exception.DeviceNotFoundException;
+import com.musala.gateway.management.exception.GatewayNotFoundException;
+import com.musala.gateway.management.exception.NotValidGatewayException;
+import com.musala.gateway.management.util.Ipv4;
+import com.musala.gateway.reactive.model.Device;
+import com.musala.gateway.reactive.model.Gateway;
+import com.musala.gateway.reactive.repository.DeviceRepository;
+import com.musala.gateway.reactive.repository.GatewayRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Gateway rules of the servlet build, see {@link com.musala.gateway.management.service.GatewayService}, on
+ * non-blocking repositories. Failures are signaled with the same checked exceptions and messages, as errors of the
+ * returned publishers. Writes are subscribed to on the write scheduler, see
+ * {@link com.musala.gateway.reactive.config.SchedulerCfg}.
+ */
+@SuppressWarnings("unused")
+@Service
+public class GatewayService {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+    @Autowired
+    private GatewayRepository gatewayRepository;
+    @Autowired
+    private DeviceRepository deviceRepository;
+    @Autowired
+    private DeviceService deviceService;
+    @Autowired
+    private Scheduler writeScheduler;
+    @Autowired
+    private DatabaseClient databaseClient;
+    @Value("${musala.max.gateway.devices}")
+    private int maxDevices;
+    @Value("${musala.page.max.limit}")
+    private int maxPageLimit;
+
+    /**
+     * Creates a Gateway record. The serial number is looked up first and the unique constraint of the table catches
+     * the gateways created concurrently with the same one.
+     *
+     * @param gateway Gateway information
+     * @return The created record
+     */
+    public Mono<Gateway> create(Gateway gateway) {
+        if (!gateway.isIPAddressValid()) {
+            NotValidGatewayException e = new NotValidGatewayException("Provided IP address is not valid");
+            logger.error(e.getMessage(), e);
+            return Mono.error(e);
+        }
+        gateway.setId(null);
+        gateway.setDeviceCount(0);
+        String serialNumber = gateway.getSerialNumber();
+        return gatewayRepository.findIdBySerialNumber(serialNumber)
+                                .flatMap(existing -> Mono.<Gateway>error(duplicatedSerialNumber(serialNumber)))
+                                .switchIfEmpty(Mono.defer(() -> gatewayRepository.save(gateway)))
+                                .onErrorResume(DataIntegrityViolationException.class,
+                                               e -> gatewayRepository.findIdBySerialNumber(serialNumber)
+                                                                     .flatMap(existing -> Mono.<Gateway>error(
+                                                                             duplicatedSerialNumber(serialNumber)))
+                                                                     .switchIfEmpty(Mono.error(e)))
+                                .doOnNext(saved -> logger.info("Gateway record created"))
+                                .subscribeOn(writeScheduler);
+    }
+
+    private NotValidGatewayException duplicatedSerialNumber(String serialNumber) {
+        NotValidGatewayException e =
+                new NotValidGatewayException("A gateway with serial number: " + serialNumber + " already exist");
+        logger.error(e.getMessage(), e);
+        return e;
+    }
+
+    /**
+     * Retrieves the Gateway record specified by the id parameter along with its devices.
+     *
+     * @param id Id of the gateway
+     * @return The retrieved Gateway record, or a GatewayNotFoundException error if it does not exist
+     */
+    public Mono<Gateway> gatewayById(long id) {
+        return gatewayRepository.findById(id).switchIfEmpty(Mono.error(() -> {
+            logger.warn("Requested nonexistent gateway of id: " + id);
+            return new GatewayNotFoundException("Gateway not found with ID: " + id);
+        })).flatMap(this::withDevices);
+    }
+
+    /**
+     * Retrieves one page of Gateway records ordered by id, starting right after the specified cursor. The devices of
+     * the whole page are read with a single query.
+     *
+     * @param after Id of the last Gateway of the previous page, 0 to start from the beginning.
+     * @param limit Max amount of Gateways in the page, capped by the configured maximum page size.
+     * @return Page of Gateway records along with the cursor of the next page.
+     */
+    public Mono<KeysetPage<Gateway>> list(long after, int limit) {
+        int size = Math.min(Math.max(limit, 1), maxPageLimit);
+        return gatewayRepository.findPageAfter(after, size + 1).collectList()
+                                .map(fetched -> KeysetPage.of(fetched, size, Gateway::getId))
+                                .flatMap(page -> withDevices(page.getItems()).thenReturn(page))
+                                .doOnNext(page -> logger.info(
+                                        "Listed " + page.getItems().size() + " gateways after id: " + after));
+    }
+
+    /**
+     * Retrieves the Gateways whose IP address is the given one.
+     *
+     * @param ipAddress IPv4 address in dotted decimal notation
+     * @return Gateways with the given address, ordered by id, or a NotValidGatewayException error if the given
+     * address is not a valid IPv4 address
+     */
+    public Mono<List<Gateway>> gatewaysByIp(String ipAddress) {
+        long ipValue = Ipv4.parse(ipAddress);
+        if (ipValue == Ipv4.INVALID) {
+            NotValidGatewayException e = new NotValidGatewayException("Provided IP address is not valid");
+            logger.error(e.getMessage(), e);
+            return Mono.error(e);
+        }
+        return gatewayRepository.findByIpValueOrderById(ipValue).collectList()
+                                .flatMap(gateways -> withDevices(gateways).thenReturn(gateways));
+    }
+
+    /**
+     * Lists one page of the Devices attached to the specified Gateway.
+     *
+     * @param gatewayId Gateway identifier
+     * @param after     Id of the last Device of the previous page, 0 to start from the beginning.
+     * @param limit     Max amount of Devices in the page, capped by the configured maximum page size.
+     * @return Page of Device records, or a GatewayNotFoundException error if the Gateway does not exist
+     */
+    public Mono<KeysetPage<Device>> gatewayDevices(long gatewayId, long after, int limit) {
+        return gatewayRepository.existsById(gatewayId).flatMap(exists -> {
+            if (!exists) {
+                logger.error("Gateway of id:" + gatewayId + " not found");
+                return Mono.error(new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found"));
+            }
+            return deviceService.listByGateway(gatewayId, after, limit);
+        });
+    }
+
+    /**
+     * Updates a specified Gateway record. Only the editable columns are written, so attaches running meanwhile keep
+     * their changes to the device counter.
+     *
+     * @param gateway Information to be updated
+     * @param id      id of the record to update
+     * @return Updated Gateway record, or a GatewayNotFoundException or NotValidGatewayException error
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Mono<Gateway> updateGateway(Gateway gateway, long id) {
+        return gatewayRepository.existsById(id).flatMap(exists -> {
+            if (!exists) {
+                logger.warn("Requested nonexistent gateway of id: " + id);
+                return Mono.error(new GatewayNotFoundException("Gateway not found with ID: " + id));
+            }
+            if (!gateway.isIPAddressValid()) {
+                NotValidGatewayException e = new NotValidGatewayException("Provided IP address is not valid");
+                logger.error(e.getMessage(), e);
+                return Mono.error(e);
+            }
+            return gatewayRepository.findIdBySerialNumber(gateway.getSerialNumber())
+                                    .filter(bySerialNumber -> bySerialNumber != id)
+                                    .flatMap(bySerialNumber -> Mono.<Integer>error(
+                                            duplicatedSerialNumber(gateway.getSerialNumber())))
+                                    .switchIfEmpty(Mono.defer(() -> gatewayRepository.update(
+                                            id, gateway.getSerialNumber(), gateway.getName(), gateway.getIpAddress(),
+                                            gateway.getIpValue())))
+                                    .then(Mono.defer(() -> gatewayById(id)))
+                                    .doOnNext(updated -> logger.info("The gateway of id: " + id + " was updated"));
+        }).subscribeOn(writeScheduler);
+    }
+
+    /**
+     * Attaches an existing device to a specified gateway. The device row is locked while it is moved, and the slot it
+     * takes in the gateway is claimed with a conditional update of the device counter, so neither concurrent attaches
+     * to the same gateway nor concurrent attaches of the same device can exceed the limit.
+     *
+     * @param gatewayId Identifier of the Gateway to which the device will be attached
+     * @param deviceId  Identifier of the Device to be attached
+     * @return Updated Gateway record with the new Device attached, or a GatewayNotFoundException,
+     * DeviceNotFoundException or DeviceLimitException error
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Mono<Gateway> attachDevice(long gatewayId, long deviceId) {
+        return gatewayRepository.existsById(gatewayId).flatMap(exists -> {
+            if (!exists) {
+                logger.error("Could not attach device due to gateway not found");
+                return Mono.error(new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found"));
+            }
+            return deviceRepository.findByIdForUpdate(deviceId).switchIfEmpty(Mono.error(() -> {
+                logger.error("Could not attach device to gateway due to device not found");
+                return new DeviceNotFoundException("Device of id: " + deviceId + " could not be found");
+            })).flatMap(device -> {
+                //If the gateway already has the device attached is not necessary to perform any operation
+                if (Long.valueOf(gatewayId).equals(device.getGatewayId())) {
+                    return Mono.empty();
+                }
+                Mono<Integer> take = gatewayRepository.takeDeviceSlot(gatewayId, maxDevices).flatMap(taken -> {
+                    if (taken == 0) {
+                        //No slot is taken either if the gateway was deleted since it was looked up
+                        return gatewayRepository.existsById(gatewayId).flatMap(stillExists -> Mono.error(
+                                stillExists ? new DeviceLimitException("The amount of devices exceeds the predefined"
+                                                                       + " limit of " + maxDevices + " devices") :
+                                new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found")));
+                    }
+                    return deviceRepository.attach(deviceId, gatewayId);
+                });
+                Long previous = device.getGatewayId();
+                if (previous == null) {
+                    return take;
+                }
+                //The device is moved from another gateway. Gateway rows are updated in id order, so two moves in
+                //opposite directions between the same gateways cannot deadlock
+                Mono<Integer> release = gatewayRepository.addToDeviceCount(previous, -1);
+                return previous < gatewayId ? release.then(take) : take.then(release);
+            }).doOnNext(attached -> logger.info("Device attached to gateway"))
+              .then(Mono.defer(() -> gatewayById(gatewayId)));
+        }).subscribeOn(writeScheduler);
+    }
+
+    /**
+     * Detaches the specified Device from the specified Gateway. If either the specified Gateway or Device don't
+     * exist, or the Device is not attached to the Gateway, an error is signaled.
+     *
+     * @param gatewayId Gateway from which the Device will be detached.
+     * @param deviceId  Device to be detached from the Gateway.
+     * @return The updated Gateway record with the specified Device detached, or a GatewayNotFoundException or
+     * DeviceNotFoundException error
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Mono<Gateway> detachDevice(long gatewayId, long deviceId) {
+        return gatewayRepository.existsById(gatewayId).flatMap(exists -> {
+            if (!exists) {
+                logger.error("Could not detach device due to gateway not found");
+                return Mono.error(new GatewayNotFoundException("Gateway of id: " + gatewayId + " could not be found"));
+            }
+            return deviceRepository.findByIdForUpdate(deviceId).switchIfEmpty(Mono.error(() -> {
+                logger.error("Could not detach device to gateway due to device not found");
+                return new DeviceNotFoundException("Device of id: " + deviceId + " could not be found");
+            })).flatMap(device -> {
+                if (!Long.valueOf(gatewayId).equals(device.getGatewayId())) {
+                    logger.error("The specified device is not attached to the gateway");
+                    return Mono.error(new DeviceNotFoundException(
+                            "The specified device of id: " + deviceId + " is not attached to the specified gateway"));
+                }
+                return deviceRepository.detach(deviceId).then(gatewayRepository.addToDeviceCount(gatewayId, -1));
+            }).doOnNext(detached -> logger.info("Device detached from gateway"))
+                                   .then(Mono.defer(() -> gatewayById(gatewayId)));
+        }).subscribeOn(writeScheduler);
+    }
+
+    /**
+     * Attempts to delete a Gateway record, its devices are detached and kept. The rows of its devices and then its own
+     * row are locked first, in the order attaches lock them, so no device can be attached to it or moved away from it
+     * meanwhile.
+     *
+     * @param id Gateway to be deleted
+     * @return True if the Gateway exists and therefore is deleted, False otherwise.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Mono<Boolean> deleteGateway(long id) {
+        Mono<Boolean> lock = databaseClient.sql("select id from device where gateway_id = :id order by id for update")
+                                           .bind("id", id).fetch().all()
+                                           .then(databaseClient.sql("select id from gateway where id = :id for update")
+                                                               .bind("id", id).fetch().first().hasElement());
+        //Devices attached before the gateway got locked are detached too, none can be attached from now on
+        return lock.flatMap(exists -> !exists ? Mono.just(false) :
+                                      deviceRepository.detachAll(id)
+                                                      .then(gatewayRepository.deleteById(id))
+                                                      .thenReturn(true))
+                   .subscribeOn(writeScheduler);
+    }
+
+    private Mono<Gateway> withDevices(Gateway gateway) {
+        return deviceRepository.findByGatewayIdOrderById(gateway.getId()).collectList().map(devices -> {
+            gateway.setDevices(devices);
+            return gateway;
+        });
+    }
+
+    /**
+     * Sets the devices of the given Gateways, read with a single query.
+     */
+    private Mono<Void> withDevices(List<Gateway> gateways) {
+        if (gateways.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Long> ids = gateways.stream().map(Gateway::getId).collect(Collectors.toList());
+        return deviceRepository.findByGatewayIdInOrderById(ids).collectMultimap(Device::getGatewayId)
+                               .doOnNext(devices -> gateways.forEach(gateway -> gateway.setDevices(
+                                       new ArrayList<>(devices.getOrDefault(gateway.getId(),
+                                                                            Collections.emptyList())))))
+                               .then();
+    }
+}
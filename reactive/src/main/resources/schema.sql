@@ -0,0 +1,24 @@
+create table if not exists gateway
+(
+    id            bigint auto_increment primary key,
+    serial_number varchar(255) not null,
+    name          varchar(255),
+    ip_address    varchar(255) not null,
+    ip_value      bigint       not null,
+    device_count  integer      not null default 0,
+    constraint gateway_serial_number_uk unique (serial_number)
+);
+create index if not exists gateway_ip_value_idx on gateway (ip_value, id);
+
+create table if not exists device
+(
+    id         bigint auto_increment primary key,
+    uid        bigint not null,
+    vendor     varchar(255),
+    created_at timestamp,
+    status     varchar(255),
+    gateway_id bigint,
+    constraint device_uid_uk unique (uid),
+    constraint device_gateway_fk foreign key (gateway_id) references gateway (id)
+);
+create index if not exists device_gateway_idx on device (gateway_id, id);
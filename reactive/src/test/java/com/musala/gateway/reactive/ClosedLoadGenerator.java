@@ -0,0 +1,183 @@
+package com.musala.gateway.reactive;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Closed model HTTP load generator: a fixed amount of clients each send a request, wait for its response and
+ * immediately send the next one, so the server always has that many requests in flight. It measures how a build
+ * copes with many concurrent connections, while the open model of the servlet load test measures latency at a given
+ * arrival rate. Each request is chosen among the added operations according to their weights.
+ */
+class ClosedLoadGenerator {
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final List<WeightedOperation> operations = new ArrayList<>();
+    private int totalWeight;
+
+    /**
+     * @param name      Name the latencies of the operation are reported under
+     * @param weight    Relative frequency of the operation, operations with no weight are not sent
+     * @param operation Builds each request of the operation against the given base address
+     */
+    void add(String name, int weight, Function<URI, HttpRequest> operation) {
+        if (weight > 0) {
+            operations.add(new WeightedOperation(name, weight, operation));
+            totalWeight += weight;
+        }
+    }
+
+    /**
+     * Keeps the given amount of requests in flight against a server during the given time and waits for the last
+     * responses.
+     *
+     * @param base        Base address of the server
+     * @param concurrency Requests in flight
+     * @param duration    Time during which requests are sent
+     * @return Latencies and responses by operation
+     */
+    Report run(URI base, int concurrency, Duration duration) throws InterruptedException {
+        Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        operations.forEach(operation -> endpoints.put(operation.name, new Endpoint()));
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            send(base, endpoints, end, done);
+        }
+        done.await();
+        return new Report(concurrency, System.nanoTime() - start, endpoints);
+    }
+
+    private void send(URI base, Map<String, Endpoint> endpoints, long end, CountDownLatch done) {
+        if (System.nanoTime() >= end) {
+            done.countDown();
+            return;
+        }
+        WeightedOperation operation = pick();
+        Endpoint endpoint = endpoints.get(operation.name);
+        long sentAt = System.nanoTime();
+        client.sendAsync(operation.operation.apply(base), HttpResponse.BodyHandlers.discarding())
+              .whenComplete((response, error) -> {
+                  endpoint.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt));
+                  endpoint.count(response == null ? 0 : response.statusCode());
+                  send(base, endpoints, end, done);
+              });
+    }
+
+    private WeightedOperation pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (WeightedOperation operation : operations) {
+            value -= operation.weight;
+            if (value < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("No operation was added");
+    }
+
+    private static class WeightedOperation {
+        private final String name;
+        private final int weight;
+        private final Function<URI, HttpRequest> operation;
+
+        WeightedOperation(String name, int weight, Function<URI, HttpRequest> operation) {
+            this.name = name;
+            this.weight = weight;
+            this.operation = operation;
+        }
+    }
+
+    private static class Endpoint {
+        //Microseconds, auto resized so no latency is out of range
+        private final Histogram latencies = new ConcurrentHistogram(3);
+        private final LongAdder successful = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        void count(int status) {
+            if (status >= 200 && status < 300) {
+                successful.increment();
+            } else if (status >= 400 && status < 500) {
+                rejected.increment();
+            } else {
+                failed.increment();
+            }
+        }
+    }
+
+    static class Report {
+        private final int concurrency;
+        private final long time;
+        private final Map<String, Endpoint> endpoints;
+
+        Report(int concurrency, long time, Map<String, Endpoint> endpoints) {
+            this.concurrency = concurrency;
+            this.time = time;
+            this.endpoints = endpoints;
+        }
+
+        /**
+         * @return Requests answered with a server error or not answered at all
+         */
+        long failed() {
+            return endpoints.values().stream().mapToLong(endpoint -> endpoint.failed.sum()).sum();
+        }
+
+        /**
+         * @return Requests that got a response
+         */
+        long answered() {
+            return endpoints.values().stream()
+                            .mapToLong(endpoint -> endpoint.successful.sum() + endpoint.rejected.sum()).sum();
+        }
+
+        /**
+         * Prints throughput, response counts and latency percentiles, in milliseconds, by operation.
+         *
+         * @param title Name of the tested build
+         * @param out   Stream to print to
+         */
+        void print(String title, PrintStream out) {
+            double seconds = time / 1e9;
+            out.printf("%s: %d requests in flight during %.1f s%n", title, concurrency, seconds);
+            out.printf("%-10s %9s %9s %8s %8s %8s %9s %9s %9s %9s%n", "operation", "requests", "req/s", "2xx", "4xx",
+                       "failed", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+            Histogram all = new Histogram(3);
+            long successful = 0;
+            long rejected = 0;
+            for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+                Endpoint endpoint = entry.getValue();
+                all.add(endpoint.latencies);
+                successful += endpoint.successful.sum();
+                rejected += endpoint.rejected.sum();
+                print(out, entry.getKey(), endpoint.latencies, seconds, endpoint.successful.sum(),
+                      endpoint.rejected.sum(), endpoint.failed.sum());
+            }
+            print(out, "total", all, seconds, successful, rejected, failed());
+        }
+
+        private static void print(PrintStream out, String name, Histogram latencies, double seconds, long successful,
+                                  long rejected, long failed) {
+            out.printf("%-10s %9d %9.1f %8d %8d %8d %9.2f %9.2f %9.2f %9.2f%n", name, latencies.getTotalCount(),
+                       latencies.getTotalCount() / seconds, successful, rejected, failed,
+                       latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+                       latencies.getValueAtPercentile(99.9) / 1000.0, latencies.getMaxValue() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.musala.gateway.reactive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the reactive edition with the servlet build under the same workload at high concurrency. The servlet build
+ * is started from its executable jar in a separate JVM, so it has to be packaged first, and the reactive one runs in
+ * the test JVM, both over their own in memory database and with their request logging off. Each one is seeded with
+ * the same fleet through its HTTP api, warmed up and then loaded with the same mix of views, listings and attaches by
+ * a fixed amount of concurrent clients (see {@link ClosedLoadGenerator}). Throughput and latency percentiles of both
+ * are printed, and the device counters of both are checked afterwards.
+ * <p>
+ * mvn -DskipTests install && mvn -pl reactive test -Ploadtest -Dloadtest.concurrency=512
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.r2dbc.url=r2dbc:h2:mem:///loadtest?options=DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                      "logging.level.com.musala=OFF"})
+@ExtendWith(SpringExtension.class)
+class LoadComparisonTest {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(120);
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${musala.max.gateway.devices}")
+    private int maxDevices;
+    @Value("${loadtest.servlet.jar:../management/target/management-1.0-exec.jar}")
+    private String servletJar;
+    @Value("${loadtest.gateways:200}")
+    private int gateways;
+    @Value("${loadtest.devices:2000}")
+    private int devices;
+    @Value("${loadtest.concurrency:256}")
+    private int concurrency;
+    @Value("${loadtest.warmup.seconds:10}")
+    private int warmupSeconds;
+    @Value("${loadtest.duration.seconds:30}")
+    private int durationSeconds;
+
+    @Test
+    void servletAndReactiveBuildsUnderTheSameLoad() throws Exception {
+        URI reactive = URI.create("http://localhost:" + port);
+        int servletPort = freePort();
+        URI servlet = URI.create("http://localhost:" + servletPort);
+        Process servletProcess = startServlet(servletPort);
+        try {
+            awaitServlet(servlet, servletProcess);
+            List<ClosedLoadGenerator.Report> reports = new ArrayList<>();
+            for (URI base : new URI[]{servlet, reactive}) {
+                seed(base);
+                ClosedLoadGenerator generator = workload();
+                generator.run(base, concurrency, Duration.ofSeconds(warmupSeconds));
+                reports.add(generator.run(base, concurrency, Duration.ofSeconds(durationSeconds)));
+            }
+            reports.get(0).print("servlet (Tomcat, JDBC)", System.out);
+            reports.get(1).print("reactive (Netty, R2DBC)", System.out);
+            //The servlet build may time out waiting for a pooled connection under this load, its failures are
+            //reported but only the counters are checked
+            assertThat(reports.get(0).answered()).isPositive();
+            assertDeviceCounts(servlet);
+            assertThat(reports.get(1).failed()).isZero();
+            assertThat(reports.get(1).answered()).isPositive();
+            assertDeviceCounts(reactive);
+        } finally {
+            servletProcess.destroy();
+            if (!servletProcess.waitFor(30, TimeUnit.SECONDS)) {
+                servletProcess.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Views are the most frequent operation, attaches pick a random gateway and device so some devices move between
+     * gateways and some are rejected because the gateway is full.
+     */
+    private ClosedLoadGenerator workload() {
+        ClosedLoadGenerator generator = new ClosedLoadGenerator();
+        generator.add("view", 50, base -> HttpRequest.newBuilder(
+                base.resolve("/gateway/view/" + random(gateways))).GET().build());
+        generator.add("list", 15, base -> HttpRequest.newBuilder(
+                base.resolve("/gateway/list?limit=20&after=" + random(gateways))).GET().build());
+        generator.add("device", 15, base -> HttpRequest.newBuilder(
+                base.resolve("/device/view/" + random(devices))).GET().build());
+        generator.add("attach", 20, base -> HttpRequest.newBuilder(
+                base.resolve("/gateway/" + random(gateways) + "/attach/" + random(devices)))
+                                                      .PUT(HttpRequest.BodyPublishers.noBody()).build());
+        return generator;
+    }
+
+    /**
+     * Creates the gateways and devices, ids are expected to start from 1 on a fresh database. The servlet build
+     * allocates them from sequences and the reactive one from identity columns, both starting from 1.
+     */
+    private void seed(URI base) throws IOException, InterruptedException {
+        for (int i = 0; i < gateways; i++) {
+            post(base, "/gateway/create", "{\"serialNumber\":\"load-" + i
+                                          + "\",\"name\":\"load_gw\",\"ipAddress\":\"10.8.6.50\"}");
+        }
+        for (int i = 0; i < devices; i++) {
+            post(base, "/device/create", "{\"uid\":" + i + ",\"vendor\":\"load\",\"deviceStatus\":\"ONLINE\"}");
+        }
+    }
+
+    private void post(URI base, String path, String json) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(base.resolve(path)).header("Content-Type", "application/json")
+                           .POST(HttpRequest.BodyPublishers.ofString(json)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).as(response.body()).isEqualTo(201);
+    }
+
+    /**
+     * Walks every gateway checking its device counter matches its devices and is within the limit.
+     */
+    private void assertDeviceCounts(URI base) throws IOException, InterruptedException {
+        long after = 0;
+        int checked = 0;
+        while (true) {
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(base.resolve("/gateway/list?limit=100&after=" + after)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 204) {
+                break;
+            }
+            JsonNode page = objectMapper.readTree(response.body());
+            for (JsonNode gateway : page.get("items")) {
+                assertThat(gateway.get("deviceCount").asInt()).as(base + " gateway " + gateway.get("id"))
+                                                           .isEqualTo(gateway.get("devices").size())
+                                                           .isLessThanOrEqualTo(maxDevices);
+                checked++;
+            }
+            if (page.get("next").isNull()) {
+                break;
+            }
+            after = page.get("next").asLong();
+        }
+        assertThat(checked).isEqualTo(gateways);
+    }
+
+    private Process startServlet(int servletPort) throws IOException {
+        File jar = new File(servletJar);
+        assertThat(jar).as("Servlet build jar, package the management module first").exists();
+        Path log = Paths.get("target", "loadtest-servlet.log");
+        Files.createDirectories(log.getParent());
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        //Started from a path with .. in it, the executable jar loads its classes several times slower
+        return new ProcessBuilder(java, "-jar", jar.getCanonicalPath(), "--server.port=" + servletPort,
+                                  "--musala.enable.test.data=false", "--logging.level.com.musala=OFF")
+                .redirectErrorStream(true).redirectOutput(log.toFile()).start();
+    }
+
+    private void awaitServlet(URI servlet, Process process) throws InterruptedException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            assertThat(process.isAlive()).as("Servlet build exited, see target/loadtest-servlet.log").isTrue();
+            try {
+                if (client.send(HttpRequest.newBuilder(servlet.resolve("/actuator/health")).GET().build(),
+                                HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                //Not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Servlet build did not start within " + STARTUP_TIMEOUT);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long random(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound) + 1;
+    }
+}
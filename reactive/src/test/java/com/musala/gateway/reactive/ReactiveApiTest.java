@@ -0,0 +1,258 @@
+package com.musala.gateway.reactive;
+
+import com.musala.gateway.management.model.DeviceStatus;
+import com.musala.gateway.reactive.model.Device;
+import com.musala.gateway.reactive.model.Gateway;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the reactive edition answers like the servlet build, and keeps the device limit and the uid and serial
+ * number uniqueness.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ExtendWith(SpringExtension.class)
+class ReactiveApiTest {
+    @Autowired
+    private WebTestClient webTestClient;
+    @Autowired
+    private ConnectionFactory connectionFactory;
+    @LocalServerPort
+    private int port;
+    @Value("${musala.max.gateway.devices}")
+    private int maxDevices;
+
+    @Test
+    void createViewAndListGateways() {
+        Gateway created = createGateway(validIpGateway());
+        assertThat(created.getId()).isNotNull();
+        webTestClient.get().uri("/gateway/view/" + created.getId()).exchange().expectStatus().isOk().expectBody()
+                     .jsonPath("$.serialNumber").isEqualTo(created.getSerialNumber())
+                     .jsonPath("$.devices").isEmpty()
+                     .jsonPath("$.deviceCount").isEqualTo(0)
+                     .jsonPath("$.ipValue").doesNotExist();
+        webTestClient.get().uri("/gateway/view/" + Long.MAX_VALUE).exchange().expectStatus().isNoContent();
+        webTestClient.get().uri("/gateway/list?limit=1&after=" + (created.getId() - 1)).exchange().expectStatus()
+                     .isOk().expectBody().jsonPath("$.items[0].id").isEqualTo(created.getId());
+        webTestClient.get().uri("/gateway/by-ip/10.8.6.50").exchange().expectStatus().isOk();
+    }
+
+    @Test
+    void invalidAndDuplicatedGatewaysAreRejected() {
+        webTestClient.post().uri("/gateway/create")
+                     .bodyValue(new Gateway(UUID.randomUUID().toString(), "test_gw", "10.8.6.256")).exchange()
+                     .expectStatus().isBadRequest().expectBody().jsonPath("$.ipAddress").isEqualTo("Invalid IP Address");
+        Gateway created = createGateway(validIpGateway());
+        webTestClient.post().uri("/gateway/create")
+                     .bodyValue(new Gateway(created.getSerialNumber(), "test_gw", "10.8.6.50")).exchange()
+                     .expectStatus().isBadRequest().expectBody().jsonPath("$.NotValidGatewayException")
+                     .isEqualTo("A gateway with serial number: " + created.getSerialNumber() + " already exist");
+    }
+
+    @Test
+    void devicesAreAttachedUpToTheLimit() {
+        Gateway gateway = createGateway(validIpGateway());
+        for (int i = 0; i < maxDevices; i++) {
+            attach(gateway.getId(), createDevice().getId()).expectStatus().isOk();
+        }
+        attach(gateway.getId(), createDevice().getId()).expectStatus().isBadRequest().expectBody()
+                .jsonPath("$.DeviceLimitException").exists();
+        webTestClient.get().uri("/gateway/view/" + gateway.getId()).exchange().expectBody()
+                     .jsonPath("$.devices.length()").isEqualTo(maxDevices)
+                     .jsonPath("$.deviceCount").isEqualTo(maxDevices);
+    }
+
+    @Test
+    void concurrentAttachesDoNotExceedTheLimit() {
+        Gateway gateway = createGateway(validIpGateway());
+        List<Long> devices = Flux.range(0, maxDevices * 3).map(i -> createDevice().getId()).collectList().block();
+        List<HttpStatus> statuses = Flux.fromIterable(devices).flatMap(
+                deviceId -> webTestClient.put().uri("/gateway/" + gateway.getId() + "/attach/" + deviceId)
+                                         .exchange().returnResult(String.class).getStatus() == HttpStatus.OK ?
+                            Flux.just(HttpStatus.OK) : Flux.just(HttpStatus.BAD_REQUEST), 16).collectList().block();
+        assertThat(statuses.stream().filter(HttpStatus.OK::equals).collect(Collectors.toList())).hasSize(maxDevices);
+        webTestClient.get().uri("/gateway/view/" + gateway.getId()).exchange().expectBody()
+                     .jsonPath("$.deviceCount").isEqualTo(maxDevices);
+    }
+
+    @Test
+    void movedDetachedAndDeletedDevicesFreeTheirSlot() {
+        Gateway first = createGateway(validIpGateway());
+        Gateway second = createGateway(validIpGateway());
+        Device device = createDevice();
+        attach(first.getId(), device.getId()).expectStatus().isOk();
+        attach(second.getId(), device.getId()).expectStatus().isOk().expectBody().jsonPath("$.deviceCount")
+                                               .isEqualTo(1);
+        webTestClient.get().uri("/gateway/view/" + first.getId()).exchange().expectBody()
+                     .jsonPath("$.deviceCount").isEqualTo(0);
+        webTestClient.put().uri("/gateway/" + first.getId() + "/detach/" + device.getId()).exchange()
+                     .expectStatus().isBadRequest().expectBody().jsonPath("$.DeviceNotFoundException")
+                     .isEqualTo("The specified device of id: " + device.getId()
+                                + " is not attached to the specified gateway");
+        webTestClient.put().uri("/gateway/" + second.getId() + "/detach/" + device.getId()).exchange()
+                     .expectStatus().isOk().expectBody().jsonPath("$.deviceCount").isEqualTo(0);
+        attach(second.getId(), device.getId()).expectStatus().isOk();
+        webTestClient.delete().uri("/device/delete/" + device.getId()).exchange().expectStatus().isOk();
+        webTestClient.get().uri("/gateway/view/" + second.getId()).exchange().expectBody()
+                     .jsonPath("$.deviceCount").isEqualTo(0);
+        webTestClient.delete().uri("/device/delete/" + device.getId()).exchange().expectStatus().isNoContent();
+    }
+
+    @Test
+    void rejectedMoveKeepsTheDeviceWhereItWas() {
+        Gateway first = createGateway(validIpGateway());
+        Gateway full = createGateway(validIpGateway());
+        for (int i = 0; i < maxDevices; i++) {
+            attach(full.getId(), createDevice().getId()).expectStatus().isOk();
+        }
+        Device device = createDevice();
+        attach(first.getId(), device.getId()).expectStatus().isOk();
+        attach(full.getId(), device.getId()).expectStatus().isBadRequest();
+        webTestClient.get().uri("/gateway/view/" + first.getId()).exchange().expectBody()
+                     .jsonPath("$.deviceCount").isEqualTo(1)
+                     .jsonPath("$.devices[0].id").isEqualTo(device.getId());
+    }
+
+    @Test
+    void deletingAGatewayWhileDevicesAreAttachedToIt() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        for (int round = 0; round < 5; round++) {
+            Gateway gateway = createGateway(validIpGateway());
+            List<Long> devices = Flux.range(0, maxDevices).map(i -> createDevice().getId()).collectList().block();
+            List<CompletableFuture<HttpResponse<Void>>> attaches = new ArrayList<>();
+            for (Long deviceId : devices) {
+                attaches.add(client.sendAsync(
+                        HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/gateway/" + gateway.getId()
+                                                          + "/attach/" + deviceId))
+                                   .PUT(HttpRequest.BodyPublishers.noBody()).build(),
+                        HttpResponse.BodyHandlers.discarding()));
+            }
+            HttpResponse<Void> deleted = client.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/gateway/delete/"
+                                                      + gateway.getId()))
+                               .DELETE().build(), HttpResponse.BodyHandlers.discarding());
+            assertThat(deleted.statusCode()).isEqualTo(200);
+            //Attaches that lost the race are rejected, none of them fails
+            for (CompletableFuture<HttpResponse<Void>> attach : attaches) {
+                assertThat(attach.get(30, TimeUnit.SECONDS).statusCode()).isIn(200, 400);
+            }
+            Connection connection = Mono.from(connectionFactory.create()).block();
+            try {
+                Long attached = Flux.from(connection.createStatement(
+                        "select count(*) from device where gateway_id is not null and id between $1 and $2")
+                                                    .bind("$1", devices.get(0))
+                                                    .bind("$2", devices.get(devices.size() - 1)).execute())
+                                    .flatMap(result -> result.map((row, metadata) -> row.get(0, Long.class)))
+                                    .blockLast();
+                assertThat(attached).isZero();
+            } finally {
+                Mono.from(connection.close()).block();
+            }
+        }
+    }
+
+    @Test
+    void deviceUidsAreUnique() {
+        Device device = createDevice();
+        Device other = createDevice();
+        webTestClient.post().uri("/device/create").bodyValue(device).exchange().expectStatus().isBadRequest()
+                     .expectBody().jsonPath("$.NotValidDeviceException")
+                     .isEqualTo("A device with the specified uid already exist");
+        other.setUid(device.getUid());
+        webTestClient.put().uri("/device/update/" + other.getId()).bodyValue(other).exchange().expectStatus()
+                     .isBadRequest().expectBody().jsonPath("$.NotValidDeviceException")
+                     .isEqualTo("The specified uid is asociated to another device");
+        device.setVendor("Cisco");
+        webTestClient.put().uri("/device/update/" + device.getId()).bodyValue(device).exchange().expectStatus()
+                     .isOk().expectBody().jsonPath("$.vendor").isEqualTo("Cisco");
+    }
+
+    /**
+     * Holds the row lock of a device from another connection while more attaches of it than event loops wait on the
+     * lock, and checks a view is still answered meanwhile.
+     */
+    @Test
+    void attachesWaitingOnARowLockDoNotBlockTheEventLoops() throws Exception {
+        Gateway gateway = createGateway(validIpGateway());
+        Device device = createDevice();
+        Connection lock = Mono.from(connectionFactory.create()).block();
+        try {
+            Mono.from(lock.beginTransaction()).block();
+            Flux.from(lock.createStatement("select id from device where id = $1 for update").bind("$1", device.getId())
+                          .execute()).flatMap(result -> result.map((row, metadata) -> row)).blockLast();
+            HttpClient client = HttpClient.newHttpClient();
+            List<CompletableFuture<HttpResponse<Void>>> attaches = new ArrayList<>();
+            //Reactor Netty serves with at least 4 event loops, one per processor
+            for (int i = 0; i < Math.max(Runtime.getRuntime().availableProcessors(), 4) * 4; i++) {
+                attaches.add(client.sendAsync(
+                        HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/gateway/" + gateway.getId()
+                                                          + "/attach/" + device.getId()))
+                                   .PUT(HttpRequest.BodyPublishers.noBody()).build(),
+                        HttpResponse.BodyHandlers.discarding()));
+            }
+            //Lets the attaches reach the lock
+            Thread.sleep(1000);
+            HttpResponse<Void> view = client.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/gateway/view/" + gateway.getId()))
+                               .timeout(Duration.ofSeconds(5)).build(), HttpResponse.BodyHandlers.discarding());
+            assertThat(view.statusCode()).isEqualTo(200);
+            assertThat(attaches).noneMatch(CompletableFuture::isDone);
+            Mono.from(lock.rollbackTransaction()).block();
+            for (CompletableFuture<HttpResponse<Void>> attach : attaches) {
+                assertThat(attach.get(30, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+            }
+        } finally {
+            Mono.from(lock.close()).block();
+        }
+    }
+
+    private Gateway createGateway(Gateway gateway) {
+        return webTestClient.post().uri("/gateway/create").bodyValue(gateway).exchange().expectStatus().isCreated()
+                            .expectBody(Gateway.class).returnResult().getResponseBody();
+    }
+
+    private Device createDevice() {
+        return webTestClient.post().uri("/device/create").bodyValue(getTestDevice()).exchange().expectStatus()
+                            .isCreated().expectBody(Device.class).returnResult().getResponseBody();
+    }
+
+    private WebTestClient.ResponseSpec attach(long gatewayId, long deviceId) {
+        return webTestClient.put().uri("/gateway/" + gatewayId + "/attach/" + deviceId).exchange();
+    }
+
+    Gateway validIpGateway() {
+        return new Gateway(UUID.randomUUID().toString(), "test_gw", "10.8.6.50");
+    }
+
+    Device getTestDevice() {
+        return new Device(new Random().nextLong(), "Huawei", Date.from(Instant.now()), DeviceStatus.ONLINE);
+    }
+}